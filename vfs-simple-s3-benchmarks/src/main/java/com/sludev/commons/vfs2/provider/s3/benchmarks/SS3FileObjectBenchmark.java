@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3.benchmarks;
+
+import com.sludev.commons.vfs2.provider.s3.SS3Constants;
+import com.sludev.commons.vfs2.provider.s3.SS3FakeServer;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.FileType;
+import org.apache.commons.vfs2.Selectors;
+import org.apache.commons.vfs2.cache.NullFilesCache;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Times the provider's common operations against an in-process S3 stand-in.
+ *
+ * Files are never cached by the manager, so every operation resolves a new
+ * File Object and makes its requests again.  The 'latency' parameter delays
+ * each request, so operations making more round-trips than needed stand out.
+ *
+ * Run with 'java -jar target/benchmarks.jar'.
+ *
+ * @author kervin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SS3FileObjectBenchmark
+{
+    private static final String BUCKET = "benchmark";
+
+    private static final int SMALL_SIZE = 4 * 1024;
+    private static final int LARGE_SIZE = 32 * 1024 * 1024;
+
+    /**
+     * Milliseconds added to every request.
+     */
+    @Param({ "0", "5" })
+    public long latency;
+
+    /**
+     * The number of files in the listed folder.
+     */
+    @Param({ "2000" })
+    public int listSize;
+
+    private SS3FakeServer server;
+    private DefaultFileSystemManager manager;
+    private FileSystemOptions opts;
+    private byte[] smallContent;
+    private byte[] readBuffer;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        Random rand = new Random(1);
+
+        smallContent = new byte[SMALL_SIZE];
+        rand.nextBytes(smallContent);
+
+        byte[] largeContent = new byte[LARGE_SIZE];
+        rand.nextBytes(largeContent);
+
+        readBuffer = new byte[64 * 1024];
+
+        server = new SS3FakeServer();
+        server.createBucket(BUCKET);
+
+        server.putObject(BUCKET, "small/file", smallContent);
+        server.putObject(BUCKET, "large/file", largeContent);
+
+        for( int i = 0; i < listSize; i++ )
+        {
+            server.putObject(BUCKET, String.format("list/file%05d", i), smallContent);
+        }
+
+        // 10 folders of 20 files, each with a sub-folder of 20 more
+        for( int i = 0; i < 10; i++ )
+        {
+            for( int j = 0; j < 20; j++ )
+            {
+                server.putObject(BUCKET, String.format("tree/dir%02d/file%02d", i, j), smallContent);
+                server.putObject(BUCKET, String.format("tree/dir%02d/sub/file%02d", i, j), smallContent);
+            }
+        }
+
+        server.setLatency(latency);
+        server.start();
+
+        manager = new DefaultFileSystemManager();
+        manager.addProvider(SS3Constants.S3SCHEME, server.createProvider());
+        manager.setFilesCache(new NullFilesCache());
+        manager.init();
+
+        opts = server.createOptions();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        manager.close();
+        server.stop();
+    }
+
+    private FileObject resolve(String path) throws Exception
+    {
+        return manager.resolveFile(String.format("%s://%s/%s/%s",
+                SS3Constants.S3SCHEME, "s3.local", BUCKET, path), opts);
+    }
+
+    @Benchmark
+    public boolean resolveAndExists() throws Exception
+    {
+        return resolve("small/file").exists();
+    }
+
+    @Benchmark
+    public FileType getFolderType() throws Exception
+    {
+        return resolve("tree/dir00").getType();
+    }
+
+    @Benchmark
+    public int listChildren() throws Exception
+    {
+        return resolve("list").getChildren().length;
+    }
+
+    @Benchmark
+    public void writeSmall() throws Exception
+    {
+        FileObject file = resolve("write/file");
+
+        try( OutputStream out = file.getContent().getOutputStream() )
+        {
+            out.write(smallContent);
+        }
+    }
+
+    @Benchmark
+    public long readLarge(Blackhole bh) throws Exception
+    {
+        long res = 0;
+
+        try( InputStream in = resolve("large/file").getContent().getInputStream() )
+        {
+            int count;
+            while( (count = in.read(readBuffer)) >= 0 )
+            {
+                bh.consume(readBuffer);
+                res += count;
+            }
+        }
+
+        return res;
+    }
+
+    @Benchmark
+    public int findFiles() throws Exception
+    {
+        return resolve("tree").findFiles(Selectors.SELECT_FILES).length;
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileType;
+
+/**
+ * Asynchronous operations on the path of an {@link SS3FileObject}.
+ *
+ * Each operation returns straight away and completes its future on the
+ * file-system's asynchronous executor.  Operations talk to S3 directly rather
+ * than going through the VFS API, which holds the file-system's lock for the
+ * length of each call and so would run them one at a time.
+ *
+ * Changes made here are not seen by the wrapped File Object until it's
+ * refreshed.  The file-system's metadata cache is kept up to date.
+ *
+ * @author kervin
+ */
+public final class SS3AsyncFileObject
+{
+    private final SS3FileObject fileObject;
+    private final SS3FileSystem fileSystem;
+
+    /**
+     * Creates the asynchronous view of a File Object.
+     *
+     * @param fileObject The File Object whose path is used
+     */
+    public SS3AsyncFileObject(SS3FileObject fileObject)
+    {
+        this.fileObject = fileObject;
+        this.fileSystem = (SS3FileSystem)fileObject.getFileSystem();
+    }
+
+    /**
+     * The wrapped File Object.
+     *
+     * @return
+     */
+    public SS3FileObject getFileObject()
+    {
+        return fileObject;
+    }
+
+    /**
+     * Checks whether a file or folder exists at this path.
+     *
+     * @return true if the path exists
+     */
+    public CompletableFuture<Boolean> exists()
+    {
+        return submit(new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call() throws Exception
+            {
+                return fileObject.fetchObjectInfo().getType() != FileType.IMAGINARY;
+            }
+        });
+    }
+
+    /**
+     * Finds the type of this path.
+     *
+     * @return FILE, FOLDER or IMAGINARY
+     */
+    public CompletableFuture<FileType> getType()
+    {
+        return submit(new Callable<FileType>()
+        {
+            @Override
+            public FileType call() throws Exception
+            {
+                return fileObject.fetchObjectInfo().getType();
+            }
+        });
+    }
+
+    /**
+     * Finds the length of the file at this path.
+     *
+     * @return The length in bytes.  Fails if there's no file at this path.
+     */
+    public CompletableFuture<Long> getSize()
+    {
+        return submit(new Callable<Long>()
+        {
+            @Override
+            public Long call() throws Exception
+            {
+                SS3ObjectInfo info = fileObject.fetchObjectInfo();
+                if( info.getType() != FileType.FILE )
+                {
+                    throw new FileSystemException(
+                            String.format("No object found at '%s'", fileObject.getName()));
+                }
+
+                return info.getContentLength();
+            }
+        });
+    }
+
+    /**
+     * Reads the whole content of the file at this path.
+     *
+     * @return The content.  Fails if there's no file at this path.
+     */
+    public CompletableFuture<byte[]> readAll()
+    {
+        return submit(new Callable<byte[]>()
+        {
+            @Override
+            public byte[] call() throws Exception
+            {
+                Pair<String, String> path = fileObject.getContainerAndPath();
+
+                S3Object obj = fileSystem.getClient().getObject(path.getLeft(), path.getRight());
+
+                long length = obj.getObjectMetadata().getContentLength();
+                if( length > Integer.MAX_VALUE - 8 )
+                {
+                    obj.close();
+
+                    throw new FileSystemException(
+                            String.format("'%s' is too large to read into memory", fileObject.getName()));
+                }
+
+                byte[] res = new byte[(int)length];
+
+                try( DataInputStream in = new DataInputStream(new SS3InputStream(obj)) )
+                {
+                    in.readFully(res);
+                }
+
+                return res;
+            }
+        });
+    }
+
+    /**
+     * Writes content to this path with a single request, replacing any file
+     * already there.
+     *
+     * @param content The new content
+     * @return Completes once the content is stored
+     */
+    public CompletableFuture<Void> write(final byte[] content)
+    {
+        return submit(new Callable<Void>()
+        {
+            @Override
+            public Void call() throws Exception
+            {
+                Pair<String, String> path = fileObject.getContainerAndPath();
+
+                ObjectMetadata md = new ObjectMetadata();
+                md.setContentLength(content.length);
+
+                fileSystem.getClient().putObject(new PutObjectRequest(path.getLeft(),
+                        path.getRight(), new ByteArrayInputStream(content), md));
+
+                fileSystem.getMetadataCache().invalidate(path.getLeft(), path.getRight());
+
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Deletes the file at this path.
+     *
+     * @return Completes once the file is deleted
+     */
+    public CompletableFuture<Void> delete()
+    {
+        return submit(new Callable<Void>()
+        {
+            @Override
+            public Void call() throws Exception
+            {
+                Pair<String, String> path = fileObject.getContainerAndPath();
+
+                fileSystem.getClient().deleteObject(path.getLeft(), path.getRight());
+
+                fileSystem.getMetadataCache().invalidate(path.getLeft(), path.getRight());
+
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Lists the children of the folder at this path.
+     *
+     * @return The paths of the children, as returned by
+     *         {@link SS3FileObject#listChildrenIterator()}
+     */
+    public CompletableFuture<List<String>> list()
+    {
+        return submit(new Callable<List<String>>()
+        {
+            @Override
+            public List<String> call() throws Exception
+            {
+                List<String> res = new ArrayList<>();
+
+                for( Iterator<String> it = fileObject.listChildrenIterator(); it.hasNext(); )
+                {
+                    res.add(it.next());
+                }
+
+                return res;
+            }
+        });
+    }
+
+    /**
+     * Runs a task on the asynchronous executor.
+     *
+     * @param <T>
+     * @param task
+     * @return A future completed with the task's result or failure, or with
+     *         the executor's rejection
+     */
+    private <T> CompletableFuture<T> submit(final Callable<T> task)
+    {
+        final CompletableFuture<T> res = new CompletableFuture<>();
+
+        try
+        {
+            fileSystem.getAsyncExecutor().execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        res.complete(task.call());
+                    }
+                    catch (Throwable ex)
+                    {
+                        res.completeExceptionally(ex);
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException ex)
+        {
+            // e.g. a configured executor that has been shut down
+            res.completeExceptionally(ex);
+        }
+
+        return res;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest.KeyVersion;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException.DeleteError;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import org.apache.commons.vfs2.FileSystemException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Deletes keys with multi-object delete requests of up to 1000 keys each.
+ * 
+ * Batches are sent concurrently on the file-system's worker threads, with a
+ * bounded number in flight.  A key that fails to delete does not stop the 
+ * others.  Every failure is collected and reported once all batches are done.
+ * 
+ * @author kervin
+ */
+final class SS3BatchDelete
+{
+    private static final Logger log = LoggerFactory.getLogger(SS3BatchDelete.class);
+    
+    /**
+     * The most keys Amazon S3 accepts in a single multi-object delete request.
+     */
+    static final int MAX_BATCH_SIZE = 1000;
+    
+    private final AmazonS3 client;
+    private final ExecutorService executor;
+    private final String bucket;
+    private final Semaphore inFlight;
+    private final List<Future<Integer>> batches;
+    private final List<DeleteError> errors;
+    private List<KeyVersion> currBatch;
+
+    /**
+     * Creates an empty batch delete.
+     * 
+     * @param client The client used for the delete requests
+     * @param executor Runs the delete requests
+     * @param bucket The container holding the keys
+     * @param maxInFlight The maximum number of delete requests at one time
+     */
+    SS3BatchDelete(AmazonS3 client, ExecutorService executor, String bucket, int maxInFlight)
+    {
+        this.client = client;
+        this.executor = executor;
+        this.bucket = bucket;
+        
+        inFlight = new Semaphore(Math.max(maxInFlight, 1));
+        batches = new ArrayList<>();
+        errors = Collections.synchronizedList(new ArrayList<DeleteError>());
+        currBatch = new ArrayList<>(MAX_BATCH_SIZE);
+    }
+    
+    /**
+     * Queues a key for deletion.  A request is sent each time a full batch of 
+     * keys has been queued.
+     * 
+     * @param key The key to delete
+     * @throws FileSystemException 
+     */
+    void delete(String key) throws FileSystemException
+    {
+        currBatch.add(new KeyVersion(key));
+        
+        if( currBatch.size() >= MAX_BATCH_SIZE )
+        {
+            sendBatch();
+        }
+    }
+    
+    /**
+     * Sends any remaining keys and waits for all requests to finish.
+     * 
+     * @return The number of keys deleted
+     * @throws FileSystemException if any key could not be deleted
+     */
+    int finish() throws FileSystemException
+    {
+        if( currBatch.isEmpty() == false )
+        {
+            sendBatch();
+        }
+        
+        int res = 0;
+        Throwable failure = null;
+        for( Future<Integer> batch : batches )
+        {
+            try
+            {
+                res += batch.get();
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                
+                throw new FileSystemException("Interrupted waiting for deletes", ex);
+            }
+            catch (ExecutionException ex)
+            {
+                failure = ex.getCause();
+            }
+        }
+        
+        if( failure != null )
+        {
+            throw new FileSystemException(
+                    String.format("Delete request failed in '%s'", bucket), failure);
+        }
+        
+        if( errors.isEmpty() == false )
+        {
+            for( DeleteError err : errors )
+            {
+                log.error( String.format("finish() could not delete '%s' : '%s' %s", 
+                                         bucket, err.getKey(), err.getMessage()));
+            }
+            
+            throw new FileSystemException(
+                    String.format("Could not delete %d key(s) in '%s', e.g. '%s' : %s", 
+                                  errors.size(), bucket, errors.get(0).getKey(), 
+                                  errors.get(0).getCode()));
+        }
+        
+        return res;
+    }
+    
+    private void sendBatch() throws FileSystemException
+    {
+        final List<KeyVersion> keys = currBatch;
+        currBatch = new ArrayList<>(MAX_BATCH_SIZE);
+        
+        try
+        {
+            inFlight.acquire();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            
+            throw new FileSystemException("Interrupted waiting to delete", ex);
+        }
+        
+        batches.add(executor.submit(new Callable<Integer>()
+        {
+            @Override
+            public Integer call() throws Exception
+            {
+                try
+                {
+                    // Quiet mode only reports the keys that failed
+                    client.deleteObjects(new DeleteObjectsRequest(bucket)
+                                                .withKeys(keys)
+                                                .withQuiet(true));
+                    
+                    return keys.size();
+                }
+                catch (MultiObjectDeleteException ex)
+                {
+                    errors.addAll(ex.getErrors());
+                    
+                    return keys.size() - ex.getErrors().size();
+                }
+                finally
+                {
+                    inFlight.release();
+                }
+            }
+        }));
+    }
+}
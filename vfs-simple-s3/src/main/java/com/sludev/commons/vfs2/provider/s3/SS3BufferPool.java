@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of fixed-size byte arrays used to buffer upload content in memory.
+ * 
+ * Arrays are handed back to the pool once their content has been uploaded and
+ * reused by later uploads, so writing many small objects does not churn the 
+ * heap.  Only up to a fixed number of idle arrays are kept, anything returned
+ * beyond that is left to the garbage collector.
+ * 
+ * @author kervin
+ */
+final class SS3BufferPool
+{
+    private final int chunkSize;
+    private final int maxIdleChunks;
+    private final ConcurrentLinkedQueue<byte[]> idleChunks;
+    private final AtomicInteger idleCount;
+
+    /**
+     * Creates a new, empty, pool.
+     * 
+     * @param chunkSize The size of every array in the pool
+     * @param maxIdleChunks The maximum number of idle arrays kept for reuse
+     */
+    public SS3BufferPool(int chunkSize, int maxIdleChunks)
+    {
+        this.chunkSize = chunkSize;
+        this.maxIdleChunks = maxIdleChunks;
+        
+        idleChunks = new ConcurrentLinkedQueue<>();
+        idleCount = new AtomicInteger();
+    }
+
+    /**
+     * The size of every array handed out by this pool.
+     * 
+     * @return 
+     */
+    public int getChunkSize()
+    {
+        return chunkSize;
+    }
+    
+    /**
+     * Takes an idle array from the pool, or allocates a new one if none are idle.
+     * 
+     * @return An array of <code>getChunkSize()</code> bytes.  Its content is 
+     *         undefined.
+     */
+    public byte[] acquire()
+    {
+        byte[] res = idleChunks.poll();
+        if( res == null )
+        {
+            res = new byte[chunkSize];
+        }
+        else
+        {
+            idleCount.decrementAndGet();
+        }
+        
+        return res;
+    }
+    
+    /**
+     * Returns an array to the pool.  It must not be used by the caller afterwards.
+     * 
+     * @param chunk An array previously acquired from this pool
+     */
+    public void release(byte[] chunk)
+    {
+        if( chunk.length != chunkSize )
+        {
+            return;
+        }
+        
+        if( idleCount.incrementAndGet() <= maxIdleChunks )
+        {
+            idleChunks.offer(chunk);
+        }
+        else
+        {
+            idleCount.decrementAndGet();
+        }
+    }
+}
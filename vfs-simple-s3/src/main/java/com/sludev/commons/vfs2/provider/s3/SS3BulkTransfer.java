@@ -0,0 +1,545 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.internal.Mimetypes;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Transfers whole trees of files between a local directory and a folder.
+ *
+ * Files are transferred concurrently on the file-system's worker threads,
+ * with a bounded number in flight.  A file that fails does not stop the
+ * others.  Every file gets its own result.
+ *
+ * @author kervin
+ */
+final class SS3BulkTransfer
+{
+    private static final Logger log = LoggerFactory.getLogger(SS3BulkTransfer.class);
+
+    /**
+     * Marks a download still being written, beside its destination file.
+     */
+    private static final String TEMP_SUFFIX = ".ss3.tmp";
+
+    /**
+     * The most bytes written to a destination file per channel transfer.
+     */
+    private static final long TRANSFER_CHUNK_SIZE = 1024 * 1024;
+
+    private final SS3FileObject folder;
+    private final SS3FileSystem fileSystem;
+    private final AmazonS3 client;
+    private final ExecutorService executor;
+    private final String bucket;
+    private final String prefix;
+    private final Semaphore inFlight;
+
+    /**
+     * Creates a transfer to or from a folder.
+     *
+     * @param folder The remote folder
+     * @param fileSystem The folder's file-system
+     */
+    SS3BulkTransfer(SS3FileObject folder, SS3FileSystem fileSystem)
+    {
+        this.folder = folder;
+        this.fileSystem = fileSystem;
+
+        client = fileSystem.getClient();
+        executor = fileSystem.getExecutor();
+
+        Pair<String, String> path = folder.getContainerAndPath();
+        bucket = path.getLeft();
+        prefix = SS3FileObject.getFolderPrefix(path.getRight());
+
+        int threads = SS3FileSystemConfigBuilder.getInstance()
+                            .getTransferThreads(fileSystem.getFileSystemOptions());
+        inFlight = new Semaphore(Math.max(threads, 1));
+    }
+
+    /**
+     * Uploads every file beneath a local directory.  Each file's key is its
+     * path relative to the directory, below the folder's prefix.
+     *
+     * Symbolic links are followed.  Anything that isn't a regular file once
+     * links are followed, e.g. a broken link, and any file or directory that
+     * can't be read, gets a failed result.
+     *
+     * @param localDir The directory to upload
+     * @return The result for each file
+     * @throws IOException if the path isn't a directory or can't be read
+     */
+    List<SS3TransferResult> upload(final Path localDir) throws IOException
+    {
+        if( Files.isDirectory(localDir) == false )
+        {
+            throw new IOException(String.format("'%s' is not a directory", localDir));
+        }
+
+        final List<Path> files = new ArrayList<>();
+        final List<SS3TransferResult> rejected = new ArrayList<>();
+
+        Files.walkFileTree(localDir, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+                new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
+            {
+                if( file.equals(localDir) )
+                {
+                    // Replaced since it was checked.  Its key would be the folder's own.
+                    log.warn(String.format("'%s' is no longer a directory", localDir));
+                }
+                else if( attrs.isRegularFile() )
+                {
+                    files.add(file);
+                }
+                else
+                {
+                    rejected.add(SS3TransferResult.failed(file.toFile(), getKey(localDir, file), 0, 
+                            new IOException(String.format("'%s' is not a regular file", file))));
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException ex) throws IOException
+            {
+                if( file.equals(localDir) )
+                {
+                    throw ex;
+                }
+
+                log.warn(String.format("Could not read '%s' for upload", file), ex);
+
+                // e.g. a link making a directory loop
+                rejected.add(SS3TransferResult.failed(file.toFile(), getKey(localDir, file), 0, ex));
+
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        List<Future<SS3TransferResult>> results = new ArrayList<>(files.size());
+
+        for( Path file : files )
+        {
+            final File currFile = file.toFile();
+            final String currKey = getKey(localDir, file);
+
+            results.add(submit(new Callable<SS3TransferResult>()
+            {
+                @Override
+                public SS3TransferResult call() throws Exception
+                {
+                    return uploadFile(currFile, currKey);
+                }
+            }));
+        }
+
+        List<SS3TransferResult> res = waitFor(results);
+        res.addAll(rejected);
+
+        return res;
+    }
+
+    /**
+     * The key a local file is uploaded to.
+     *
+     * @param localDir The directory being uploaded
+     * @param file A file beneath it
+     * @return
+     */
+    private String getKey(Path localDir, Path file)
+    {
+        StringBuilder res = new StringBuilder(prefix);
+        for( Path part : localDir.relativize(file) )
+        {
+            if( res.length() > prefix.length() )
+            {
+                res.append('/');
+            }
+
+            res.append(part.toString());
+        }
+
+        return res.toString();
+    }
+
+    /**
+     * Uploads one file, as a multipart upload if it's large.
+     *
+     * @param file
+     * @param key
+     * @return
+     */
+    private SS3TransferResult uploadFile(File file, String key)
+    {
+        FileSystemOptions opts = fileSystem.getFileSystemOptions();
+        SS3FileSystemConfigBuilder builder = SS3FileSystemConfigBuilder.getInstance();
+
+        long length = file.length();
+
+        try
+        {
+            if( length < builder.getMultipartUploadThreshold(opts) )
+            {
+                client.putObject(new PutObjectRequest(bucket, key, file));
+            }
+            else
+            {
+                // Parts must also be large enough to fit within the part limit
+                long partSize = Math.max(builder.getUploadPartSize(opts), SS3Constants.MIN_UPLOAD_PART_SIZE);
+                partSize = Math.max(partSize,
+                        (length + SS3Constants.MAX_UPLOAD_PARTS - 1) / SS3Constants.MAX_UPLOAD_PARTS);
+
+                // Given the content type a single PUT would guess from the name
+                ObjectMetadata metadata = new ObjectMetadata();
+                metadata.setContentType(Mimetypes.getInstance().getMimetype(file));
+
+                SS3MultipartUpload upload = new SS3MultipartUpload(client, executor,
+                                                bucket, key, metadata, builder.getUploadThreads(opts));
+                try
+                {
+                    for( long offset = 0; offset < length; offset += partSize )
+                    {
+                        upload.uploadPart(file, offset, Math.min(partSize, length - offset));
+                    }
+
+                    upload.complete();
+                }
+                catch (IOException | RuntimeException ex)
+                {
+                    upload.abort();
+
+                    throw ex;
+                }
+            }
+
+            return SS3TransferResult.transferred(file, key, length);
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            log.warn(String.format("Upload of '%s' to '%s' failed", file, key), ex);
+
+            return SS3TransferResult.failed(file, key, length, ex);
+        }
+        finally
+        {
+            fileSystem.getMetadataCache().invalidate(bucket, key);
+        }
+    }
+
+    /**
+     * Downloads every object beneath the folder into a local directory, from
+     * a single listing.  Each file's path is the key relative to the folder.
+     * Folder marker objects are not downloaded.
+     *
+     * @param localDir The destination directory, created if it's missing
+     * @return The result for each object
+     * @throws IOException if the directory can't be created or the listing fails
+     */
+    List<SS3TransferResult> download(Path localDir) throws IOException
+    {
+        final Path baseDir = localDir.toAbsolutePath().normalize();
+        Files.createDirectories(baseDir);
+
+        List<Future<SS3TransferResult>> results = new ArrayList<>();
+
+        for( Iterator<ObjectListing> it = folder.listTree(); it.hasNext(); )
+        {
+            for( final S3ObjectSummary osum : it.next().getObjectSummaries() )
+            {
+                final String relKey = osum.getKey().substring(prefix.length());
+                if( relKey.isEmpty() || relKey.endsWith("/") )
+                {
+                    continue;
+                }
+
+                results.add(submit(new Callable<SS3TransferResult>()
+                {
+                    @Override
+                    public SS3TransferResult call() throws Exception
+                    {
+                        return downloadFile(osum, baseDir, relKey);
+                    }
+                }));
+            }
+        }
+
+        return waitFor(results);
+    }
+
+    /**
+     * Downloads one object, unless the destination file already matches it.
+     *
+     * The content is written to a temporary file beside the destination and
+     * moved into place once complete, so a failed download never leaves a
+     * partial file.  The file's modified time is set to the object's.
+     *
+     * @param osum The listed object
+     * @param baseDir The destination directory
+     * @param relKey The key relative to the folder
+     * @return
+     */
+    private SS3TransferResult downloadFile(S3ObjectSummary osum, Path baseDir, String relKey)
+    {
+        File file = null;
+        String key = osum.getKey();
+        long length = osum.getSize();
+
+        try
+        {
+            // Keys may hold characters that aren't valid in a local path
+            Path target = baseDir.resolve(relKey).normalize();
+            file = target.toFile();
+
+            // Keys may hold '..' segments.  Never write outside the directory.
+            if( target.startsWith(baseDir) == false || target.equals(baseDir) )
+            {
+                throw new IOException(
+                        String.format("Key '%s' resolves outside '%s'", key, baseDir));
+            }
+
+            if( isCurrent(target, osum) )
+            {
+                return SS3TransferResult.skipped(file, key, length);
+            }
+
+            Path dir = target.getParent();
+            Files.createDirectories(dir);
+
+            Path temp = Files.createTempFile(dir, target.getFileName().toString(), TEMP_SUFFIX);
+            try
+            {
+                long pos = 0;
+
+                S3Object obj = client.getObject(bucket, key);
+                try( ReadableByteChannel src = Channels.newChannel(new SS3InputStream(obj));
+                     FileChannel dest = FileChannel.open(temp, StandardOpenOption.WRITE,
+                                                         StandardOpenOption.TRUNCATE_EXISTING) )
+                {
+                    long count;
+                    while( (count = dest.transferFrom(src, pos, TRANSFER_CHUNK_SIZE)) > 0 )
+                    {
+                        pos += count;
+                    }
+                }
+
+                if( pos != obj.getObjectMetadata().getContentLength() )
+                {
+                    throw new IOException(String.format("Download of '%s' ended after %d of %d bytes",
+                            key, pos, obj.getObjectMetadata().getContentLength()));
+                }
+
+                Files.setLastModifiedTime(temp, FileTime.fromMillis(osum.getLastModified().getTime()));
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+                                         StandardCopyOption.ATOMIC_MOVE);
+
+                return SS3TransferResult.transferred(file, key, pos);
+            }
+            finally
+            {
+                Files.deleteIfExists(temp);
+            }
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            log.warn(String.format("Download of '%s' to '%s' failed", key, file), ex);
+
+            return SS3TransferResult.failed(file, key, length, ex);
+        }
+    }
+
+    /**
+     * Checks whether a local file already holds an object's content.
+     *
+     * The sizes must match.  A single-part upload's ETag is the MD5 of its
+     * content, so it's compared with the file's.  A multipart ETag is not, so
+     * the file's modified time must instead match the object's, as set when
+     * it was downloaded.
+     *
+     * @param target The local file
+     * @param osum The listed object
+     * @return true if the file needn't be downloaded
+     * @throws IOException
+     */
+    private static boolean isCurrent(Path target, S3ObjectSummary osum) throws IOException
+    {
+        if( Files.isRegularFile(target) == false || Files.size(target) != osum.getSize() )
+        {
+            return false;
+        }
+
+        String etag = StringUtils.strip(osum.getETag(), "\"");
+        if( etag != null && etag.length() == 32 && etag.indexOf('-') < 0 )
+        {
+            return etag.equalsIgnoreCase(getContentMD5(target));
+        }
+
+        return Files.getLastModifiedTime(target).toMillis() == osum.getLastModified().getTime();
+    }
+
+    private static String getContentMD5(Path file) throws IOException
+    {
+        MessageDigest md;
+        try
+        {
+            md = MessageDigest.getInstance("MD5");
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            // Every JVM is required to support MD5
+            throw new IllegalStateException(ex);
+        }
+
+        try( FileChannel in = FileChannel.open(file, StandardOpenOption.READ) )
+        {
+            ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+            while( in.read(buf) >= 0 )
+            {
+                buf.flip();
+                md.update(buf);
+                buf.clear();
+            }
+        }
+
+        StringBuilder res = new StringBuilder(32);
+        for( byte b : md.digest() )
+        {
+            res.append(String.format("%02x", b & 0xff));
+        }
+
+        return res.toString();
+    }
+
+    /**
+     * Runs a transfer on the worker threads.  Blocks while the maximum number
+     * of transfers are already in flight.
+     *
+     * @param task
+     * @return
+     * @throws IOException
+     */
+    private Future<SS3TransferResult> submit(final Callable<SS3TransferResult> task) throws IOException
+    {
+        try
+        {
+            inFlight.acquire();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException("Interrupted waiting to start a transfer");
+        }
+
+        return executor.submit(new Callable<SS3TransferResult>()
+        {
+            @Override
+            public SS3TransferResult call() throws Exception
+            {
+                try
+                {
+                    return task.call();
+                }
+                finally
+                {
+                    inFlight.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits for every transfer.
+     *
+     * @param results
+     * @return The results, in the order the transfers were started
+     * @throws IOException
+     */
+    private static List<SS3TransferResult> waitFor(List<Future<SS3TransferResult>> results)
+            throws IOException
+    {
+        List<SS3TransferResult> res = new ArrayList<>(results.size());
+
+        try
+        {
+            for( Future<SS3TransferResult> result : results )
+            {
+                res.add(result.get());
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            for( Future<SS3TransferResult> result : results )
+            {
+                result.cancel(true);
+            }
+
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException("Interrupted waiting for transfers");
+        }
+        catch (ExecutionException ex)
+        {
+            // Transfers report their own failures, so this is unexpected
+            throw new IOException("Transfer failed", ex.getCause());
+        }
+
+        return res;
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.S3ClientOptions;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shares Amazon S3 clients between file-systems.
+ *
+ * File-systems with the same endpoint, region, credentials and client
+ * configuration use the same client, and so the same connection pool.
+ * Clients are reference counted and shut down when the last file-system
+ * using them releases them.
+ *
+ * @author kervin
+ */
+final class SS3ClientRegistry
+{
+    private static final Logger log = LoggerFactory.getLogger(SS3ClientRegistry.class);
+
+    private static final SS3ClientRegistry instance = new SS3ClientRegistry();
+
+    private final Map<Key, Entry> clients;
+
+    private SS3ClientRegistry()
+    {
+        clients = new HashMap<>();
+    }
+
+    static SS3ClientRegistry getInstance()
+    {
+        return instance;
+    }
+
+    /**
+     * Returns the shared client for the key, creating it if none exists.
+     * Every call must be matched by a call to {@link #release(Key)}.
+     *
+     * @param key
+     * @return
+     */
+    synchronized AmazonS3Client acquire(Key key)
+    {
+        Entry res = clients.get(key);
+        if( res == null )
+        {
+            res = new Entry(key.createClient());
+            clients.put(key, res);
+
+            log.debug(String.format("Created S3 client for endpoint '%s'", key.endpoint));
+        }
+
+        res.refCount++;
+
+        return res.client;
+    }
+
+    /**
+     * Gives up one reference to the key's client.  The client is shut down
+     * once no references remain.
+     *
+     * @param key
+     */
+    synchronized void release(Key key)
+    {
+        Entry entry = clients.get(key);
+        if( entry == null )
+        {
+            return;
+        }
+
+        entry.refCount--;
+        if( entry.refCount <= 0 )
+        {
+            clients.remove(key);
+            entry.client.shutdown();
+
+            log.debug(String.format("Shut down S3 client for endpoint '%s'", key.endpoint));
+        }
+    }
+
+    /**
+     * The number of references held to the key's client.
+     *
+     * @param key
+     * @return Zero if the key has no client
+     */
+    synchronized int getRefCount(Key key)
+    {
+        Entry entry = clients.get(key);
+
+        return entry == null ? 0 : entry.refCount;
+    }
+
+    /**
+     * The number of distinct clients currently shared.
+     *
+     * @return
+     */
+    synchronized int size()
+    {
+        return clients.size();
+    }
+
+    private static final class Entry
+    {
+        private final AmazonS3Client client;
+        private int refCount;
+
+        private Entry(AmazonS3Client client)
+        {
+            this.client = client;
+        }
+    }
+
+    /**
+     * Everything needed to create a client.  Keys are equal when they'd
+     * create identically configured clients.
+     */
+    static final class Key
+    {
+        private final AWSCredentials credentials;
+        private final String endpoint;
+        private final Regions region;
+        private final boolean pathStyleAccess;
+        private final ClientConfiguration config;
+        private final List<Object> identity;
+
+        Key(AWSCredentials credentials, String endpoint, Regions region,
+                    boolean pathStyleAccess, ClientConfiguration config)
+        {
+            this.credentials = credentials;
+            this.endpoint = endpoint;
+            this.region = region;
+            this.pathStyleAccess = pathStyleAccess;
+            this.config = config;
+
+            identity = Arrays.asList(credentials.getAWSAccessKeyId(),
+                    credentials.getAWSSecretKey(), endpoint, region, pathStyleAccess,
+                    config.getMaxConnections(), config.getSocketTimeout(),
+                    config.getConnectionTimeout(), config.getConnectionTTL(),
+                    config.useTcpKeepAlive(), config.getMaxErrorRetry(),
+                    config.getRetryPolicy());
+        }
+
+        /**
+         * @return The configuration clients are created with
+         */
+        ClientConfiguration getConfig()
+        {
+            return config;
+        }
+        
+        private AmazonS3Client createClient()
+        {
+            AmazonS3Client client = new AmazonS3Client(credentials, config);
+
+            if( StringUtils.isNoneBlank(endpoint) )
+            {
+                client.setEndpoint(endpoint);
+            }
+
+            if( region != null )
+            {
+                client.setRegion(region);
+            }
+
+            if( pathStyleAccess )
+            {
+                client.setS3ClientOptions(new S3ClientOptions().withPathStyleAccess(true));
+            }
+
+            return client;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if( this == obj )
+            {
+                return true;
+            }
+
+            if( !(obj instanceof Key) )
+            {
+                return false;
+            }
+
+            return identity.equals(((Key)obj).identity);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return identity.hashCode();
+        }
+    }
+}
@@ -38,4 +38,15 @@ public class SS3Constants
      * 
      */
     public static final String S3SCHEME = "s3";
+    
+    /**
+     * The smallest part size Amazon S3 accepts for all but the last part of a
+     * multipart upload.
+     */
+    public static final long MIN_UPLOAD_PART_SIZE = 5L * 1024 * 1024;
+    
+    /**
+     * The most parts Amazon S3 accepts in a single multipart upload.
+     */
+    public static final int MAX_UPLOAD_PARTS = 10000;
 }
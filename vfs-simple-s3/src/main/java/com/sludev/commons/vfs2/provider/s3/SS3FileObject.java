@@ -17,27 +17,54 @@
 package com.sludev.commons.vfs2.provider.s3;
 
 import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.ListObjectsRequest;
 import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.S3Object;
-import com.amazonaws.services.s3.model.S3ObjectInputStream;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
+import org.apache.commons.vfs2.FileName;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSelector;
 import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileSystemOptions;
 import org.apache.commons.vfs2.FileType;
+import org.apache.commons.vfs2.NameScope;
+import org.apache.commons.vfs2.RandomAccessContent;
+import org.apache.commons.vfs2.Selectors;
 import org.apache.commons.vfs2.provider.AbstractFileName;
 import org.apache.commons.vfs2.provider.AbstractFileObject;
 import org.apache.commons.vfs2.provider.URLFileName;
+import org.apache.commons.vfs2.provider.UriParser;
+import org.apache.commons.vfs2.util.RandomAccessMode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,8 +79,8 @@ public class SS3FileObject extends AbstractFileObject
     private static final Logger log = LoggerFactory.getLogger(SS3FileObject.class);
     
     private final SS3FileSystem fileSystem;
-    private S3Object currBlob;
-    private ObjectMetadata currBlobProperties;
+    private SS3ObjectInfo currInfo;
+    private Future<Boolean> folderProbe;
     
     /**
      * Creates a new FileObject for use with a remote S3 file or folder.
@@ -72,7 +99,7 @@ public class SS3FileObject extends AbstractFileObject
      * 
      * @return A tuple containing the bucket name and the path.
      */
-    private Pair<String, String> getContainerAndPath()
+    Pair<String, String> getContainerAndPath()
     {
         Pair<String, String> res = null;
         
@@ -116,28 +143,63 @@ public class SS3FileObject extends AbstractFileObject
      * server and check early so we can 'fail-fast'.  If there are no issues then
      * this FileObject can be used.
      * 
+     * A single HEAD request is made here.  Its result is kept for the life of the
+     * attachment and answers the type, size, last-modified and ETag requests
+     * without further network calls.  If the path was found by listing its
+     * parent, or the file-system's metadata cache already holds it, no request
+     * is made at all.  Folders are only looked for once the HEAD misses, 
+     * unless {@link SS3FileSystemConfigBuilder#setOverlapFolderProbe} is set.
+     * 
      * @throws Exception 
      */
     @Override
     protected void doAttach() throws Exception
     {
+        if( currInfo != null )
+        {
+            // Already known from the parent folder's listing
+            return;
+        }
+        
         Pair<String, String> path = getContainerAndPath();
         
+        currInfo = fileSystem.getMetadataCache().get(path.getLeft(), path.getRight());
+        if( currInfo != null )
+        {
+            return;
+        }
+        
+        // The container root can only be a folder
+        if( path.getRight().equals("/") )
+        {
+            return;
+        }
+        
+        // Optionally check for a folder at the same time, so a missing object
+        // costs no extra round-trip.  Every existing file then costs a listing
+        // as well, since a sent listing can't be cancelled.
+        if( SS3FileSystemConfigBuilder.getInstance()
+                    .getOverlapFolderProbe(fileSystem.getFileSystemOptions()) )
+        {
+            folderProbe = startFolderProbe(path);
+        }
+        
         try
         {
-            // Check the container.  Force a network call so we can fail-fast
-            //boolean res = fileSystem.getClient().doesBucketExist(path.getLeft()); 
-            if( objectExists(path.getLeft(), path.getRight()) )
-            {
-                currBlob = fileSystem.getClient().getObject(path.getLeft(), path.getRight());
-            }
-            else
+            // Force a network call so we can fail-fast
+            ObjectMetadata md = getObjectMetadata(path.getLeft(), path.getRight());
+            if( md != null )
             {
-                currBlob = null;
+                cancelFolderProbe();
+                
+                currInfo = SS3ObjectInfo.fromMetadata(md);
+                fileSystem.getMetadataCache().put(path.getLeft(), path.getRight(), currInfo);
             }
         }
         catch (RuntimeException ex)
         {
+            cancelFolderProbe();
+            
             log.error( String.format("doAttach() Exception for '%s' : '%s'", 
                                      path.getLeft(), path.getRight()), ex);
             
@@ -145,19 +207,152 @@ public class SS3FileObject extends AbstractFileObject
         }
     }
     
-    private boolean objectExists( String cont, String path )
+    /**
+     * Looks up what is at this path, without using or changing the state of
+     * this File Object and without holding the file-system's lock.  The 
+     * metadata cache is used and updated.
+     * 
+     * @return What is at this path
+     */
+    SS3ObjectInfo fetchObjectInfo()
+    {
+        Pair<String, String> path = getContainerAndPath();
+        
+        SS3ObjectInfo res = fileSystem.getMetadataCache().get(path.getLeft(), path.getRight());
+        if( res != null )
+        {
+            return res;
+        }
+        
+        ObjectMetadata md = null;
+        if( path.getRight().equals("/") == false )
+        {
+            md = getObjectMetadata(path.getLeft(), path.getRight());
+        }
+        
+        if( md != null )
+        {
+            res = SS3ObjectInfo.fromMetadata(md);
+        }
+        else if( isFolder(path) )
+        {
+            res = SS3ObjectInfo.FOLDER;
+        }
+        else
+        {
+            res = SS3ObjectInfo.IMAGINARY;
+        }
+        
+        fileSystem.getMetadataCache().put(path.getLeft(), path.getRight(), res);
+        
+        return res;
+    }
+    
+    /**
+     * Checks in the background whether anything exists beneath a path.
+     * 
+     * @param path The container and path
+     * @return The pending result
+     */
+    private Future<Boolean> startFolderProbe(final Pair<String, String> path)
+    {
+        return fileSystem.getExecutor().submit(new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call() throws Exception
+            {
+                return isFolder(path);
+            }
+        });
+    }
+    
+    private void cancelFolderProbe()
+    {
+        if( folderProbe != null )
+        {
+            folderProbe.cancel(false);
+            folderProbe = null;
+        }
+    }
+    
+    /**
+     * Checks whether anything exists beneath a path, i.e. whether it's a folder.
+     * 
+     * Only a single key is requested.  With the delimiter, a folder holding 
+     * only sub-folders shows up as a common prefix instead of a key.
+     * 
+     * @param path The container and path
+     * @return true if the path is a folder
+     */
+    private boolean isFolder(Pair<String, String> path)
+    {
+        ListObjectsRequest loReq = new ListObjectsRequest();
+        loReq.withBucketName(path.getLeft());
+        loReq.withPrefix(getFolderPrefix(path.getRight()));
+        loReq.withDelimiter("/");
+        loReq.withMaxKeys(1);
+        
+        ObjectListing blobs = fileSystem.getClient().listObjects(loReq);
+        
+        return blobs.getObjectSummaries().isEmpty() == false
+                || blobs.getCommonPrefixes().isEmpty() == false;
+    }
+    
+    /**
+     * Waits for the folder check started on attach.
+     * 
+     * @return true if the path is a folder
+     * @throws FileSystemException 
+     */
+    private boolean waitForFolderProbe() throws FileSystemException
+    {
+        try
+        {
+            return folderProbe.get();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            
+            throw new FileSystemException(
+                    String.format("Interrupted checking the type of '%s'", getName()), ex);
+        }
+        catch (ExecutionException ex)
+        {
+            if( ex.getCause() instanceof RuntimeException )
+            {
+                throw (RuntimeException)ex.getCause();
+            }
+            
+            throw new FileSystemException(
+                    String.format("Could not check the type of '%s'", getName()), ex.getCause());
+        }
+        finally
+        {
+            folderProbe = null;
+        }
+    }
+    
+    /**
+     * Fetch the metadata of a remote object without downloading its content.
+     * 
+     * @param cont The container ( i.e. bucket )
+     * @param path The object key
+     * @return The object's metadata, or null if no object exists at that key
+     */
+    private ObjectMetadata getObjectMetadata( String cont, String path )
     {
-        boolean res = false;
+        ObjectMetadata res = null;
         
         try 
         {
-            S3Object object = fileSystem.getClient().getObject(cont, path);
-            res = true;
+            res = fileSystem.getClient().getObjectMetadata(cont, path);
         } 
         catch (AmazonServiceException ex) 
         {
-            String errorCode = ex.getErrorCode();
-            if (!errorCode.equals("NoSuchKey")) 
+            // HEAD responses have no body, so a missing key only shows up as
+            // a 404 status and never as a "NoSuchKey" error code.
+            if( ex.getStatusCode() != 404 ) 
             {
                 throw ex;
             }
@@ -183,9 +378,9 @@ public class SS3FileObject extends AbstractFileObject
 
         Pair<String, String> path = getContainerAndPath();
 
-        if( objectExists(path.getLeft(), path.getRight()) )
+        if( currInfo != null )
         {
-            res = FileType.FILE;
+            res = currInfo.getType();
         }
         else
         {
@@ -195,33 +390,30 @@ public class SS3FileObject extends AbstractFileObject
             // Here's the trick for folders.
             //
             // Do a listing on that prefix.  If it returns anything, after not
-            // existing, then it's a folder.
-            String prefix = path.getRight();
-            if( prefix.endsWith("/") == false )
+            // existing, then it's a folder.  The listing may have been started 
+            // on attach.
+            boolean folder;
+            if( folderProbe != null )
             {
-                // We need folders ( prefixes ) to end with a slash
-                prefix += "/";
-            }
-
-            ObjectListing blobs = null;
-            if( prefix.equals("/") )
-            {
-                // Special root path case. List the root blobs with no prefix
-                blobs = fileSystem.getClient().listObjects(path.getLeft());
+                folder = waitForFolderProbe();
             }
             else
             {
-                blobs = fileSystem.getClient().listObjects(path.getLeft(), prefix);
+                folder = isFolder(path);
             }
             
-            if( blobs.getObjectSummaries().isEmpty() )
+            if( folder )
             {
-                res = FileType.IMAGINARY;
+                currInfo = SS3ObjectInfo.FOLDER;
             }
             else
             {
-                res = FileType.FOLDER;
+                currInfo = SS3ObjectInfo.IMAGINARY;
             }
+            
+            fileSystem.getMetadataCache().put(path.getLeft(), path.getRight(), currInfo);
+            
+            res = currInfo.getType();
         }
         
         return res;
@@ -240,171 +432,1289 @@ public class SS3FileObject extends AbstractFileObject
     {
         String[] res = null;
         
-        Pair<String, String> path = getContainerAndPath();
-
-        String prefix = path.getRight();
-        if( prefix.endsWith("/") == false )
+        List<String> resList = new ArrayList<>();
+        for( Iterator<String> it = listChildrenIterator(); it.hasNext(); )
         {
-            // We need folders ( prefixes ) to end with a slash
-            prefix += "/";
+            resList.add(it.next());
         }
-        ListObjectsRequest loReq = new ListObjectsRequest();
-        loReq.withBucketName(path.getLeft());
-        loReq.withPrefix(prefix);
-        loReq.withDelimiter("/");
         
-        ObjectListing blobs = fileSystem.getClient().listObjects(loReq);
+        res = resList.toArray(new String[resList.size()]);
         
-        List<String> resList = new ArrayList<>();
-        for( S3ObjectSummary osum : blobs.getObjectSummaries() )
-        {
-            String currBlobStr = osum.getKey();
-            resList.add( String.format("/%s/%s", path.getLeft(), currBlobStr) );
-        }
+        return res;
+    }
+    
+    /**
+     * Lists the children of this folder as File Objects that already know their
+     * type, size, last-modified time and ETag from the listing.  Attaching the
+     * children makes no further requests, so walking a folder costs one 
+     * request per 1000 children.
+     * 
+     * @return The children of this folder
+     * @throws Exception 
+     */
+    @Override
+    protected FileObject[] doListChildrenResolved() throws Exception
+    {
+        Pair<String, String> path = getContainerAndPath();
+        String prefix = getFolderPrefix(path.getRight());
+        
+        List<FileObject> res = new ArrayList<>();
         
-        List<String> commPrefixes = blobs.getCommonPrefixes();
-        if( commPrefixes != null )
+        Iterator<ObjectListing> pages = new SS3ListingIterator(fileSystem.getClient(), 
+                                fileSystem.getExecutor(), createChildrenRequest(path));
+        while( pages.hasNext() )
         {
-            for( String currFld : commPrefixes )
+            ObjectListing blobs = pages.next();
+            
+            for( S3ObjectSummary osum : blobs.getObjectSummaries() )
+            {
+                if( osum.getKey().equals(prefix) )
+                {
+                    // An empty object marking the folder itself
+                    continue;
+                }
+                
+                res.add(resolveListed(path.getLeft(), osum.getKey(), 
+                                      SS3ObjectInfo.fromSummary(osum), NameScope.CHILD));
+            }
+            
+            List<String> commPrefixes = blobs.getCommonPrefixes();
+            if( commPrefixes != null )
             {
-                resList.add( String.format("/%s/%s", path.getLeft(), currFld) );
+                for( String currFld : commPrefixes )
+                {
+                    res.add(resolveListed(path.getLeft(), currFld, 
+                                          SS3ObjectInfo.FOLDER, NameScope.CHILD));
+                }
             }
         }
         
-        res = resList.toArray(new String[resList.size()]);
-        
-        return res;
+        return res.toArray(new FileObject[res.size()]);
     }
-
-    private void checkBlobProperties()
+    
+    /**
+     * Resolves a path found by listing this folder, handing it what the 
+     * listing said about it.
+     * 
+     * @param bucket The container
+     * @param key The key or common prefix found
+     * @param info The information from the listing
+     * @param scope Where the path must be relative to this folder
+     * @return The File Object
+     * @throws FileSystemException 
+     */
+    FileObject resolveListed(String bucket, String key, SS3ObjectInfo info, NameScope scope) 
+            throws FileSystemException
     {
-        if( currBlobProperties == null )
+        String childPath = StringUtils.removeEnd(key, "/");
+        
+        fileSystem.getMetadataCache().put(bucket, childPath, info);
+        
+        FileName childName = fileSystem.getFileSystemManager().resolveName(getName(), 
+                UriParser.encode(String.format("/%s/%s", bucket, childPath)), scope);
+        
+        FileObject res = fileSystem.resolveFile(childName);
+        if( res instanceof SS3FileObject )
         {
-            currBlobProperties = currBlob.getObjectMetadata();
+            ((SS3FileObject)res).setObjectInfo(info);
         }
+        
+        return res;
     }
     
     /**
-     * Upload a local file to Amazon S3.
+     * Hands this File Object its information before it is attached, so 
+     * attaching it needs no request.  Ignored once attached.
      * 
-     * @param f File object from the local file-system to be uploaded to Amazon S3
+     * @param info 
      */
-    public void putObject(File f)
+    private void setObjectInfo(SS3ObjectInfo info)
     {
-        Pair<String, String> path = getContainerAndPath();
-        
-        fileSystem.getClient().putObject(
-                new PutObjectRequest(path.getLeft(), path.getRight(), f) );
+        if( isAttached() == false )
+        {
+            currInfo = info;
+        }
     }
     
     /**
-     * Callback for handling "content size" requests by the provider.
+     * The listing request for the direct children of a folder.
      * 
-     * @return The number of bytes in the File Object's content
-     * @throws Exception 
+     * @param path The folder's container and path
+     * @return 
      */
-    @Override
-    protected long doGetContentSize() throws Exception
+    private static ListObjectsRequest createChildrenRequest(Pair<String, String> path)
     {
-        long res = -1;
-        
-        checkBlobProperties();
-        res = currBlobProperties.getContentLength();
+        ListObjectsRequest res = new ListObjectsRequest();
+        res.withBucketName(path.getLeft());
+        res.withPrefix(getFolderPrefix(path.getRight()));
+        res.withDelimiter("/");
         
         return res;
     }
-
+    
     /**
-     * Get an InputStream for reading the content of this File Object.
-     * @return The InputStream object for reading.
-     * @throws Exception 
+     * Streams the children of this folder, one listing page at a time.
+     * 
+     * Unlike <code>getChildren()</code> the full set of children is never held 
+     * in memory, and the next page is fetched in the background while the 
+     * current one is consumed.  Paths are returned in the same 
+     * "/&lt;container&gt;/&lt;path&gt;" form as {@link #doListChildren}.  An
+     * empty object marking the folder itself isn't a child.
+     * 
+     * @return An iterator over the paths of all children of this folder.
      */
-    @Override
-    protected InputStream doGetInputStream() throws Exception
+    public Iterator<String> listChildrenIterator()
     {
-        S3ObjectInputStream in = currBlob.getObjectContent();
+        final Pair<String, String> path = getContainerAndPath();
+        final String prefix = getFolderPrefix(path.getRight());
         
-        return in;
-    }
+        final Iterator<ObjectListing> pages = new SS3ListingIterator(fileSystem.getClient(), 
+                                fileSystem.getExecutor(), createChildrenRequest(path));
+        
+        return new Iterator<String>()
+        {
+            private Iterator<String> currPage = Collections.emptyIterator();
+            
+            @Override
+            public boolean hasNext()
+            {
+                while( currPage.hasNext() == false && pages.hasNext() )
+                {
+                    ObjectListing blobs = pages.next();
+                    
+                    List<String> resList = new ArrayList<>();
+                    for( S3ObjectSummary osum : blobs.getObjectSummaries() )
+                    {
+                        String currBlobStr = osum.getKey();
+                        if( currBlobStr.equals(prefix) )
+                        {
+                            // An empty object marking the folder itself
+                            continue;
+                        }
+                        
+                        resList.add( String.format("/%s/%s", path.getLeft(), currBlobStr) );
+                    }
+
+                    List<String> commPrefixes = blobs.getCommonPrefixes();
+                    if( commPrefixes != null )
+                    {
+                        for( String currFld : commPrefixes )
+                        {
+                            resList.add( String.format("/%s/%s", path.getLeft(), currFld) );
+                        }
+                    }
+                    
+                    currPage = resList.iterator();
+                }
+                
+                return currPage.hasNext();
+            }
+
+            @Override
+            public String next()
+            {
+                if( hasNext() == false )
+                {
+                    throw new NoSuchElementException();
+                }
+                
+                return currPage.next();
+            }
 
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException("remove() is not supported on S3 listings");
+            }
+        };
+    }
+    
     /**
-     * Callback for handling delete on this File Object
-     * @throws Exception 
+     * Converts an object path into the prefix used for listing it as a folder.
+     * 
+     * @param path The path within the container
+     * @return The listing prefix, ending in a slash, or an empty string for the
+     *         container root.
      */
-    @Override
-    protected void doDelete() throws Exception
+    static String getFolderPrefix(String path)
     {
-        Pair<String, String> path = getContainerAndPath();
+        String prefix = path;
+        if( prefix.equals("/") )
+        {
+            // Special root path case.  List with no prefix
+            return "";
+        }
         
-        // Purposely use the more restrictive delete() over deleteIfExists()
-        fileSystem.getClient().deleteObject(path.getLeft(), path.getRight());
+        if( prefix.endsWith("/") == false )
+        {
+            // We need folders ( prefixes ) to end with a slash
+            prefix += "/";
+        }
+        
+        return prefix;
     }
 
     /**
-     * Callback for handling create folder requests.  Since there are no folders
-     * in Amazon S3 this call is ingored.
+     * Returns the file information found on attach.  If there was no object 
+     * when the FileObject was attached, e.g. it has been written since, the 
+     * metadata is fetched again.
      * 
-     * @throws Exception 
+     * @return The remote object's information
+     * @throws FileSystemException if no object exists at this path
      */
-    @Override
-    protected void doCreateFolder() throws Exception
+    private SS3ObjectInfo getBlobProperties() throws FileSystemException
     {
-        log.info(String.format("doCreateFolder() called."));
+        if( currInfo == null || currInfo.getType() != FileType.FILE )
+        {
+            Pair<String, String> path = getContainerAndPath();
+            
+            ObjectMetadata md = getObjectMetadata(path.getLeft(), path.getRight());
+            if( md == null )
+            {
+                throw new FileSystemException(
+                        String.format("No object found at '%s'", getName()));
+            }
+            
+            currInfo = SS3ObjectInfo.fromMetadata(md);
+            fileSystem.getMetadataCache().put(path.getLeft(), path.getRight(), currInfo);
+        }
+        
+        return currInfo;
     }
-
+    
     /**
-     * Used for creating folders.  It's not used since S3 does not have
-     * the concept of folders.
+     * The ETag of the remote object, as returned by the metadata request made 
+     * on attach.
      * 
+     * @return The ETag of the remote object
      * @throws FileSystemException 
      */
-    @Override
-    public void createFolder() throws FileSystemException
+    public String getETag() throws FileSystemException
     {
-        log.info(String.format("createFolder() called."));
+        return getBlobProperties().getETag();
     }
-
+    
     /**
-     * Callback for getting an OutputStream for writing into Amazon S3
-     * @param bAppend  bAppend true if the file should be appended to, false if it should be overwritten.
-     * @return An OutputStream for writing into Amazon S3
-     * @throws Exception 
+     * Upload a local file to Amazon S3.
+     * 
+     * @param f File object from the local file-system to be uploaded to Amazon S3
      */
-    @Override
-    protected OutputStream doGetOutputStream(boolean bAppend) throws Exception
+    public void putObject(File f)
     {
-        OutputStream res = new SS3OutputStream(this);
+        Pair<String, String> path = getContainerAndPath();
         
-        return res;
+        fileSystem.getClient().putObject(
+                new PutObjectRequest(path.getLeft(), path.getRight(), f) );
+        
+        invalidateBlobProperties();
     }
-
+    
     /**
-     * Callback for use when detaching this File Object from Amazon S3.
+     * Upload content of a known length to Amazon S3 with a single request.
      * 
-     * The File Object should be reusable after <code>attach()</code> call.
-     * @throws Exception 
+     * @param in The content to be uploaded
+     * @param length The exact number of bytes available from the stream
      */
-    @Override
-    protected void doDetach() throws Exception
+    public void putObject(InputStream in, long length)
     {
-        currBlob = null;
-        currBlobProperties = null;
+        Pair<String, String> path = getContainerAndPath();
+        
+        ObjectMetadata md = new ObjectMetadata();
+        md.setContentLength(length);
+        
+        fileSystem.getClient().putObject(
+                new PutObjectRequest(path.getLeft(), path.getRight(), in, md) );
+        
+        invalidateBlobProperties();
     }
 
     /**
-     * Callback for handling the <code>getLastModifiedTime()</code> Commons VFS API call.
-     * @return Time since the file has last been modified
-     * @throws Exception 
+     * Uploads every file beneath a local directory into this folder, keeping
+     * their relative paths.  Files are uploaded in parallel, and large files
+     * as multipart uploads.
+     *
+     * A file that fails to upload doesn't stop the others.  Check each result.
+     * Symbolic links are followed, and anything else that isn't a regular file
+     * gets a failed result.
+     *
+     * @param localDir The local directory to upload
+     * @return The result for each file found
+     * @throws FileSystemException if the path isn't a directory or can't be read
      */
-    @Override
-    protected long doGetLastModifiedTime() throws Exception
+    public List<SS3TransferResult> uploadDirectory(File localDir) throws FileSystemException
     {
-        long res;
-        
-        checkBlobProperties();
-        Date lm = currBlobProperties.getLastModified();
+        Pair<String, String> path = getContainerAndPath();
+
+        try
+        {
+            return new SS3BulkTransfer(this, fileSystem).upload(localDir.toPath());
+        }
+        catch (IOException ex)
+        {
+            throw new FileSystemException(
+                    String.format("Failed uploading '%s' to '%s'", localDir, getName()), ex);
+        }
+        finally
+        {
+            fileSystem.getMetadataCache().invalidateTree(path.getLeft(), path.getRight());
+            refresh();
+        }
+    }
+
+    /**
+     * Downloads every file beneath this folder into a local directory, keeping
+     * their relative paths.  The folder is listed once and the files are
+     * downloaded in parallel.  Local files already matching the remote size
+     * and ETag are skipped.
+     *
+     * A file that fails to download doesn't stop the others.  Check each result.
+     *
+     * @param localDir The local directory to download into
+     * @return The result for each file found
+     * @throws FileSystemException if the folder can't be listed
+     */
+    public List<SS3TransferResult> downloadDirectory(File localDir) throws FileSystemException
+    {
+        try
+        {
+            return new SS3BulkTransfer(this, fileSystem).download(localDir.toPath());
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            throw new FileSystemException(
+                    String.format("Failed downloading '%s' to '%s'", getName(), localDir), ex);
+        }
+    }
+
+    /**
+     * Starts a multipart upload to this File Object's path.
+     * 
+     * @param maxPartsInFlight The maximum number of parts uploading at one time
+     * @return The new multipart upload
+     */
+    SS3MultipartUpload startMultipartUpload(int maxPartsInFlight)
+    {
+        Pair<String, String> path = getContainerAndPath();
+        
+        return new SS3MultipartUpload(fileSystem.getClient(), fileSystem.getExecutor(), 
+                                      path.getLeft(), path.getRight(), maxPartsInFlight);
+    }
+    
+    /**
+     * Copies files from another file to this one.  When the source is on this 
+     * same file-system the content is copied server-side, without passing 
+     * through this client.  Otherwise the default stream copy is used.
+     * 
+     * @param file The source file to copy from
+     * @param selector Selects the files to copy
+     * @throws FileSystemException 
+     */
+    @Override
+    public void copyFrom(FileObject file, FileSelector selector) throws FileSystemException
+    {
+        if( (file instanceof SS3FileObject) == false 
+                || file.getFileSystem() != getFileSystem() )
+        {
+            super.copyFrom(file, selector);
+            
+            return;
+        }
+        
+        if( file.exists() == false )
+        {
+            throw new FileSystemException(
+                    String.format("Could not copy '%s' because it does not exist", file.getName()));
+        }
+        
+        // Locate the files to copy across
+        List<FileObject> files = new ArrayList<>();
+        file.findFiles(selector, false, files);
+        
+        for( FileObject srcFile : files )
+        {
+            // Determine the destination file
+            String relPath = file.getName().getRelativeName(srcFile.getName());
+            FileObject destFile = resolveFile(relPath, NameScope.DESCENDENT_OR_SELF);
+            
+            // Clean up the destination file, if necessary
+            if( destFile.exists() && destFile.getType() != srcFile.getType() )
+            {
+                destFile.delete(Selectors.SELECT_ALL);
+            }
+            
+            if( srcFile.getType().hasContent() )
+            {
+                SS3FileObject dest = (SS3FileObject)destFile;
+                boolean existed = dest.exists();
+                
+                dest.copyObjectFrom((SS3FileObject)srcFile);
+                
+                try
+                {
+                    if( existed )
+                    {
+                        dest.refresh();
+                    }
+                    else
+                    {
+                        dest.handleCreate(FileType.FILE);
+                    }
+                }
+                catch (Exception ex)
+                {
+                    throw new FileSystemException(
+                            String.format("Could not copy '%s' to '%s'", 
+                                          srcFile.getName(), destFile.getName()), ex);
+                }
+            }
+            else if( srcFile.getType().hasChildren() )
+            {
+                destFile.createFolder();
+            }
+        }
+    }
+    
+    /**
+     * Renames this file or folder with server-side copies followed by deletes.
+     * The content never passes through this client.
+     * 
+     * @param newfile The new file, on the same file-system
+     * @throws Exception 
+     */
+    @Override
+    protected void doRename(FileObject newfile) throws Exception
+    {
+        SS3FileObject dest = (SS3FileObject)newfile;
+        
+        if( getType() == FileType.FILE )
+        {
+            dest.copyObjectFrom(this);
+            doDelete();
+            
+            return;
+        }
+        
+        // A folder is every key under its prefix
+        Pair<String, String> path = getContainerAndPath();
+        Pair<String, String> destPath = dest.getContainerAndPath();
+        
+        String prefix = getFolderPrefix(path.getRight());
+        String destPrefix = getFolderPrefix(destPath.getRight());
+        
+        SS3BatchDelete deletes = createBatchDelete(path.getLeft());
+        
+        try
+        {
+            for( Iterator<ObjectListing> it = listTree(); it.hasNext(); )
+            {
+                for( S3ObjectSummary osum : it.next().getObjectSummaries() )
+                {
+                    String destKey = destPrefix + osum.getKey().substring(prefix.length());
+
+                    copyObject(path.getLeft(), osum.getKey(), osum.getETag(), osum.getSize(),
+                               null, destPath.getLeft(), destKey);
+
+                    // Only ever delete a key once it has been copied
+                    deletes.delete(osum.getKey());
+                }
+            }
+
+            deletes.finish();
+        }
+        finally
+        {
+            fileSystem.getMetadataCache().invalidateTree(path.getLeft(), path.getRight());
+            fileSystem.getMetadataCache().invalidateTree(destPath.getLeft(), destPath.getRight());
+        }
+    }
+    
+    /**
+     * Copies the content of another object on this file-system to this path,
+     * server-side.  Objects larger than the multipart copy threshold are copied
+     * as concurrent part copies.
+     * 
+     * @param src The source object
+     * @throws FileSystemException 
+     */
+    void copyObjectFrom(SS3FileObject src) throws FileSystemException
+    {
+        Pair<String, String> srcPath = src.getContainerAndPath();
+        Pair<String, String> path = getContainerAndPath();
+        
+        SS3ObjectInfo info = src.getBlobProperties();
+        
+        try
+        {
+            copyObject(srcPath.getLeft(), srcPath.getRight(), info.getETag(), info.getContentLength(),
+                       info.getMetadata(), path.getLeft(), path.getRight());
+        }
+        catch (IOException ex)
+        {
+            throw new FileSystemException(
+                    String.format("Could not copy '%s' to '%s'", src.getName(), getName()), ex);
+        }
+        
+        invalidateBlobProperties();
+    }
+    
+    /**
+     * Copies a single object server-side.
+     * 
+     * @param srcBucket The source container
+     * @param srcKey The source object key
+     * @param srcETag The source object's ETag
+     * @param srcSize The source object's content length
+     * @param srcMetadata The source object's metadata, or null if it's unknown
+     * @param destBucket The destination container
+     * @param destKey The destination object key
+     * @throws IOException 
+     */
+    private void copyObject(String srcBucket, String srcKey, String srcETag, long srcSize, 
+                            ObjectMetadata srcMetadata, String destBucket, String destKey) 
+            throws IOException
+    {
+        FileSystemOptions opts = fileSystem.getFileSystemOptions();
+        SS3FileSystemConfigBuilder builder = SS3FileSystemConfigBuilder.getInstance();
+        
+        if( srcSize < builder.getMultipartCopyThreshold(opts) )
+        {
+            fileSystem.getClient().copyObject(
+                    new CopyObjectRequest(srcBucket, srcKey, destBucket, destKey));
+            
+            return;
+        }
+        
+        if( srcMetadata == null )
+        {
+            srcMetadata = fileSystem.getClient().getObjectMetadata(srcBucket, srcKey);
+        }
+        
+        // A multipart upload does not carry over the source's metadata by itself
+        ObjectMetadata destMetadata = new ObjectMetadata();
+        if( srcMetadata.getContentType() != null )
+        {
+            destMetadata.setContentType(srcMetadata.getContentType());
+        }
+        destMetadata.setUserMetadata(srcMetadata.getUserMetadata());
+        
+        long partSize = Math.max(builder.getCopyPartSize(opts), SS3Constants.MIN_UPLOAD_PART_SIZE);
+        
+        SS3MultipartUpload upload = new SS3MultipartUpload(fileSystem.getClient(), 
+                fileSystem.getExecutor(), destBucket, destKey, destMetadata, 
+                builder.getUploadThreads(opts));
+        try
+        {
+            for( long start = 0; start < srcSize; start += partSize )
+            {
+                long end = Math.min(start + partSize, srcSize) - 1;
+                
+                upload.copyPart(srcBucket, srcKey, srcETag, start, end);
+            }
+            
+            upload.complete();
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            upload.abort();
+            
+            throw ex;
+        }
+    }
+    
+    /**
+     * Finds the files below this folder that are selected, using one flat 
+     * listing of everything beneath it instead of listing each folder in 
+     * turn.  The walk needs one request per 1000 keys, whatever the depth.
+     * 
+     * @param selector Selects the files to return
+     * @param depthwise true to return files before the folders holding them
+     * @param selected Receives the selected files
+     * @throws FileSystemException 
+     */
+    @Override
+    public void findFiles(FileSelector selector, boolean depthwise, List<FileObject> selected) 
+            throws FileSystemException
+    {
+        if( getType() != FileType.FOLDER )
+        {
+            super.findFiles(selector, depthwise, selected);
+            
+            return;
+        }
+        
+        try
+        {
+            new SS3TreeWalker(this, selector, depthwise, selected).walk();
+        }
+        catch (FileSystemException ex)
+        {
+            throw ex;
+        }
+        catch (Exception ex)
+        {
+            throw new FileSystemException(
+                    String.format("Could not find files in '%s'", getName()), ex);
+        }
+    }
+    
+    /**
+     * Lists every object under this folder, at any depth, one page at a time.
+     * 
+     * @return An iterator over the listing pages.
+     */
+    Iterator<ObjectListing> listTree()
+    {
+        Pair<String, String> path = getContainerAndPath();
+        
+        ListObjectsRequest loReq = new ListObjectsRequest();
+        loReq.withBucketName(path.getLeft());
+        loReq.withPrefix(getFolderPrefix(path.getRight()));
+        
+        return new SS3ListingIterator(fileSystem.getClient(), fileSystem.getExecutor(), loReq);
+    }
+    
+    /**
+     * Discards the metadata fetched on attach, after the remote object has been
+     * written or deleted.  The file-system's cached metadata for this path and
+     * its parent folders is discarded too.
+     */
+    void invalidateBlobProperties()
+    {
+        Pair<String, String> path = getContainerAndPath();
+        
+        currInfo = null;
+        fileSystem.getMetadataCache().invalidate(path.getLeft(), path.getRight());
+        
+        cancelFolderProbe();
+    }
+    
+    /**
+     * Callback for handling "content size" requests by the provider.
+     * 
+     * @return The number of bytes in the File Object's content
+     * @throws Exception 
+     */
+    @Override
+    protected long doGetContentSize() throws Exception
+    {
+        long res = -1;
+        
+        res = getBlobProperties().getContentLength();
+        
+        return res;
+    }
+
+    /**
+     * Get an InputStream for reading the content of this File Object.
+     * 
+     * Each call makes its own GET request, so no connection is held until the
+     * content is actually read.  The connection is released when the returned
+     * stream is closed.
+     * 
+     * If parallel downloads are configured, objects above the threshold are
+     * instead read as several ranges fetched concurrently.
+     * 
+     * If a local cache is configured, the content is read from the local copy
+     * when S3 confirms it hasn't changed, and otherwise downloaded into the
+     * cache first.
+     * 
+     * @return The InputStream object for reading.
+     * @throws Exception 
+     */
+    @Override
+    protected InputStream doGetInputStream() throws Exception
+    {
+        SS3LocalCache localCache = fileSystem.getLocalCache();
+        if( localCache != null )
+        {
+            Pair<Path, InputStream> cached = getCachedContent(localCache);
+            if( cached != null )
+            {
+                if( cached.getRight() != null )
+                {
+                    return cached.getRight();
+                }
+                
+                try
+                {
+                    return Files.newInputStream(cached.getLeft());
+                }
+                catch (NoSuchFileException ex)
+                {
+                    log.debug(String.format("'%s' was evicted before it was read", cached.getLeft()));
+                }
+            }
+        }
+        
+        return getRemoteInputStream();
+    }
+    
+    /**
+     * Makes sure the local cache holds the current content of this object.
+     * 
+     * A cached copy whose ETag matches the one found on attach is used without 
+     * any request.  Otherwise a conditional GET revalidates the copy, and 
+     * returns new content only if the object has changed.  Content that turns
+     * out not to be cacheable is returned still open, so it's never requested
+     * twice.
+     * 
+     * @param localCache
+     * @return The cached file on the left, or the open content on the right.  
+     *         Null if this object can't be cached and nothing was requested.
+     * @throws IOException 
+     */
+    private Pair<Path, InputStream> getCachedContent(SS3LocalCache localCache) throws IOException
+    {
+        Pair<String, String> path = getContainerAndPath();
+        
+        String cachedETag = localCache.getETag(path.getLeft(), path.getRight());
+        if( cachedETag != null )
+        {
+            if( currInfo != null && cachedETag.equals(currInfo.getETag()) )
+            {
+                Path res = localCache.getFile(path.getLeft(), path.getRight(), cachedETag);
+                if( res != null )
+                {
+                    return new ImmutablePair<>(res, null);
+                }
+            }
+            
+            S3Object obj = fileSystem.getClient().getObject(
+                    new GetObjectRequest(path.getLeft(), path.getRight())
+                            .withNonmatchingETagConstraint(cachedETag));
+            if( obj == null )
+            {
+                // The client returns null for "304 Not Modified"
+                Path res = localCache.getFile(path.getLeft(), path.getRight(), cachedETag);
+                if( res != null )
+                {
+                    return new ImmutablePair<>(res, null);
+                }
+                
+                log.debug(String.format("Cached copy of '%s' was evicted during revalidation", 
+                                        getName()));
+                
+                obj = fileSystem.getClient().getObject(path.getLeft(), path.getRight());
+            }
+            
+            return storeInCache(localCache, obj);
+        }
+        
+        SS3ObjectInfo info = getBlobProperties();
+        if( localCache.accepts(info.getContentLength(), info.getETag()) == false )
+        {
+            return null;
+        }
+        
+        if( isParallelDownload(info) )
+        {
+            // The ranges are all read from the version with this ETag
+            Path res = localCache.store(path.getLeft(), path.getRight(), info.getETag(), 
+                                        getParallelInputStream(info));
+            
+            return new ImmutablePair<>(res, null);
+        }
+        
+        return storeInCache(localCache, 
+                fileSystem.getClient().getObject(path.getLeft(), path.getRight()));
+    }
+    
+    /**
+     * Downloads an object into the local cache, if it can be cached.
+     * 
+     * @param localCache
+     * @param obj The object fetched by a GET request
+     * @return The cached file on the left, or the still open content of an 
+     *         object that can't be cached on the right
+     * @throws IOException 
+     */
+    private Pair<Path, InputStream> storeInCache(SS3LocalCache localCache, S3Object obj) 
+            throws IOException
+    {
+        Pair<String, String> path = getContainerAndPath();
+        ObjectMetadata md = obj.getObjectMetadata();
+        
+        InputStream in = new SS3InputStream(obj);
+        
+        if( localCache.accepts(md.getContentLength(), md.getETag()) == false )
+        {
+            return new ImmutablePair<>(null, in);
+        }
+        
+        Path res = localCache.store(path.getLeft(), path.getRight(), md.getETag(), in);
+        
+        return new ImmutablePair<>(res, null);
+    }
+    
+    /**
+     * Opens the content of this File Object as a read-only channel on a local
+     * file, for random reads without going through a stream.
+     * 
+     * The content is downloaded once.  With a local cache it's kept in the 
+     * cache and reused while the object is unchanged.  Otherwise it's held in
+     * a temporary file, deleted when the channel is closed.
+     * 
+     * @return A read-only channel on the content
+     * @throws FileSystemException 
+     */
+    public FileChannel openChannel() throws FileSystemException
+    {
+        try
+        {
+            // Content already fetched, but not cacheable
+            InputStream content = null;
+            
+            SS3LocalCache localCache = fileSystem.getLocalCache();
+            if( localCache != null )
+            {
+                Pair<Path, InputStream> cached = getCachedContent(localCache);
+                if( cached != null )
+                {
+                    content = cached.getRight();
+                    if( content == null )
+                    {
+                        try
+                        {
+                            return FileChannel.open(cached.getLeft(), StandardOpenOption.READ);
+                        }
+                        catch (NoSuchFileException ex)
+                        {
+                            log.debug(String.format("'%s' was evicted before it was read", 
+                                                    cached.getLeft()));
+                        }
+                    }
+                }
+            }
+            
+            Path temp;
+            try
+            {
+                temp = Files.createTempFile("ss3", ".tmp");
+            }
+            catch (IOException ex)
+            {
+                if( content != null )
+                {
+                    content.close();
+                }
+                
+                throw ex;
+            }
+            
+            try
+            {
+                try( InputStream in = content != null ? content : getRemoteInputStream() )
+                {
+                    Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+                }
+                
+                return FileChannel.open(temp, StandardOpenOption.READ, 
+                                              StandardOpenOption.DELETE_ON_CLOSE);
+            }
+            catch (IOException | RuntimeException ex)
+            {
+                Files.deleteIfExists(temp);
+                
+                throw ex;
+            }
+        }
+        catch (FileSystemException ex)
+        {
+            throw ex;
+        }
+        catch (IOException ex)
+        {
+            throw new FileSystemException(
+                    String.format("Could not open a channel on '%s'", getName()), ex);
+        }
+    }
+    
+    /**
+     * Maps the content of this File Object into memory, read-only.  The 
+     * content is downloaded to a local file as in {@link #openChannel()}.
+     * 
+     * The mapping stays valid after the local file is closed.  Objects of 
+     * 2 GiB or more can't be mapped in one buffer; use {@link #openChannel()}
+     * to map them in parts.
+     * 
+     * @return The mapped content
+     * @throws FileSystemException 
+     */
+    public MappedByteBuffer map() throws FileSystemException
+    {
+        try( FileChannel ch = openChannel() )
+        {
+            long size = ch.size();
+            if( size > Integer.MAX_VALUE )
+            {
+                throw new FileSystemException(
+                        String.format("'%s' is too large to map in one buffer", getName()));
+            }
+            
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        catch (FileSystemException ex)
+        {
+            throw ex;
+        }
+        catch (IOException ex)
+        {
+            throw new FileSystemException(
+                    String.format("Could not map '%s'", getName()), ex);
+        }
+    }
+    
+    /**
+     * Whether this object is large enough to download as concurrent ranges.
+     * 
+     * @param info
+     * @return 
+     */
+    private boolean isParallelDownload(SS3ObjectInfo info)
+    {
+        FileSystemOptions opts = fileSystem.getFileSystemOptions();
+        SS3FileSystemConfigBuilder builder = SS3FileSystemConfigBuilder.getInstance();
+        
+        return builder.getDownloadThreads(opts) > 1
+                && info.getContentLength() >= builder.getParallelDownloadThreshold(opts);
+    }
+    
+    private InputStream getParallelInputStream(SS3ObjectInfo info)
+    {
+        FileSystemOptions opts = fileSystem.getFileSystemOptions();
+        SS3FileSystemConfigBuilder builder = SS3FileSystemConfigBuilder.getInstance();
+        
+        long partSize = Math.min(builder.getDownloadPartSize(opts), Integer.MAX_VALUE - 8);
+        
+        return new SS3ParallelInputStream(this, fileSystem.getExecutor(), info.getETag(),
+                            info.getContentLength(), partSize, builder.getDownloadThreads(opts));
+    }
+    
+    /**
+     * Reads the content straight from S3.
+     * 
+     * @return
+     * @throws FileSystemException 
+     */
+    private InputStream getRemoteInputStream() throws FileSystemException
+    {
+        FileSystemOptions opts = fileSystem.getFileSystemOptions();
+        SS3FileSystemConfigBuilder builder = SS3FileSystemConfigBuilder.getInstance();
+        
+        // Only look up the size when it could matter
+        if( builder.getDownloadThreads(opts) > 1 )
+        {
+            SS3ObjectInfo info = getBlobProperties();
+            if( isParallelDownload(info) )
+            {
+                return getParallelInputStream(info);
+            }
+        }
+        
+        Pair<String, String> path = getContainerAndPath();
+        
+        S3Object obj = fileSystem.getClient().getObject(path.getLeft(), path.getRight());
+        
+        InputStream in = new SS3InputStream(obj);
+        
+        return in;
+    }
+
+    /**
+     * Get read-only random access to the content of this File Object.  Reads
+     * are served by ranged GET requests.
+     * 
+     * @param mode The access mode.  Only reading is supported.
+     * @return The random access content.
+     * @throws Exception 
+     */
+    @Override
+    protected RandomAccessContent doGetRandomAccessContent(RandomAccessMode mode) throws Exception
+    {
+        if( mode.requestWrite() )
+        {
+            throw new FileSystemException(
+                    String.format("Random access writes are not supported for '%s'", getName()));
+        }
+        
+        FileSystemOptions opts = fileSystem.getFileSystemOptions();
+        SS3FileSystemConfigBuilder builder = SS3FileSystemConfigBuilder.getInstance();
+        
+        RandomAccessContent res = new SS3RandomAccessContent(this, mode, 
+                getBlobProperties().getContentLength(),
+                builder.getReadAheadSize(opts), builder.getBlockCacheSize(opts));
+        
+        return res;
+    }
+    
+    /**
+     * Reads a byte range of the remote object with a single ranged GET.
+     * 
+     * @param start The position of the first byte
+     * @param end The position of the last byte, inclusive
+     * @return The content of the range
+     * @throws IOException 
+     */
+    byte[] getObjectRange(long start, long end) throws IOException
+    {
+        return getObjectRange(start, end, null);
+    }
+    
+    /**
+     * Reads a byte range of the remote object with a single ranged GET, but
+     * only if the object still has the expected ETag.
+     * 
+     * @param start The position of the first byte
+     * @param end The position of the last byte, inclusive
+     * @param etag The ETag the object must have, or null for any version
+     * @return The content of the range
+     * @throws IOException if the object no longer matches the ETag
+     */
+    byte[] getObjectRange(long start, long end, String etag) throws IOException
+    {
+        Pair<String, String> path = getContainerAndPath();
+        
+        GetObjectRequest req = new GetObjectRequest(path.getLeft(), path.getRight())
+                                        .withRange(start, end);
+        if( etag != null )
+        {
+            req.withMatchingETagConstraint(etag);
+        }
+        
+        S3Object obj = fileSystem.getClient().getObject(req);
+        if( obj == null )
+        {
+            // The client returns null when a constraint was not met
+            throw new IOException(
+                    String.format("'%s' changed while it was being read", getName()));
+        }
+        
+        byte[] res = new byte[(int)(end - start + 1)];
+        
+        try( DataInputStream in = new DataInputStream(new SS3InputStream(obj)) )
+        {
+            in.readFully(res);
+        }
+        
+        return res;
+    }
+
+    /**
+     * Callback for handling delete on this File Object
+     * @throws Exception 
+     */
+    @Override
+    protected void doDelete() throws Exception
+    {
+        Pair<String, String> path = getContainerAndPath();
+        
+        // Purposely use the more restrictive delete() over deleteIfExists()
+        fileSystem.getClient().deleteObject(path.getLeft(), path.getRight());
+        
+        invalidateBlobProperties();
+    }
+
+    /**
+     * Deletes this file and the files it contains that are selected.
+     * 
+     * Deleting a whole folder with <code>Selectors.SELECT_ALL</code> lists the 
+     * folder's prefix once and removes the keys with multi-object delete 
+     * requests, instead of checking and deleting each descendant one by one.
+     * Any other selector uses the default behaviour.
+     * 
+     * Descendants already in the file-system's cache are told they were 
+     * deleted, as if they had been deleted one by one.
+     * 
+     * @param selector Selects the files to delete
+     * @return The number of files and folders deleted, including this one
+     * @throws FileSystemException if any key could not be deleted
+     */
+    @Override
+    public int delete(FileSelector selector) throws FileSystemException
+    {
+        if( selector != Selectors.SELECT_ALL || getType() != FileType.FOLDER )
+        {
+            return super.delete(selector);
+        }
+        
+        Pair<String, String> path = getContainerAndPath();
+        String prefix = getFolderPrefix(path.getRight());
+        
+        SS3BatchDelete deletes = createBatchDelete(path.getLeft());
+        
+        // The paths of the descendant files and folders
+        NavigableSet<String> descendants = new TreeSet<>();
+        
+        boolean deleted = false;
+        try
+        {
+            for( Iterator<ObjectListing> it = listTree(); it.hasNext(); )
+            {
+                for( S3ObjectSummary osum : it.next().getObjectSummaries() )
+                {
+                    deletes.delete(osum.getKey());
+                    
+                    addDescendants(descendants, prefix, osum.getKey());
+                }
+            }
+
+            deletes.finish();
+            deleted = true;
+        }
+        finally
+        {
+            fileSystem.getMetadataCache().invalidateTree(path.getLeft(), path.getRight());
+            
+            updateDescendants(path.getLeft(), descendants.descendingSet(), deleted);
+        }
+        
+        try
+        {
+            handleDelete();
+        }
+        catch (Exception ex)
+        {
+            throw new FileSystemException(
+                    String.format("Could not delete '%s'", getName()), ex);
+        }
+        
+        return descendants.size() + 1;
+    }
+    
+    /**
+     * Adds the path of a key below a folder, and of each folder between them.
+     * 
+     * @param paths The paths found so far
+     * @param prefix The folder's prefix
+     * @param key The key found
+     */
+    private static void addDescendants(Set<String> paths, String prefix, String key)
+    {
+        String currPath = StringUtils.removeEnd(key, "/");
+        
+        while( currPath.length() > prefix.length() && paths.add(currPath) )
+        {
+            currPath = currPath.substring(0, Math.max(currPath.lastIndexOf('/'), 0));
+        }
+    }
+    
+    /**
+     * Updates the descendants in the file-system's cache after a tree delete.
+     * Descendants that weren't cached are left alone.
+     * 
+     * @param bucket The container
+     * @param paths The paths of the descendants, deepest first
+     * @param deleted True if every key was deleted.  Otherwise the cached 
+     *                descendants are refreshed, since some may remain.
+     * @throws FileSystemException 
+     */
+    private void updateDescendants(String bucket, Iterable<String> paths, boolean deleted) 
+            throws FileSystemException
+    {
+        for( String currPath : paths )
+        {
+            FileName currName = fileSystem.getFileSystemManager().resolveName(getName(), 
+                    UriParser.encode(String.format("/%s/%s", bucket, currPath)), 
+                    NameScope.DESCENDENT);
+            
+            FileObject currFile = fileSystem.getCachedFile(currName);
+            if( currFile instanceof SS3FileObject == false )
+            {
+                continue;
+            }
+            
+            SS3FileObject currObj = (SS3FileObject)currFile;
+            if( deleted == false )
+            {
+                currObj.refresh();
+                continue;
+            }
+            
+            try
+            {
+                currObj.currInfo = null;
+                currObj.handleDelete();
+            }
+            catch (Exception ex)
+            {
+                throw new FileSystemException(
+                        String.format("Could not delete '%s'", currName), ex);
+            }
+        }
+    }
+    
+    private SS3BatchDelete createBatchDelete(String bucket)
+    {
+        int threads = SS3FileSystemConfigBuilder.getInstance()
+                            .getDeleteThreads(fileSystem.getFileSystemOptions());
+        
+        return new SS3BatchDelete(fileSystem.getClient(), fileSystem.getExecutor(), 
+                                  bucket, threads);
+    }
+
+    /**
+     * Callback for handling create folder requests.  Since there are no folders
+     * in Amazon S3 this call is ingored.
+     * 
+     * @throws Exception 
+     */
+    @Override
+    protected void doCreateFolder() throws Exception
+    {
+        log.info(String.format("doCreateFolder() called."));
+    }
+
+    /**
+     * Used for creating folders.  It's not used since S3 does not have
+     * the concept of folders.
+     * 
+     * @throws FileSystemException 
+     */
+    @Override
+    public void createFolder() throws FileSystemException
+    {
+        log.info(String.format("createFolder() called."));
+    }
+
+    /**
+     * Callback for getting an OutputStream for writing into Amazon S3
+     * @param bAppend  bAppend true if the file should be appended to, false if it should be overwritten.
+     * @return An OutputStream for writing into Amazon S3
+     * @throws Exception 
+     */
+    @Override
+    protected OutputStream doGetOutputStream(boolean bAppend) throws Exception
+    {
+        OutputStream res = new SS3OutputStream(this);
+        
+        return res;
+    }
+
+    /**
+     * Callback for use when detaching this File Object from Amazon S3.
+     * 
+     * The File Object should be reusable after <code>attach()</code> call.
+     * @throws Exception 
+     */
+    @Override
+    protected void doDetach() throws Exception
+    {
+        currInfo = null;
+        
+        cancelFolderProbe();
+    }
+
+    /**
+     * Callback for handling the <code>getLastModifiedTime()</code> Commons VFS API call.
+     * @return Time since the file has last been modified
+     * @throws Exception 
+     */
+    @Override
+    protected long doGetLastModifiedTime() throws Exception
+    {
+        long res;
         
-        res = lm.getTime();
+        res = getBlobProperties().getLastModified();
         
         return res;
     }
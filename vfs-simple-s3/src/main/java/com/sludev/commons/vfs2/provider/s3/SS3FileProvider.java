@@ -16,14 +16,14 @@
  */
 package com.sludev.commons.vfs2.provider.s3;
 
+import com.amazonaws.ClientConfiguration;
 import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.regions.Regions;
-import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.retry.RetryPolicy;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.vfs2.Capability;
 import org.apache.commons.vfs2.FileName;
 import org.apache.commons.vfs2.FileSystem;
@@ -92,7 +92,8 @@ public class SS3FileProvider
         Capability.LAST_MODIFIED,
         Capability.GET_LAST_MODIFIED,
         Capability.CREATE,
-        Capability.DELETE
+        Capability.DELETE,
+        Capability.RENAME
     }));
 
     /**
@@ -132,7 +133,7 @@ public class SS3FileProvider
         GenericFileName genRootName = (GenericFileName)rootName;
         
         AWSCredentials storageCreds;
-        AmazonS3Client client;
+        SS3ClientRegistry.Key clientKey;
         
         FileSystemOptions currFSO;
         UserAuthenticator ua;
@@ -161,19 +162,11 @@ public class SS3FileProvider
         
             storageCreds = new BasicAWSCredentials(currAcct, currKey);           
             
-            client = new AmazonS3Client(storageCreds);
+            clientKey = new SS3ClientRegistry.Key(storageCreds, endpoint, region,
+                    SS3FileSystemConfigBuilder.getInstance().getPathStyleAccess(currFSO),
+                    createClientConfiguration(currFSO));
             
-            if( StringUtils.isNoneBlank(endpoint) )
-            {
-                client.setEndpoint(endpoint);
-            }
-            
-            if( region != null )
-            {
-                client.setRegion(region);
-            }
-            
-            fileSystem = new SS3FileSystem(genRootName, client, fileSystemOptions);
+            fileSystem = new SS3FileSystem(genRootName, clientKey, fileSystemOptions);
         }
         finally
         {
@@ -183,6 +176,71 @@ public class SS3FileProvider
         return fileSystem;
     }
 
+    /**
+     * Builds the Amazon S3 client's configuration from the connection pool, 
+     * timeout and retry options set through {@link SS3FileSystemConfigBuilder}.
+     * Options that are not set keep the client's defaults.
+     * 
+     * @param opts
+     * @return 
+     */
+    private ClientConfiguration createClientConfiguration(FileSystemOptions opts)
+    {
+        SS3FileSystemConfigBuilder builder = SS3FileSystemConfigBuilder.getInstance();
+        ClientConfiguration res = new ClientConfiguration();
+        
+        Integer maxConnections = builder.getMaxConnections(opts);
+        if( maxConnections != null )
+        {
+            res.setMaxConnections(maxConnections);
+        }
+        
+        Integer socketTimeout = builder.getSocketTimeout(opts);
+        if( socketTimeout != null )
+        {
+            res.setSocketTimeout(socketTimeout);
+        }
+        
+        Integer connectionTimeout = builder.getConnectionTimeout(opts);
+        if( connectionTimeout != null )
+        {
+            res.setConnectionTimeout(connectionTimeout);
+        }
+        
+        Long connectionTTL = builder.getConnectionTTL(opts);
+        if( connectionTTL != null )
+        {
+            res.setConnectionTTL(connectionTTL);
+        }
+        
+        Boolean tcpKeepAlive = builder.getTcpKeepAlive(opts);
+        if( tcpKeepAlive != null )
+        {
+            res.setUseTcpKeepAlive(tcpKeepAlive);
+        }
+        
+        RetryPolicy retryPolicy = builder.getRetryPolicy(opts);
+        if( builder.getThrottleRetries(opts) > 0 )
+        {
+            // Throttled reads are retried by the file-system instead
+            retryPolicy = SS3ThrottleRetryCondition.wrap(retryPolicy);
+        }
+        
+        if( retryPolicy != null )
+        {
+            res.setRetryPolicy(retryPolicy);
+        }
+        
+        // Set after the policy, since it overrides the policy's own retry count
+        Integer maxErrorRetry = builder.getMaxErrorRetry(opts);
+        if( maxErrorRetry != null )
+        {
+            res.setMaxErrorRetry(maxErrorRetry);
+        }
+        
+        return res;
+    }
+
     /**
      * Returns the provider's capabilities.
      * 
@@ -16,11 +16,29 @@
  */
 package com.sludev.commons.vfs2.provider.s3;
 
-import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.AmazonS3;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import org.apache.commons.vfs2.Capability;
+import org.apache.commons.vfs2.FileName;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystem;
+import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileSystemOptions;
 import org.apache.commons.vfs2.provider.AbstractFileName;
 import org.apache.commons.vfs2.provider.AbstractFileSystem;
@@ -39,23 +57,420 @@ public class SS3FileSystem
 {
     private static final Logger log = LoggerFactory.getLogger(SS3FileSystem.class);
     
-    private final AmazonS3Client client;
+    private final SS3ClientRegistry.Key clientKey;
+    private final SS3Metrics metrics;
+    private final List<SS3RequestListener> requestListeners;
+    
+    /**
+     * Distinguishes the MBeans of file-systems on the same host.
+     */
+    private static final AtomicInteger MBEAN_COUNT = new AtomicInteger();
+    
+    /**
+     * Guards the lazily created resources below.  VFS holds the file-system's
+     * own lock during whole operations, e.g. listing a large folder, so it 
+     * isn't used here.
+     */
+    private final Object resourceLock = new Object();
+    
+    private volatile AmazonS3 client;
+    private ObjectName metricsMBeanName;
+    private ExecutorService executor;
+    private ExecutorService hedgeExecutor;
+    private ExecutorService asyncExecutor;
+    private boolean ownsAsyncExecutor;
+    private SS3BufferPool bufferPool;
+    private SS3MetadataCache metadataCache;
+    private SS3LocalCache localCache;
+    
+    /**
+     * The size of each pooled array used to buffer upload content.
+     */
+    private static final int BUFFER_CHUNK_SIZE = 64 * 1024;
 
     /**
      * The single client for interacting with Amazon S3.
      * 
+     * The client is shared with other file-systems using the same endpoint,
+     * credentials and client options.  It's acquired on first use and
+     * released when the communication link is closed.  Requests made through
+     * it are recorded in this file-system's metrics and passed to its request
+     * listeners.  Reads are retried and hedged as configured.
+     * 
+     * @return 
+     */
+    protected AmazonS3 getClient()
+    {
+        AmazonS3 res = client;
+        if( res == null )
+        {
+            synchronized( resourceLock )
+            {
+                res = client;
+                if( res == null )
+                {
+                    res = SS3InstrumentedClient.wrap(
+                            SS3ClientRegistry.getInstance().acquire(clientKey), 
+                            metrics, requestListeners);
+                    res = SS3RetryingClient.wrap(res, this);
+                    client = res;
+                }
+            }
+        }
+        
+        return res;
+    }
+    
+    /**
+     * Identifies the shared client, and holds the configuration it's created
+     * with.
+     * 
+     * @return 
+     */
+    SS3ClientRegistry.Key getClientKey()
+    {
+        return clientKey;
+    }
+    
+    /**
+     * Worker threads for S3 requests that run in the background, e.g. fetching
+     * the next page of a listing.  Created on first use.
+     * 
+     * The pool never queues work.  Once all workers are busy, tasks run on 
+     * the submitting thread instead, so tasks that wait on other tasks can't
+     * deadlock the pool.
+     * 
+     * @return 
+     */
+    protected ExecutorService getExecutor()
+    {
+        synchronized( resourceLock )
+        {
+            if( executor == null )
+            {
+                int threads = SS3FileSystemConfigBuilder.getInstance()
+                                        .getWorkerThreads(getFileSystemOptions());
+            
+                executor = new ThreadPoolExecutor(0, threads, 60L, TimeUnit.SECONDS,
+                        new SynchronousQueue<Runnable>(), 
+                        new ThreadFactory()
+                        {
+                            private final AtomicInteger count = new AtomicInteger();
+                        
+                            @Override
+                            public Thread newThread(Runnable r)
+                            {
+                                Thread res = new Thread(r, 
+                                        String.format("ss3-worker-%d", count.incrementAndGet()));
+                                res.setDaemon(true);
+                            
+                                return res;
+                            }
+                        },
+                        new ThreadPoolExecutor.CallerRunsPolicy());
+            }
+        
+            return executor;
+        }
+    }
+    
+    /**
+     * Threads for requests that may be hedged, see {@link SS3RetryingClient}.
+     * Created on first use.
+     * 
+     * Kept apart from the worker threads, so hedging doesn't take threads
+     * from transfers.  The pool never queues work and rejects tasks once all
+     * threads are busy, so the caller can run the request itself instead.
+     * 
      * @return 
      */
-    protected AmazonS3Client getClient()
+    protected ExecutorService getHedgeExecutor()
     {
-        return client;
+        synchronized( resourceLock )
+        {
+            if( hedgeExecutor == null )
+            {
+                int threads = SS3FileSystemConfigBuilder.getInstance()
+                                        .getHedgeThreads(getFileSystemOptions());
+            
+                hedgeExecutor = new ThreadPoolExecutor(0, Math.max(threads, 1), 60L, TimeUnit.SECONDS,
+                        new SynchronousQueue<Runnable>(), 
+                        new ThreadFactory()
+                        {
+                            private final AtomicInteger count = new AtomicInteger();
+                        
+                            @Override
+                            public Thread newThread(Runnable r)
+                            {
+                                Thread res = new Thread(r, 
+                                        String.format("ss3-hedge-%d", count.incrementAndGet()));
+                                res.setDaemon(true);
+                            
+                                return res;
+                            }
+                        },
+                        new ThreadPoolExecutor.AbortPolicy());
+            }
+        
+            return hedgeExecutor;
+        }
     }
     
-    protected SS3FileSystem(final GenericFileName rootName, final AmazonS3Client client,
+    /**
+     * Runs the operations of {@link SS3AsyncFileObject}.  Created on first use.
+     * 
+     * Unlike the worker threads, tasks are never run on the submitting thread,
+     * so callers don't block.  A configured executor is used as-is.  Otherwise
+     * each operation gets a virtual thread where the JVM supports them, or 
+     * waits for one of a fixed number of threads.
+     * 
+     * @return 
+     */
+    protected ExecutorService getAsyncExecutor()
+    {
+        synchronized( resourceLock )
+        {
+            if( asyncExecutor == null )
+            {
+                FileSystemOptions opts = getFileSystemOptions();
+                SS3FileSystemConfigBuilder builder = SS3FileSystemConfigBuilder.getInstance();
+                
+                asyncExecutor = builder.getAsyncExecutor(opts);
+                ownsAsyncExecutor = asyncExecutor == null;
+                
+                if( asyncExecutor == null )
+                {
+                    asyncExecutor = newVirtualThreadExecutor();
+                }
+                
+                if( asyncExecutor == null )
+                {
+                    final AtomicInteger count = new AtomicInteger();
+                    
+                    asyncExecutor = Executors.newFixedThreadPool(builder.getAsyncThreads(opts), 
+                            new ThreadFactory()
+                            {
+                                @Override
+                                public Thread newThread(Runnable r)
+                                {
+                                    Thread res = new Thread(r, 
+                                            String.format("ss3-async-%d", count.incrementAndGet()));
+                                    res.setDaemon(true);
+
+                                    return res;
+                                }
+                            });
+                }
+            }
+            
+            return asyncExecutor;
+        }
+    }
+    
+    /**
+     * Creates an executor starting a virtual thread per task.  Looked up by
+     * reflection, since this builds for JVMs without virtual threads.
+     * 
+     * @return The executor, or null if the JVM has no virtual threads
+     */
+    private static ExecutorService newVirtualThreadExecutor()
+    {
+        try
+        {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            
+            return (ExecutorService)m.invoke(null);
+        }
+        catch (NoSuchMethodException ex)
+        {
+            return null;
+        }
+        catch (ReflectiveOperationException | RuntimeException ex)
+        {
+            log.debug("Virtual threads are not available", ex);
+            
+            return null;
+        }
+    }
+    
+    /**
+     * Pooled arrays for buffering upload content in memory.  Created on first
+     * use.
+     * 
+     * @return 
+     */
+    protected SS3BufferPool getBufferPool()
+    {
+        synchronized( resourceLock )
+        {
+            if( bufferPool == null )
+            {
+                long poolSize = SS3FileSystemConfigBuilder.getInstance()
+                                        .getBufferPoolSize(getFileSystemOptions());
+            
+                bufferPool = new SS3BufferPool(BUFFER_CHUNK_SIZE, 
+                        (int)Math.min(poolSize / BUFFER_CHUNK_SIZE, Integer.MAX_VALUE));
+            }
+        
+            return bufferPool;
+        }
+    }
+    
+    /**
+     * Cached metadata of recently used paths.  Created on first use.
+     * 
+     * @return 
+     */
+    protected SS3MetadataCache getMetadataCache()
+    {
+        synchronized( resourceLock )
+        {
+            if( metadataCache == null )
+            {
+                FileSystemOptions opts = getFileSystemOptions();
+                SS3FileSystemConfigBuilder builder = SS3FileSystemConfigBuilder.getInstance();
+            
+                metadataCache = new SS3MetadataCache(builder.getMetadataCacheSize(opts),
+                                                     builder.getMetadataCacheTtl(opts));
+            }
+        
+            return metadataCache;
+        }
+    }
+    
+    /**
+     * The local copies of downloaded objects, if a cache directory is set.
+     * 
+     * @return The local cache, or null if none is configured
+     * @throws FileSystemException if the cache directory can't be used
+     */
+    protected SS3LocalCache getLocalCache() throws FileSystemException
+    {
+        synchronized( resourceLock )
+        {
+            if( localCache == null )
+            {
+                FileSystemOptions opts = getFileSystemOptions();
+                SS3FileSystemConfigBuilder builder = SS3FileSystemConfigBuilder.getInstance();
+            
+                File dir = builder.getLocalCacheDir(opts);
+                if( dir == null )
+                {
+                    return null;
+                }
+            
+                try
+                {
+                    localCache = SS3LocalCache.forDirectory(dir, builder.getLocalCacheSize(opts));
+                }
+                catch (IOException ex)
+                {
+                    throw new FileSystemException(
+                            String.format("Could not use local cache directory '%s'", dir), ex);
+                }
+            }
+        
+            return localCache;
+        }
+    }
+    
+    /**
+     * The File Object for a name, if it is in the files cache.
+     * 
+     * @param name The file's name
+     * @return The File Object, or null if it isn't cached
+     */
+    FileObject getCachedFile(FileName name)
+    {
+        return getFileFromCache(name);
+    }
+    
+    /**
+     * The counts, bytes, errors and latencies of every S3 request made by this
+     * file-system.
+     * 
+     * @return 
+     */
+    public SS3Metrics getMetrics()
+    {
+        return metrics;
+    }
+    
+    protected SS3FileSystem(final GenericFileName rootName, final SS3ClientRegistry.Key clientKey,
                              final FileSystemOptions fileSystemOptions)
     {
         super(rootName, null, fileSystemOptions);
-        this.client = client;
+        this.clientKey = clientKey;
+        
+        metrics = new SS3Metrics();
+        requestListeners = new CopyOnWriteArrayList<>();
+        
+        Long slowThreshold = SS3FileSystemConfigBuilder.getInstance()
+                                    .getSlowRequestThreshold(fileSystemOptions);
+        if( slowThreshold != null )
+        {
+            requestListeners.add(new SS3SlowRequestLogger(slowThreshold, TimeUnit.MILLISECONDS));
+        }
+    }
+    
+    /**
+     * Adds a listener told about every S3 request made by this file-system.
+     * 
+     * @param listener 
+     */
+    public void addRequestListener(SS3RequestListener listener)
+    {
+        requestListeners.add(listener);
+    }
+    
+    public void removeRequestListener(SS3RequestListener listener)
+    {
+        requestListeners.remove(listener);
+    }
+    
+    /**
+     * Registers the metrics MBean, if enabled.
+     * 
+     * @throws FileSystemException 
+     */
+    @Override
+    public void init() throws FileSystemException
+    {
+        super.init();
+        
+        if( SS3FileSystemConfigBuilder.getInstance()
+                    .getMetricsMBeanEnabled(getFileSystemOptions()) )
+        {
+            registerMetricsMBean();
+        }
+    }
+    
+    /**
+     * Registers the metrics under 
+     * 'com.sludev.commons.vfs2.provider.s3:type=SS3FileSystem,name=...'.  A
+     * failure is logged but doesn't stop the file-system being used.
+     */
+    private void registerMetricsMBean()
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        String host = ((GenericFileName)getRootName()).getHostName();
+        
+        synchronized( resourceLock )
+        {
+            try
+            {
+                ObjectName name = new ObjectName(String.format("%s:type=SS3FileSystem,name=%s",
+                        SS3FileSystem.class.getPackage().getName(),
+                        ObjectName.quote(String.format("%s-%d", host, MBEAN_COUNT.incrementAndGet()))));
+                
+                server.registerMBean(metrics, name);
+                metricsMBeanName = name;
+            }
+            catch (JMException ex)
+            {
+                log.warn( String.format("Could not register metrics MBean for '%s'", host), ex);
+            }
+        }
     }
     
     @Override
@@ -64,6 +479,73 @@ public class SS3FileSystem
         return new SS3FileObject(name, this);
     }
 
+    /**
+     * Stops the worker threads and releases the shared client.  Both are 
+     * created again on next use.  Queued asynchronous operations still run.
+     */
+    @Override
+    protected void doCloseCommunicationLink()
+    {
+        synchronized( resourceLock )
+        {
+            if( executor != null )
+            {
+                executor.shutdown();
+                executor = null;
+            }
+            
+            if( hedgeExecutor != null )
+            {
+                hedgeExecutor.shutdown();
+                hedgeExecutor = null;
+            }
+            
+            if( asyncExecutor != null )
+            {
+                if( ownsAsyncExecutor )
+                {
+                    asyncExecutor.shutdown();
+                }
+                
+                asyncExecutor = null;
+            }
+        
+            if( client != null )
+            {
+                SS3ClientRegistry.getInstance().release(clientKey);
+                client = null;
+            }
+        }
+    }
+    
+    /**
+     * Unregisters the metrics MBean.  This isn't done when the communication
+     * link is closed, since VFS does that to free resources while the 
+     * file-system stays cached and in use.
+     */
+    @Override
+    public void close()
+    {
+        super.close();
+        
+        synchronized( resourceLock )
+        {
+            if( metricsMBeanName != null )
+            {
+                try
+                {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsMBeanName);
+                }
+                catch (JMException ex)
+                {
+                    log.debug( String.format("Could not unregister '%s'", metricsMBeanName), ex);
+                }
+                
+                metricsMBeanName = null;
+            }
+        }
+    }
+
     @Override
     protected void addCapabilities(Collection<Capability> caps)
     {
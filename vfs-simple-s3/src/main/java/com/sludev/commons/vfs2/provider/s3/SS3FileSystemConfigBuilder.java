@@ -16,6 +16,9 @@
  */
 package com.sludev.commons.vfs2.provider.s3;
 
+import com.amazonaws.retry.RetryPolicy;
+import java.io.File;
+import java.util.concurrent.ExecutorService;
 import org.apache.commons.vfs2.FileSystem;
 import org.apache.commons.vfs2.FileSystemConfigBuilder;
 import org.apache.commons.vfs2.FileSystemException;
@@ -32,6 +35,30 @@ public class SS3FileSystemConfigBuilder  extends FileSystemConfigBuilder
 {
     private static final Logger log = LoggerFactory.getLogger(SS3FileSystemConfigBuilder.class);
     private static final SS3FileSystemConfigBuilder BUILDER = new SS3FileSystemConfigBuilder();
+    
+    private static final int DEFAULT_WORKER_THREADS = 16;
+    private static final long DEFAULT_UPLOAD_PART_SIZE = 8L * 1024 * 1024;
+    private static final int DEFAULT_UPLOAD_THREADS = 4;
+    private static final long DEFAULT_MEMORY_THRESHOLD = 4L * 1024 * 1024;
+    private static final long DEFAULT_BUFFER_POOL_SIZE = 32L * 1024 * 1024;
+    private static final int DEFAULT_READ_AHEAD_SIZE = 256 * 1024;
+    private static final int DEFAULT_BLOCK_CACHE_SIZE = 16;
+    private static final int DEFAULT_DOWNLOAD_THREADS = 1;
+    private static final long DEFAULT_DOWNLOAD_PART_SIZE = 8L * 1024 * 1024;
+    private static final long DEFAULT_PARALLEL_DOWNLOAD_THRESHOLD = 32L * 1024 * 1024;
+    private static final long DEFAULT_COPY_PART_SIZE = 128L * 1024 * 1024;
+    private static final long DEFAULT_MULTIPART_COPY_THRESHOLD = 512L * 1024 * 1024;
+    private static final int DEFAULT_DELETE_THREADS = 4;
+    private static final int DEFAULT_METADATA_CACHE_SIZE = 10000;
+    private static final long DEFAULT_METADATA_CACHE_TTL = 0;
+    private static final long DEFAULT_LOCAL_CACHE_SIZE = 1024L * 1024 * 1024;
+    private static final int DEFAULT_ASYNC_THREADS = 64;
+    private static final int DEFAULT_TRANSFER_THREADS = 8;
+    private static final long DEFAULT_MULTIPART_UPLOAD_THRESHOLD = 16L * 1024 * 1024;
+    private static final int DEFAULT_THROTTLE_RETRIES = 0;
+    private static final long DEFAULT_THROTTLE_BACKOFF = 100;
+    private static final long DEFAULT_HEDGE_DELAY = 50;
+    private static final int DEFAULT_HEDGE_THREADS = 16;
 
     @Override
     protected Class<? extends FileSystem> getConfigClass()
@@ -46,7 +73,7 @@ public class SS3FileSystemConfigBuilder  extends FileSystemConfigBuilder
 
     private SS3FileSystemConfigBuilder()
     {
-        super("azure.");
+        super("s3.");
     }
     
     public static SS3FileSystemConfigBuilder getInstance()
@@ -75,4 +102,821 @@ public class SS3FileSystemConfigBuilder  extends FileSystemConfigBuilder
     {
         return (UserAuthenticator) getParam(opts, "userAuthenticator");
     }
+    
+    /**
+     * Sets the maximum number of threads each file-system uses for background
+     * S3 requests.
+     * @param opts The FileSystemOptions.
+     * @param threads The maximum number of worker threads.
+     */
+    public void setWorkerThreads(FileSystemOptions opts, int threads)
+    {
+        setParam(opts, "workerThreads", threads);
+    }
+    
+    /**
+     * @see #setWorkerThreads
+     * @param opts The FileSystemOptions.
+     * @return The maximum number of worker threads.
+     */
+    public int getWorkerThreads(FileSystemOptions opts)
+    {
+        return getInteger(opts, "workerThreads", DEFAULT_WORKER_THREADS);
+    }
+    
+    /**
+     * Sets whether content written through an OutputStream is sent as a 
+     * multipart upload, buffering one part at a time in memory, instead of 
+     * being spooled to a temporary file first.
+     * @param opts The FileSystemOptions.
+     * @param multipart true to use multipart uploads.
+     */
+    public void setMultipartUpload(FileSystemOptions opts, boolean multipart)
+    {
+        setParam(opts, "multipartUpload", multipart);
+    }
+    
+    /**
+     * @see #setMultipartUpload
+     * @param opts The FileSystemOptions.
+     * @return true if multipart uploads are used.
+     */
+    public boolean getMultipartUpload(FileSystemOptions opts)
+    {
+        return getBoolean(opts, "multipartUpload", false);
+    }
+    
+    /**
+     * Sets the size of each part of a multipart upload.  Values below Amazon S3's
+     * minimum of 5 MiB are raised to the minimum.
+     * @param opts The FileSystemOptions.
+     * @param size The part size in bytes.
+     */
+    public void setUploadPartSize(FileSystemOptions opts, long size)
+    {
+        setParam(opts, "uploadPartSize", size);
+    }
+    
+    /**
+     * @see #setUploadPartSize
+     * @param opts The FileSystemOptions.
+     * @return The part size in bytes.
+     */
+    public long getUploadPartSize(FileSystemOptions opts)
+    {
+        return getLong(opts, "uploadPartSize", DEFAULT_UPLOAD_PART_SIZE);
+    }
+    
+    /**
+     * Sets the number of parts of a single multipart upload that may be 
+     * uploading at the same time.
+     * @param opts The FileSystemOptions.
+     * @param threads The maximum number of parts in flight.
+     */
+    public void setUploadThreads(FileSystemOptions opts, int threads)
+    {
+        setParam(opts, "uploadThreads", threads);
+    }
+    
+    /**
+     * @see #setUploadThreads
+     * @param opts The FileSystemOptions.
+     * @return The maximum number of parts in flight.
+     */
+    public int getUploadThreads(FileSystemOptions opts)
+    {
+        return getInteger(opts, "uploadThreads", DEFAULT_UPLOAD_THREADS);
+    }
+    
+    /**
+     * Sets the largest content size that is buffered in memory before being 
+     * uploaded.  Larger content is buffered in a temporary file instead.  Not
+     * used with multipart uploads, which only ever buffer one part.
+     * @param opts The FileSystemOptions.
+     * @param threshold The threshold in bytes.
+     */
+    public void setMemoryThreshold(FileSystemOptions opts, long threshold)
+    {
+        setParam(opts, "memoryThreshold", threshold);
+    }
+    
+    /**
+     * @see #setMemoryThreshold
+     * @param opts The FileSystemOptions.
+     * @return The threshold in bytes.
+     */
+    public long getMemoryThreshold(FileSystemOptions opts)
+    {
+        return getLong(opts, "memoryThreshold", DEFAULT_MEMORY_THRESHOLD);
+    }
+    
+    /**
+     * Sets how much idle buffer memory each file-system keeps for reuse by 
+     * later uploads.
+     * @param opts The FileSystemOptions.
+     * @param size The pool size in bytes.
+     */
+    public void setBufferPoolSize(FileSystemOptions opts, long size)
+    {
+        setParam(opts, "bufferPoolSize", size);
+    }
+    
+    /**
+     * @see #setBufferPoolSize
+     * @param opts The FileSystemOptions.
+     * @return The pool size in bytes.
+     */
+    public long getBufferPoolSize(FileSystemOptions opts)
+    {
+        return getLong(opts, "bufferPoolSize", DEFAULT_BUFFER_POOL_SIZE);
+    }
+    
+    /**
+     * Sets the size of each ranged request made by random access content.  
+     * A read of any byte fetches the whole aligned block it falls in.
+     * @param opts The FileSystemOptions.
+     * @param size The block size in bytes.
+     */
+    public void setReadAheadSize(FileSystemOptions opts, int size)
+    {
+        setParam(opts, "readAheadSize", size);
+    }
+    
+    /**
+     * @see #setReadAheadSize
+     * @param opts The FileSystemOptions.
+     * @return The block size in bytes.
+     */
+    public int getReadAheadSize(FileSystemOptions opts)
+    {
+        return getInteger(opts, "readAheadSize", DEFAULT_READ_AHEAD_SIZE);
+    }
+    
+    /**
+     * Sets the number of recently read blocks each random access content keeps
+     * in memory.
+     * @param opts The FileSystemOptions.
+     * @param blocks The number of cached blocks.
+     */
+    public void setBlockCacheSize(FileSystemOptions opts, int blocks)
+    {
+        setParam(opts, "blockCacheSize", blocks);
+    }
+    
+    /**
+     * @see #setBlockCacheSize
+     * @param opts The FileSystemOptions.
+     * @return The number of cached blocks.
+     */
+    public int getBlockCacheSize(FileSystemOptions opts)
+    {
+        return getInteger(opts, "blockCacheSize", DEFAULT_BLOCK_CACHE_SIZE);
+    }
+    
+    /**
+     * Sets the number of byte ranges of a single object fetched concurrently
+     * when its content is read.  A value of 1, the default, reads every object
+     * with a single GET.
+     * @param opts The FileSystemOptions.
+     * @param threads The maximum number of ranges in flight.
+     */
+    public void setDownloadThreads(FileSystemOptions opts, int threads)
+    {
+        setParam(opts, "downloadThreads", threads);
+    }
+    
+    /**
+     * @see #setDownloadThreads
+     * @param opts The FileSystemOptions.
+     * @return The maximum number of ranges in flight.
+     */
+    public int getDownloadThreads(FileSystemOptions opts)
+    {
+        return getInteger(opts, "downloadThreads", DEFAULT_DOWNLOAD_THREADS);
+    }
+    
+    /**
+     * Sets the size of each range of a parallel download.
+     * @param opts The FileSystemOptions.
+     * @param size The range size in bytes.
+     * @throws IllegalArgumentException if the size isn't positive
+     */
+    public void setDownloadPartSize(FileSystemOptions opts, long size)
+    {
+        if( size <= 0 )
+        {
+            throw new IllegalArgumentException(
+                    String.format("Download part size must be positive, not %d", size));
+        }
+        
+        setParam(opts, "downloadPartSize", size);
+    }
+    
+    /**
+     * @see #setDownloadPartSize
+     * @param opts The FileSystemOptions.
+     * @return The range size in bytes.
+     */
+    public long getDownloadPartSize(FileSystemOptions opts)
+    {
+        return getLong(opts, "downloadPartSize", DEFAULT_DOWNLOAD_PART_SIZE);
+    }
+    
+    /**
+     * Sets the smallest object size read with a parallel download.  Smaller
+     * objects are read with a single GET.
+     * @param opts The FileSystemOptions.
+     * @param threshold The threshold in bytes.
+     */
+    public void setParallelDownloadThreshold(FileSystemOptions opts, long threshold)
+    {
+        setParam(opts, "parallelDownloadThreshold", threshold);
+    }
+    
+    /**
+     * @see #setParallelDownloadThreshold
+     * @param opts The FileSystemOptions.
+     * @return The threshold in bytes.
+     */
+    public long getParallelDownloadThreshold(FileSystemOptions opts)
+    {
+        return getLong(opts, "parallelDownloadThreshold", DEFAULT_PARALLEL_DOWNLOAD_THRESHOLD);
+    }
+    
+    /**
+     * Sets the size of each part of a server-side multipart copy.
+     * @param opts The FileSystemOptions.
+     * @param size The part size in bytes.
+     */
+    public void setCopyPartSize(FileSystemOptions opts, long size)
+    {
+        setParam(opts, "copyPartSize", size);
+    }
+    
+    /**
+     * @see #setCopyPartSize
+     * @param opts The FileSystemOptions.
+     * @return The part size in bytes.
+     */
+    public long getCopyPartSize(FileSystemOptions opts)
+    {
+        return getLong(opts, "copyPartSize", DEFAULT_COPY_PART_SIZE);
+    }
+    
+    /**
+     * Sets the smallest object size copied server-side as a multipart copy.  
+     * Smaller objects are copied with a single request.  Amazon S3 does not
+     * allow single request copies of objects over 5 GiB.
+     * @param opts The FileSystemOptions.
+     * @param threshold The threshold in bytes.
+     */
+    public void setMultipartCopyThreshold(FileSystemOptions opts, long threshold)
+    {
+        setParam(opts, "multipartCopyThreshold", threshold);
+    }
+    
+    /**
+     * @see #setMultipartCopyThreshold
+     * @param opts The FileSystemOptions.
+     * @return The threshold in bytes.
+     */
+    public long getMultipartCopyThreshold(FileSystemOptions opts)
+    {
+        return getLong(opts, "multipartCopyThreshold", DEFAULT_MULTIPART_COPY_THRESHOLD);
+    }
+    
+    /**
+     * Sets the number of multi-object delete requests, of up to 1000 keys 
+     * each, that may run at the same time when deleting a folder tree.
+     * @param opts The FileSystemOptions.
+     * @param threads The maximum number of delete requests in flight.
+     */
+    public void setDeleteThreads(FileSystemOptions opts, int threads)
+    {
+        setParam(opts, "deleteThreads", threads);
+    }
+    
+    /**
+     * @see #setDeleteThreads
+     * @param opts The FileSystemOptions.
+     * @return The maximum number of delete requests in flight.
+     */
+    public int getDeleteThreads(FileSystemOptions opts)
+    {
+        return getInteger(opts, "deleteThreads", DEFAULT_DELETE_THREADS);
+    }
+    
+    /**
+     * Sets the maximum number of open HTTP connections of the file-system's
+     * Amazon S3 client.  The client's default is 50.
+     * @param opts The FileSystemOptions.
+     * @param connections The maximum number of connections.
+     */
+    public void setMaxConnections(FileSystemOptions opts, int connections)
+    {
+        setParam(opts, "maxConnections", connections);
+    }
+    
+    /**
+     * @see #setMaxConnections
+     * @param opts The FileSystemOptions.
+     * @return The maximum number of connections, or null for the client default.
+     */
+    public Integer getMaxConnections(FileSystemOptions opts)
+    {
+        return getInteger(opts, "maxConnections", (Integer)null);
+    }
+    
+    /**
+     * Sets how long to wait for data on an open connection before giving up.
+     * @param opts The FileSystemOptions.
+     * @param timeout The socket timeout in milliseconds.
+     */
+    public void setSocketTimeout(FileSystemOptions opts, int timeout)
+    {
+        setParam(opts, "socketTimeout", timeout);
+    }
+    
+    /**
+     * @see #setSocketTimeout
+     * @param opts The FileSystemOptions.
+     * @return The socket timeout in milliseconds, or null for the client default.
+     */
+    public Integer getSocketTimeout(FileSystemOptions opts)
+    {
+        return getInteger(opts, "socketTimeout", (Integer)null);
+    }
+    
+    /**
+     * Sets how long to wait for a new connection to be established.
+     * @param opts The FileSystemOptions.
+     * @param timeout The connection timeout in milliseconds.
+     */
+    public void setConnectionTimeout(FileSystemOptions opts, int timeout)
+    {
+        setParam(opts, "connectionTimeout", timeout);
+    }
+    
+    /**
+     * @see #setConnectionTimeout
+     * @param opts The FileSystemOptions.
+     * @return The connection timeout in milliseconds, or null for the client default.
+     */
+    public Integer getConnectionTimeout(FileSystemOptions opts)
+    {
+        return getInteger(opts, "connectionTimeout", (Integer)null);
+    }
+    
+    /**
+     * Sets how long a pooled connection may be reused before it's closed.
+     * @param opts The FileSystemOptions.
+     * @param ttl The connection time-to-live in milliseconds.
+     */
+    public void setConnectionTTL(FileSystemOptions opts, long ttl)
+    {
+        setParam(opts, "connectionTTL", ttl);
+    }
+    
+    /**
+     * @see #setConnectionTTL
+     * @param opts The FileSystemOptions.
+     * @return The connection time-to-live in milliseconds, or null for the client default.
+     */
+    public Long getConnectionTTL(FileSystemOptions opts)
+    {
+        return getLong(opts, "connectionTTL", (Long)null);
+    }
+    
+    /**
+     * Sets whether TCP keep-alive is enabled on the client's connections.
+     * @param opts The FileSystemOptions.
+     * @param keepAlive true to enable TCP keep-alive.
+     */
+    public void setTcpKeepAlive(FileSystemOptions opts, boolean keepAlive)
+    {
+        setParam(opts, "tcpKeepAlive", keepAlive);
+    }
+    
+    /**
+     * @see #setTcpKeepAlive
+     * @param opts The FileSystemOptions.
+     * @return true if TCP keep-alive is enabled, or null for the client default.
+     */
+    public Boolean getTcpKeepAlive(FileSystemOptions opts)
+    {
+        return getBoolean(opts, "tcpKeepAlive", (Boolean)null);
+    }
+    
+    /**
+     * Sets the maximum number of times the client retries a failed request.
+     * @param opts The FileSystemOptions.
+     * @param retries The maximum number of retries.
+     */
+    public void setMaxErrorRetry(FileSystemOptions opts, int retries)
+    {
+        setParam(opts, "maxErrorRetry", retries);
+    }
+    
+    /**
+     * @see #setMaxErrorRetry
+     * @param opts The FileSystemOptions.
+     * @return The maximum number of retries, or null for the client default.
+     */
+    public Integer getMaxErrorRetry(FileSystemOptions opts)
+    {
+        return getInteger(opts, "maxErrorRetry", (Integer)null);
+    }
+    
+    /**
+     * Sets the retry policy of the file-system's Amazon S3 client.
+     * @param opts The FileSystemOptions.
+     * @param policy The retry policy.
+     */
+    public void setRetryPolicy(FileSystemOptions opts, RetryPolicy policy)
+    {
+        setParam(opts, "retryPolicy", policy);
+    }
+    
+    /**
+     * @see #setRetryPolicy
+     * @param opts The FileSystemOptions.
+     * @return The retry policy, or null for the client default.
+     */
+    public RetryPolicy getRetryPolicy(FileSystemOptions opts)
+    {
+        return (RetryPolicy) getParam(opts, "retryPolicy");
+    }
+    
+    /**
+     * Sets whether buckets are addressed in the request path instead of the
+     * host name.  Needed by most S3 compatible services and local endpoints.
+     * @param opts The FileSystemOptions.
+     * @param pathStyle true to use path-style access.
+     */
+    public void setPathStyleAccess(FileSystemOptions opts, boolean pathStyle)
+    {
+        setParam(opts, "pathStyleAccess", pathStyle);
+    }
+    
+    /**
+     * @see #setPathStyleAccess
+     * @param opts The FileSystemOptions.
+     * @return true if path-style access is used.
+     */
+    public boolean getPathStyleAccess(FileSystemOptions opts)
+    {
+        return getBoolean(opts, "pathStyleAccess", false);
+    }
+    
+    /**
+     * Sets whether attaching a path checks for a folder at the same time as
+     * the HEAD request.  A missing path then costs one round-trip instead of
+     * two, but every existing file costs a listing as well.  Off by default.
+     * @param opts The FileSystemOptions.
+     * @param overlap true to start the folder check alongside the HEAD.
+     */
+    public void setOverlapFolderProbe(FileSystemOptions opts, boolean overlap)
+    {
+        setParam(opts, "overlapFolderProbe", overlap);
+    }
+    
+    /**
+     * @see #setOverlapFolderProbe
+     * @param opts The FileSystemOptions.
+     * @return true if the folder check overlaps the HEAD.
+     */
+    public boolean getOverlapFolderProbe(FileSystemOptions opts)
+    {
+        return getBoolean(opts, "overlapFolderProbe", false);
+    }
+    
+    /**
+     * Sets the most paths whose type, length, last-modified time and ETag are
+     * cached by the file-system.
+     * @param opts The FileSystemOptions.
+     * @param entries The maximum number of cached paths.
+     */
+    public void setMetadataCacheSize(FileSystemOptions opts, int entries)
+    {
+        setParam(opts, "metadataCacheSize", entries);
+    }
+    
+    /**
+     * @see #setMetadataCacheSize
+     * @param opts The FileSystemOptions.
+     * @return The maximum number of cached paths.
+     */
+    public int getMetadataCacheSize(FileSystemOptions opts)
+    {
+        return getInteger(opts, "metadataCacheSize", DEFAULT_METADATA_CACHE_SIZE);
+    }
+    
+    /**
+     * Sets how long cached path metadata is used before it is requested again.
+     * Changes made by other clients may go unnoticed for this long.  The 
+     * default of 0 disables the cache.
+     * @param opts The FileSystemOptions.
+     * @param ttl The time-to-live in milliseconds.
+     */
+    public void setMetadataCacheTtl(FileSystemOptions opts, long ttl)
+    {
+        setParam(opts, "metadataCacheTtl", ttl);
+    }
+    
+    /**
+     * @see #setMetadataCacheTtl
+     * @param opts The FileSystemOptions.
+     * @return The time-to-live in milliseconds.
+     */
+    public long getMetadataCacheTtl(FileSystemOptions opts)
+    {
+        return getLong(opts, "metadataCacheTtl", DEFAULT_METADATA_CACHE_TTL);
+    }
+    
+    /**
+     * Sets a local directory for keeping copies of downloaded objects.  Objects
+     * read again are served from the directory once S3 confirms they have not
+     * changed.  The directory may be shared by several file-systems, and is 
+     * kept between runs.  No local cache is used unless this is set.
+     * @param opts The FileSystemOptions.
+     * @param dir The cache directory.
+     */
+    public void setLocalCacheDir(FileSystemOptions opts, File dir)
+    {
+        setParam(opts, "localCacheDir", dir);
+    }
+    
+    /**
+     * @see #setLocalCacheDir
+     * @param opts The FileSystemOptions.
+     * @return The cache directory, or null if there's no local cache.
+     */
+    public File getLocalCacheDir(FileSystemOptions opts)
+    {
+        return (File) getParam(opts, "localCacheDir");
+    }
+    
+    /**
+     * Sets the most bytes kept in the local cache directory.  The least 
+     * recently read objects are deleted beyond this.  Larger objects are 
+     * never cached.
+     * @param opts The FileSystemOptions.
+     * @param size The cache size in bytes.
+     */
+    public void setLocalCacheSize(FileSystemOptions opts, long size)
+    {
+        setParam(opts, "localCacheSize", size);
+    }
+    
+    /**
+     * @see #setLocalCacheSize
+     * @param opts The FileSystemOptions.
+     * @return The cache size in bytes.
+     */
+    public long getLocalCacheSize(FileSystemOptions opts)
+    {
+        return getLong(opts, "localCacheSize", DEFAULT_LOCAL_CACHE_SIZE);
+    }
+    
+    /**
+     * Sets the executor that runs the operations of {@link SS3AsyncFileObject}.
+     * The executor is not shut down with the file-system.  By default a 
+     * virtual thread per operation is used where the JVM supports them, and 
+     * otherwise a pool of {@link #setAsyncThreads} threads.
+     * @param opts The FileSystemOptions.
+     * @param executor The executor for asynchronous operations.
+     */
+    public void setAsyncExecutor(FileSystemOptions opts, ExecutorService executor)
+    {
+        setParam(opts, "asyncExecutor", executor);
+    }
+    
+    /**
+     * @see #setAsyncExecutor
+     * @param opts The FileSystemOptions.
+     * @return The executor for asynchronous operations, or null for the default.
+     */
+    public ExecutorService getAsyncExecutor(FileSystemOptions opts)
+    {
+        return (ExecutorService) getParam(opts, "asyncExecutor");
+    }
+    
+    /**
+     * Sets the number of threads running asynchronous operations when neither 
+     * an executor is set nor virtual threads are available.  Further 
+     * operations wait for a free thread.
+     * @param opts The FileSystemOptions.
+     * @param threads The number of threads.
+     */
+    public void setAsyncThreads(FileSystemOptions opts, int threads)
+    {
+        setParam(opts, "asyncThreads", threads);
+    }
+    
+    /**
+     * @see #setAsyncThreads
+     * @param opts The FileSystemOptions.
+     * @return The number of threads.
+     */
+    public int getAsyncThreads(FileSystemOptions opts)
+    {
+        return getInteger(opts, "asyncThreads", DEFAULT_ASYNC_THREADS);
+    }
+    
+    /**
+     * Sets the number of files transferred at one time by bulk uploads and 
+     * downloads.
+     * @param opts The FileSystemOptions.
+     * @param threads The number of concurrent file transfers.
+     */
+    public void setTransferThreads(FileSystemOptions opts, int threads)
+    {
+        setParam(opts, "transferThreads", threads);
+    }
+    
+    /**
+     * @see #setTransferThreads
+     * @param opts The FileSystemOptions.
+     * @return The number of concurrent file transfers.
+     */
+    public int getTransferThreads(FileSystemOptions opts)
+    {
+        return getInteger(opts, "transferThreads", DEFAULT_TRANSFER_THREADS);
+    }
+    
+    /**
+     * Sets the size from which bulk uploads send a file as a multipart upload
+     * of {@link #setUploadPartSize} parts, instead of a single request.
+     * @param opts The FileSystemOptions.
+     * @param size The threshold in bytes.
+     */
+    public void setMultipartUploadThreshold(FileSystemOptions opts, long size)
+    {
+        setParam(opts, "multipartUploadThreshold", size);
+    }
+    
+    /**
+     * @see #setMultipartUploadThreshold
+     * @param opts The FileSystemOptions.
+     * @return The threshold in bytes.
+     */
+    public long getMultipartUploadThreshold(FileSystemOptions opts)
+    {
+        return getLong(opts, "multipartUploadThreshold", DEFAULT_MULTIPART_UPLOAD_THRESHOLD);
+    }
+    
+    /**
+     * Sets whether the file-system's request metrics are registered as a JMX 
+     * MBean.  The metrics are recorded either way.
+     * @param opts The FileSystemOptions.
+     * @param enabled true to register the MBean.
+     * @see SS3FileSystem#getMetrics
+     */
+    public void setMetricsMBeanEnabled(FileSystemOptions opts, boolean enabled)
+    {
+        setParam(opts, "metricsMBeanEnabled", enabled);
+    }
+    
+    /**
+     * @see #setMetricsMBeanEnabled
+     * @param opts The FileSystemOptions.
+     * @return true if the MBean is registered.
+     */
+    public boolean getMetricsMBeanEnabled(FileSystemOptions opts)
+    {
+        return getBoolean(opts, "metricsMBeanEnabled", false);
+    }
+    
+    /**
+     * Sets the duration from which S3 requests are logged as slow, as warnings
+     * from {@link SS3SlowRequestLogger}.  Requests aren't logged if not set.
+     * @param opts The FileSystemOptions.
+     * @param millis The threshold in milliseconds.
+     */
+    public void setSlowRequestThreshold(FileSystemOptions opts, long millis)
+    {
+        setParam(opts, "slowRequestThreshold", millis);
+    }
+    
+    /**
+     * @see #setSlowRequestThreshold
+     * @param opts The FileSystemOptions.
+     * @return The threshold in milliseconds, or null if not set.
+     */
+    public Long getSlowRequestThreshold(FileSystemOptions opts)
+    {
+        return getLong(opts, "slowRequestThreshold", (Long)null);
+    }
+    
+    /**
+     * Sets the number of times a HEAD, GET or list answered with 
+     * '503 SlowDown' is retried, with exponential backoff.  When enabled, the
+     * client's retry policy no longer retries these, so a throttled read is 
+     * sent at most retries + 1 times.  None by default.
+     * @param opts The FileSystemOptions.
+     * @param retries The maximum number of retries.
+     */
+    public void setThrottleRetries(FileSystemOptions opts, int retries)
+    {
+        setParam(opts, "throttleRetries", retries);
+    }
+    
+    /**
+     * @see #setThrottleRetries
+     * @param opts The FileSystemOptions.
+     * @return The maximum number of retries.
+     */
+    public int getThrottleRetries(FileSystemOptions opts)
+    {
+        return getInteger(opts, "throttleRetries", DEFAULT_THROTTLE_RETRIES);
+    }
+    
+    /**
+     * Sets the delay before the first retry of a throttled request.  Each
+     * further retry waits about twice as long.
+     * @param opts The FileSystemOptions.
+     * @param millis The base delay in milliseconds.
+     */
+    public void setThrottleBackoff(FileSystemOptions opts, long millis)
+    {
+        setParam(opts, "throttleBackoff", millis);
+    }
+    
+    /**
+     * @see #setThrottleBackoff
+     * @param opts The FileSystemOptions.
+     * @return The base delay in milliseconds.
+     */
+    public long getThrottleBackoff(FileSystemOptions opts)
+    {
+        return getLong(opts, "throttleBackoff", DEFAULT_THROTTLE_BACKOFF);
+    }
+    
+    /**
+     * Enables hedging of HEAD, ranged GET and list requests.  A request still
+     * unanswered after this percentile of the latencies of recent requests 
+     * of the same kind is sent again, and the first response is used.  
+     * Hedging is disabled if not set.
+     * @param opts The FileSystemOptions.
+     * @param percentile The latency percentile, e.g. 95.
+     * @see #setHedgeDelay
+     * @see #setHedgeThreads
+     */
+    public void setHedgePercentile(FileSystemOptions opts, double percentile)
+    {
+        setParam(opts, "hedgePercentile", percentile);
+    }
+    
+    /**
+     * @see #setHedgePercentile
+     * @param opts The FileSystemOptions.
+     * @return The latency percentile, or null if hedging is disabled.
+     */
+    public Double getHedgePercentile(FileSystemOptions opts)
+    {
+        return getDouble(opts, "hedgePercentile", (Double)null);
+    }
+    
+    /**
+     * Sets the least time a request waits before it's hedged.  Also used 
+     * until enough latencies have been recorded.
+     * @param opts The FileSystemOptions.
+     * @param millis The delay in milliseconds.
+     */
+    public void setHedgeDelay(FileSystemOptions opts, long millis)
+    {
+        setParam(opts, "hedgeDelay", millis);
+    }
+    
+    /**
+     * @see #setHedgeDelay
+     * @param opts The FileSystemOptions.
+     * @return The delay in milliseconds.
+     */
+    public long getHedgeDelay(FileSystemOptions opts)
+    {
+        return getLong(opts, "hedgeDelay", DEFAULT_HEDGE_DELAY);
+    }
+    
+    /**
+     * Sets the maximum number of threads each file-system uses for requests
+     * that may be hedged.  When all are busy, requests run on the caller's
+     * thread and aren't hedged.
+     * @param opts The FileSystemOptions.
+     * @param threads The maximum number of hedge threads.
+     */
+    public void setHedgeThreads(FileSystemOptions opts, int threads)
+    {
+        setParam(opts, "hedgeThreads", threads);
+    }
+    
+    /**
+     * @see #setHedgeThreads
+     * @param opts The FileSystemOptions.
+     * @return The maximum number of hedge threads.
+     */
+    public int getHedgeThreads(FileSystemOptions opts)
+    {
+        return getInteger(opts, "hedgeThreads", DEFAULT_HEDGE_THREADS);
+    }
 }
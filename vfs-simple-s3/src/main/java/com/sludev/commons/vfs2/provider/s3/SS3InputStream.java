@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+
+/**
+ * Wraps the content stream of a single S3 GET request.
+ * 
+ * The underlying HTTP connection is handed back to the client's pool when
+ * this stream is closed.  If the content has not been fully read by then, a
+ * small remainder is drained so the connection can be reused, otherwise the
+ * request is aborted rather than downloading the rest of the object.
+ * 
+ * @author kervin
+ */
+public final class SS3InputStream extends FilterInputStream
+{
+    /**
+     * Unread content up to this many bytes is drained on close instead of 
+     * aborting the connection.
+     */
+    private static final long MAX_DRAIN_BYTES = 64 * 1024;
+    
+    private final S3Object object;
+    private final long contentLength;
+    private long bytesRead;
+    private boolean closed;
+
+    public SS3InputStream(S3Object obj)
+    {
+        super(obj.getObjectContent());
+        
+        object = obj;
+        contentLength = obj.getObjectMetadata().getContentLength();
+        bytesRead = 0;
+        closed = false;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        int res = super.read();
+        if( res >= 0 )
+        {
+            bytesRead++;
+        }
+        
+        return res;
+    }
+
+    @Override
+    public int read(byte[] bytes, int off, int len) throws IOException
+    {
+        int res = super.read(bytes, off, len);
+        if( res > 0 )
+        {
+            bytesRead += res;
+        }
+        
+        return res;
+    }
+
+    @Override
+    public long skip(long n) throws IOException
+    {
+        long res = super.skip(n);
+        if( res > 0 )
+        {
+            bytesRead += res;
+        }
+        
+        return res;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if( closed )
+        {
+            return;
+        }
+        
+        closed = true;
+        
+        long remaining = contentLength - bytesRead;
+        if( remaining > MAX_DRAIN_BYTES )
+        {
+            // Closing normally would read the rest of the response body
+            ((S3ObjectInputStream)in).abort();
+        }
+        
+        object.close();
+    }
+}
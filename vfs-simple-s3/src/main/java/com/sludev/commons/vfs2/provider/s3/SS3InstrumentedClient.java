@@ -0,0 +1,487 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.DeleteObjectRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Wraps a client so every S3 request made through it is recorded in a 
+ * file-system's metrics and passed to its request listeners.
+ * 
+ * Clients are shared between file-systems, so requests are recorded by the 
+ * wrapper each file-system hands out rather than by the client itself.
+ * Methods that don't make a request, e.g. configuring the client, are passed
+ * straight through.
+ * 
+ * @author kervin
+ */
+final class SS3InstrumentedClient implements InvocationHandler
+{
+    private static final Logger log = LoggerFactory.getLogger(SS3InstrumentedClient.class);
+    
+    private final AmazonS3 client;
+    private final SS3Metrics metrics;
+    private final List<SS3RequestListener> listeners;
+
+    private SS3InstrumentedClient(AmazonS3 client, SS3Metrics metrics, 
+                                  List<SS3RequestListener> listeners)
+    {
+        this.client = client;
+        this.metrics = metrics;
+        this.listeners = listeners;
+    }
+    
+    /**
+     * Creates a client recording into the given metrics.
+     * 
+     * @param client The client making the requests
+     * @param metrics Where requests are recorded
+     * @param listeners Told about each request.  Read on every request, so 
+     *                  listeners can be added later.
+     * @return 
+     */
+    static AmazonS3 wrap(AmazonS3 client, SS3Metrics metrics, List<SS3RequestListener> listeners)
+    {
+        return (AmazonS3)Proxy.newProxyInstance(AmazonS3.class.getClassLoader(), 
+                new Class<?>[] { AmazonS3.class }, 
+                new SS3InstrumentedClient(client, metrics, listeners));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+    {
+        SS3Operation op = getOperation(method);
+        if( op == null )
+        {
+            return invokeClient(method, args);
+        }
+        
+        // Events are only built when someone is listening
+        boolean notify = listeners.isEmpty() == false;
+        String bucket = null;
+        String key = null;
+        
+        if( notify )
+        {
+            bucket = getBucket(args);
+            key = getKey(args);
+            
+            fireStarted(new SS3RequestEvent(op, bucket, key, getBytes(op, args, null), 
+                    SS3RequestEvent.STATUS_NONE, 0, null));
+        }
+        
+        long start = System.nanoTime();
+        Throwable failure = null;
+        Object res = null;
+        
+        try
+        {
+            res = invokeClient(method, args);
+            
+            return res;
+        }
+        catch (Throwable ex)
+        {
+            failure = ex;
+            
+            throw ex;
+        }
+        finally
+        {
+            long nanos = System.nanoTime() - start;
+            long bytes = getBytes(op, args, res);
+            
+            metrics.record(op, nanos, bytes, failure != null && isNotFound(op, failure) == false);
+            
+            if( notify )
+            {
+                fireFinished(new SS3RequestEvent(op, bucket, key, bytes, 
+                        getStatus(failure), nanos, failure));
+            }
+        }
+    }
+    
+    private void fireStarted(SS3RequestEvent event)
+    {
+        for( SS3RequestListener listener : listeners )
+        {
+            try
+            {
+                listener.requestStarted(event);
+            }
+            catch (RuntimeException ex)
+            {
+                log.warn( String.format("Request listener failed on %s", event), ex);
+            }
+        }
+    }
+    
+    private void fireFinished(SS3RequestEvent event)
+    {
+        for( SS3RequestListener listener : listeners )
+        {
+            try
+            {
+                listener.requestFinished(event);
+            }
+            catch (RuntimeException ex)
+            {
+                log.warn( String.format("Request listener failed on %s", event), ex);
+            }
+        }
+    }
+    
+    /**
+     * A HEAD answered with 404 is how a missing path is found, so it's counted
+     * as a successful request rather than an error.
+     */
+    private static boolean isNotFound(SS3Operation op, Throwable failure)
+    {
+        return op == SS3Operation.HEAD_OBJECT && failure instanceof AmazonServiceException
+                && ((AmazonServiceException)failure).getStatusCode() == 404;
+    }
+    
+    private static int getStatus(Throwable failure)
+    {
+        if( failure == null )
+        {
+            return SS3RequestEvent.STATUS_NO_ERROR;
+        }
+        
+        if( failure instanceof AmazonServiceException )
+        {
+            return ((AmazonServiceException)failure).getStatusCode();
+        }
+        
+        return SS3RequestEvent.STATUS_NONE;
+    }
+    
+    /**
+     * The bucket named by a request's arguments.  Methods taking plain strings
+     * always take the bucket first.
+     * 
+     * @return The bucket, or null if there's none
+     */
+    private static String getBucket(Object[] args)
+    {
+        if( args == null || args.length == 0 )
+        {
+            return null;
+        }
+        
+        Object arg = args[0];
+        
+        if( arg instanceof String )
+        {
+            return (String)arg;
+        }
+        else if( arg instanceof GetObjectRequest )
+        {
+            return ((GetObjectRequest)arg).getBucketName();
+        }
+        else if( arg instanceof GetObjectMetadataRequest )
+        {
+            return ((GetObjectMetadataRequest)arg).getBucketName();
+        }
+        else if( arg instanceof PutObjectRequest )
+        {
+            return ((PutObjectRequest)arg).getBucketName();
+        }
+        else if( arg instanceof CopyObjectRequest )
+        {
+            return ((CopyObjectRequest)arg).getDestinationBucketName();
+        }
+        else if( arg instanceof DeleteObjectRequest )
+        {
+            return ((DeleteObjectRequest)arg).getBucketName();
+        }
+        else if( arg instanceof DeleteObjectsRequest )
+        {
+            return ((DeleteObjectsRequest)arg).getBucketName();
+        }
+        else if( arg instanceof ListObjectsRequest )
+        {
+            return ((ListObjectsRequest)arg).getBucketName();
+        }
+        else if( arg instanceof ObjectListing )
+        {
+            return ((ObjectListing)arg).getBucketName();
+        }
+        else if( arg instanceof InitiateMultipartUploadRequest )
+        {
+            return ((InitiateMultipartUploadRequest)arg).getBucketName();
+        }
+        else if( arg instanceof UploadPartRequest )
+        {
+            return ((UploadPartRequest)arg).getBucketName();
+        }
+        else if( arg instanceof CopyPartRequest )
+        {
+            return ((CopyPartRequest)arg).getDestinationBucketName();
+        }
+        else if( arg instanceof CompleteMultipartUploadRequest )
+        {
+            return ((CompleteMultipartUploadRequest)arg).getBucketName();
+        }
+        else if( arg instanceof AbortMultipartUploadRequest )
+        {
+            return ((AbortMultipartUploadRequest)arg).getBucketName();
+        }
+        
+        return null;
+    }
+    
+    /**
+     * The key named by a request's arguments, or the prefix of a listing.
+     * Methods taking plain strings take the bucket, then the key.  A copy's 
+     * key is its destination.
+     * 
+     * @return The key, or null if there's none
+     */
+    private static String getKey(Object[] args)
+    {
+        if( args == null || args.length == 0 )
+        {
+            return null;
+        }
+        
+        Object arg = args[0];
+        
+        if( arg instanceof String )
+        {
+            if( args.length > 3 && args[3] instanceof String )
+            {
+                // copyObject(srcBucket, srcKey, destBucket, destKey)
+                return (String)args[3];
+            }
+            
+            return args.length > 1 && args[1] instanceof String ? (String)args[1] : null;
+        }
+        else if( arg instanceof GetObjectRequest )
+        {
+            return ((GetObjectRequest)arg).getKey();
+        }
+        else if( arg instanceof GetObjectMetadataRequest )
+        {
+            return ((GetObjectMetadataRequest)arg).getKey();
+        }
+        else if( arg instanceof PutObjectRequest )
+        {
+            return ((PutObjectRequest)arg).getKey();
+        }
+        else if( arg instanceof CopyObjectRequest )
+        {
+            return ((CopyObjectRequest)arg).getDestinationKey();
+        }
+        else if( arg instanceof DeleteObjectRequest )
+        {
+            return ((DeleteObjectRequest)arg).getKey();
+        }
+        else if( arg instanceof ListObjectsRequest )
+        {
+            return ((ListObjectsRequest)arg).getPrefix();
+        }
+        else if( arg instanceof ObjectListing )
+        {
+            return ((ObjectListing)arg).getPrefix();
+        }
+        else if( arg instanceof InitiateMultipartUploadRequest )
+        {
+            return ((InitiateMultipartUploadRequest)arg).getKey();
+        }
+        else if( arg instanceof UploadPartRequest )
+        {
+            return ((UploadPartRequest)arg).getKey();
+        }
+        else if( arg instanceof CopyPartRequest )
+        {
+            return ((CopyPartRequest)arg).getDestinationKey();
+        }
+        else if( arg instanceof CompleteMultipartUploadRequest )
+        {
+            return ((CompleteMultipartUploadRequest)arg).getKey();
+        }
+        else if( arg instanceof AbortMultipartUploadRequest )
+        {
+            return ((AbortMultipartUploadRequest)arg).getKey();
+        }
+        
+        return null;
+    }
+    
+    private Object invokeClient(Method method, Object[] args) throws Throwable
+    {
+        try
+        {
+            return method.invoke(client, args);
+        }
+        catch (InvocationTargetException ex)
+        {
+            throw ex.getCause();
+        }
+    }
+    
+    /**
+     * Maps a client method to the request it makes.
+     * 
+     * @param method
+     * @return The operation, or null if the method makes no request
+     */
+    private static SS3Operation getOperation(Method method)
+    {
+        if( method.getDeclaringClass() == Object.class )
+        {
+            return null;
+        }
+        
+        switch( method.getName() )
+        {
+            case "getObjectMetadata":
+                return SS3Operation.HEAD_OBJECT;
+                
+            case "getObject":
+                return SS3Operation.GET_OBJECT;
+                
+            case "putObject":
+                return SS3Operation.PUT_OBJECT;
+                
+            case "copyObject":
+                return SS3Operation.COPY_OBJECT;
+                
+            case "deleteObject":
+                return SS3Operation.DELETE_OBJECT;
+                
+            case "deleteObjects":
+                return SS3Operation.DELETE_OBJECTS;
+                
+            case "listObjects":
+            case "listNextBatchOfObjects":
+                return SS3Operation.LIST_OBJECTS;
+                
+            case "initiateMultipartUpload":
+                return SS3Operation.CREATE_MULTIPART_UPLOAD;
+                
+            case "uploadPart":
+                return SS3Operation.UPLOAD_PART;
+                
+            case "copyPart":
+                return SS3Operation.UPLOAD_PART_COPY;
+                
+            case "completeMultipartUpload":
+                return SS3Operation.COMPLETE_MULTIPART_UPLOAD;
+                
+            case "abortMultipartUpload":
+                return SS3Operation.ABORT_MULTIPART_UPLOAD;
+                
+            // Client settings and local state
+            case "setEndpoint":
+            case "setRegion":
+            case "setS3ClientOptions":
+            case "getRegion":
+            case "getUrl":
+            case "getCachedResponseMetadata":
+            case "generatePresignedUrl":
+            case "shutdown":
+                return null;
+                
+            default:
+                return SS3Operation.OTHER;
+        }
+    }
+    
+    /**
+     * The content bytes a request sent or received.  Downloads count the 
+     * length of the returned content, whether or not it's all read.
+     * 
+     * @return The byte count, or 0 if unknown
+     */
+    private static long getBytes(SS3Operation op, Object[] args, Object res)
+    {
+        switch( op )
+        {
+            case PUT_OBJECT:
+                for( Object arg : args )
+                {
+                    if( arg instanceof PutObjectRequest )
+                    {
+                        PutObjectRequest req = (PutObjectRequest)arg;
+                        if( req.getFile() != null )
+                        {
+                            return req.getFile().length();
+                        }
+                        
+                        if( req.getMetadata() != null )
+                        {
+                            return req.getMetadata().getContentLength();
+                        }
+                    }
+                    else if( arg instanceof File )
+                    {
+                        return ((File)arg).length();
+                    }
+                    else if( arg instanceof ObjectMetadata )
+                    {
+                        return ((ObjectMetadata)arg).getContentLength();
+                    }
+                }
+                
+                return 0;
+                
+            case UPLOAD_PART:
+                return ((UploadPartRequest)args[0]).getPartSize();
+                
+            case GET_OBJECT:
+                if( res instanceof S3Object )
+                {
+                    return ((S3Object)res).getObjectMetadata().getContentLength();
+                }
+                else if( res instanceof ObjectMetadata )
+                {
+                    return ((ObjectMetadata)res).getContentLength();
+                }
+                
+                return 0;
+                
+            default:
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Iterates over every page of an S3 listing.
+ * 
+ * As soon as a page is handed out the request for the following page is 
+ * started in the background, so the caller can process one page while the 
+ * next is on the wire.  At most two pages are held in memory at any time.
+ * 
+ * @author kervin
+ */
+public final class SS3ListingIterator implements Iterator<ObjectListing>
+{
+    private final AmazonS3 client;
+    private final ExecutorService executor;
+    
+    private ObjectListing nextPage;
+    private Future<ObjectListing> pendingPage;
+
+    /**
+     * Starts listing.  The first page is requested immediately.
+     * 
+     * @param client The client used for the listing requests
+     * @param executor Runs the background page requests
+     * @param req The listing request for the first page
+     */
+    public SS3ListingIterator(final AmazonS3 client, final ExecutorService executor,
+                              final ListObjectsRequest req)
+    {
+        this.client = client;
+        this.executor = executor;
+        
+        nextPage = null;
+        pendingPage = executor.submit(new Callable<ObjectListing>()
+        {
+            @Override
+            public ObjectListing call() throws Exception
+            {
+                return client.listObjects(req);
+            }
+        });
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        if( nextPage == null && pendingPage != null )
+        {
+            nextPage = waitForPage(pendingPage);
+            pendingPage = null;
+            
+            if( nextPage.isTruncated() )
+            {
+                final ObjectListing prevPage = nextPage;
+                pendingPage = executor.submit(new Callable<ObjectListing>()
+                {
+                    @Override
+                    public ObjectListing call() throws Exception
+                    {
+                        return client.listNextBatchOfObjects(prevPage);
+                    }
+                });
+            }
+        }
+        
+        return nextPage != null;
+    }
+
+    @Override
+    public ObjectListing next()
+    {
+        if( hasNext() == false )
+        {
+            throw new NoSuchElementException();
+        }
+        
+        ObjectListing res = nextPage;
+        nextPage = null;
+        
+        return res;
+    }
+
+    @Override
+    public void remove()
+    {
+        throw new UnsupportedOperationException("remove() is not supported on S3 listings");
+    }
+    
+    private static ObjectListing waitForPage(Future<ObjectListing> page)
+    {
+        try
+        {
+            return page.get();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            
+            throw new AmazonClientException("Interrupted while waiting for listing", ex);
+        }
+        catch (ExecutionException ex)
+        {
+            Throwable cause = ex.getCause();
+            if( cause instanceof RuntimeException )
+            {
+                throw (RuntimeException)cause;
+            }
+            
+            throw new AmazonClientException("Listing request failed", cause);
+        }
+    }
+}
@@ -0,0 +1,375 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps copies of downloaded objects in a local directory, so reading them
+ * again does not download them again.
+ *
+ * Each object is stored whole, in a file named after a hash of its container
+ * and key, and its ETag.  The least recently read objects are deleted once
+ * the cache grows past its size.  The directory is scanned when the cache is
+ * created, so the content survives restarts.
+ *
+ * There is a single cache for each directory, shared by every file-system
+ * using it.
+ *
+ * @author kervin
+ */
+final class SS3LocalCache
+{
+    private static final Logger log = LoggerFactory.getLogger(SS3LocalCache.class);
+
+    private static final Map<File, SS3LocalCache> caches = new HashMap<>();
+
+    private static final String FILE_SUFFIX = ".ss3";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Cached files are named "&lt;key hash&gt;.&lt;ETag&gt;.ss3".
+     */
+    private static final Pattern FILE_PATTERN
+            = Pattern.compile("([0-9a-f]{64})\\.([A-Za-z0-9-]+)\\.ss3");
+    private static final Pattern ETAG_PATTERN = Pattern.compile("[A-Za-z0-9-]+");
+
+    private final Path dir;
+    private final long maxSize;
+    private final Map<String, Entry> entries;
+    private long currSize;
+
+    private SS3LocalCache(Path dir, long maxSize) throws IOException
+    {
+        this.dir = dir;
+        this.maxSize = maxSize;
+
+        entries = new LinkedHashMap<>(16, 0.75f, true);
+
+        Files.createDirectories(dir);
+        load();
+    }
+
+    /**
+     * Returns the cache for a directory, creating it on first use.  The size
+     * given when the cache is first created is kept.
+     *
+     * @param dir The directory holding the cached content
+     * @param maxSize The most bytes held in the directory
+     * @return
+     * @throws IOException
+     */
+    static SS3LocalCache forDirectory(File dir, long maxSize) throws IOException
+    {
+        File currDir = dir.getCanonicalFile();
+
+        synchronized( caches )
+        {
+            SS3LocalCache res = caches.get(currDir);
+            if( res == null )
+            {
+                res = new SS3LocalCache(currDir.toPath(), maxSize);
+                caches.put(currDir, res);
+            }
+
+            return res;
+        }
+    }
+
+    /**
+     * Rebuilds the index from the directory, oldest first, and removes any
+     * partial downloads left behind.
+     *
+     * @throws IOException
+     */
+    private void load() throws IOException
+    {
+        List<Path> files = new ArrayList<>();
+
+        try( DirectoryStream<Path> ds = Files.newDirectoryStream(dir) )
+        {
+            for( Path currFile : ds )
+            {
+                String name = currFile.getFileName().toString();
+
+                if( name.endsWith(TEMP_SUFFIX) )
+                {
+                    Files.deleteIfExists(currFile);
+                }
+                else if( FILE_PATTERN.matcher(name).matches() )
+                {
+                    files.add(currFile);
+                }
+            }
+        }
+
+        final Map<Path, Long> times = new HashMap<>();
+        for( Path currFile : files )
+        {
+            times.put(currFile, Files.getLastModifiedTime(currFile).toMillis());
+        }
+
+        Collections.sort(files, new Comparator<Path>()
+        {
+            @Override
+            public int compare(Path p1, Path p2)
+            {
+                return Long.compare(times.get(p1), times.get(p2));
+            }
+        });
+
+        synchronized( this )
+        {
+            for( Path currFile : files )
+            {
+                Matcher m = FILE_PATTERN.matcher(currFile.getFileName().toString());
+                m.matches();
+
+                Entry entry = new Entry(m.group(2), currFile, Files.size(currFile));
+
+                Entry prev = entries.put(m.group(1), entry);
+                if( prev != null )
+                {
+                    // An older version of the same object
+                    currSize -= prev.size;
+                    delete(prev.file);
+                }
+
+                currSize += entry.size;
+            }
+
+            evict(null);
+        }
+
+        log.debug(String.format("Loaded %d cached objects, %d bytes, from '%s'",
+                                entries.size(), currSize, dir));
+    }
+
+    /**
+     * Whether an object of this size and ETag can be cached at all.
+     *
+     * @param length The object's length
+     * @param etag The object's ETag
+     * @return
+     */
+    boolean accepts(long length, String etag)
+    {
+        return length <= maxSize && etag != null && ETAG_PATTERN.matcher(etag).matches();
+    }
+
+    /**
+     * The ETag of the cached copy of an object.
+     *
+     * @param bucket The container
+     * @param key The object key
+     * @return The cached ETag, or null if the object is not cached
+     */
+    synchronized String getETag(String bucket, String key)
+    {
+        Entry res = entries.get(getKeyHash(bucket, key));
+
+        return res == null ? null : res.etag;
+    }
+
+    /**
+     * The local file holding the cached copy of an object, and marks it as
+     * recently read.  The file is only deleted once it becomes the least 
+     * recently read, so it can safely be opened straight away.
+     *
+     * @param bucket The container
+     * @param key The object key
+     * @param etag The ETag the cached copy must have
+     * @return The cached file, or null if no copy with that ETag is cached
+     */
+    synchronized Path getFile(String bucket, String key, String etag)
+    {
+        Entry entry = entries.get(getKeyHash(bucket, key));
+        if( entry == null || entry.etag.equals(etag) == false )
+        {
+            return null;
+        }
+
+        touch(entry);
+
+        return entry.file;
+    }
+
+    /**
+     * Stores a copy of an object's content, replacing any older copy.
+     *
+     * @param bucket The container
+     * @param key The object key
+     * @param etag The ETag of the content
+     * @param in The content.  It is read fully and closed.
+     * @return The file holding the stored content
+     * @throws IOException
+     */
+    Path store(String bucket, String key, String etag, InputStream in) throws IOException
+    {
+        String hash = getKeyHash(bucket, key);
+
+        // Download outside the lock, under a name no other download uses
+        Path temp = Files.createTempFile(dir, hash, TEMP_SUFFIX);
+        try
+        {
+            try( InputStream currIn = in )
+            {
+                Files.copy(currIn, temp, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            Path currFile = dir.resolve(String.format("%s.%s%s", hash, etag, FILE_SUFFIX));
+
+            synchronized( this )
+            {
+                Files.move(temp, currFile, StandardCopyOption.REPLACE_EXISTING,
+                                           StandardCopyOption.ATOMIC_MOVE);
+
+                Entry entry = new Entry(etag, currFile, Files.size(currFile));
+
+                Entry prev = entries.put(hash, entry);
+                if( prev != null )
+                {
+                    currSize -= prev.size;
+                    if( prev.file.equals(currFile) == false )
+                    {
+                        delete(prev.file);
+                    }
+                }
+
+                currSize += entry.size;
+                evict(entry);
+
+                return currFile;
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Removes the least recently used entries until the cache fits its size.
+     *
+     * @param keep An entry that must not be removed, or null
+     */
+    private void evict(Entry keep)
+    {
+        for( Iterator<Entry> it = entries.values().iterator(); currSize > maxSize && it.hasNext(); )
+        {
+            Entry entry = it.next();
+            if( entry == keep )
+            {
+                continue;
+            }
+
+            it.remove();
+            currSize -= entry.size;
+            delete(entry.file);
+        }
+    }
+
+    /**
+     * Records the read on disk too, so the order survives restarts.
+     *
+     * @param entry
+     */
+    private void touch(Entry entry)
+    {
+        try
+        {
+            Files.setLastModifiedTime(entry.file, FileTime.fromMillis(System.currentTimeMillis()));
+        }
+        catch (IOException ex)
+        {
+            log.debug(String.format("Could not touch '%s'", entry.file), ex);
+        }
+    }
+
+    private static void delete(Path file)
+    {
+        try
+        {
+            Files.deleteIfExists(file);
+        }
+        catch (IOException ex)
+        {
+            // e.g. still open on some platforms.  Overwritten or removed later.
+            log.warn(String.format("Could not delete cached file '%s'", file), ex);
+        }
+    }
+
+    private static String getKeyHash(String bucket, String key)
+    {
+        MessageDigest md;
+        try
+        {
+            md = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            // Every JVM is required to support SHA-256
+            throw new IllegalStateException(ex);
+        }
+
+        byte[] digest = md.digest(String.format("%s/%s", bucket, key).getBytes(StandardCharsets.UTF_8));
+
+        StringBuilder res = new StringBuilder(digest.length * 2);
+        for( byte b : digest )
+        {
+            res.append(String.format("%02x", b & 0xff));
+        }
+
+        return res.toString();
+    }
+
+    private static final class Entry
+    {
+        private final String etag;
+        private final Path file;
+        private final long size;
+
+        private Entry(String etag, Path file, long size)
+        {
+            this.etag = etag;
+            this.file = file;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Upload content held in memory, as a chain of arrays borrowed from a 
+ * {@link SS3BufferPool}.
+ * 
+ * The buffer grows one pooled array at a time, so it never copies its content
+ * while growing.  Once the content has been uploaded <code>release()</code> 
+ * must be called to give the arrays back to the pool.
+ * 
+ * @author kervin
+ */
+final class SS3MemoryBuffer
+{
+    private final SS3BufferPool pool;
+    private final List<byte[]> chunks;
+    private long length;
+
+    SS3MemoryBuffer(SS3BufferPool pool)
+    {
+        this.pool = pool;
+        
+        chunks = new ArrayList<>();
+        length = 0;
+    }
+
+    /**
+     * The number of bytes written to this buffer.
+     * 
+     * @return 
+     */
+    long length()
+    {
+        return length;
+    }
+    
+    void write(int b)
+    {
+        int chunkSize = pool.getChunkSize();
+        int pos = (int)(length % chunkSize);
+        if( pos == 0 )
+        {
+            chunks.add(pool.acquire());
+        }
+        
+        chunks.get(chunks.size() - 1)[pos] = (byte)b;
+        length++;
+    }
+    
+    /**
+     * Appends bytes to the buffer.
+     * 
+     * @param bytes The source array
+     * @param off The offset of the first byte to append
+     * @param len The number of bytes to append
+     */
+    void write(byte[] bytes, int off, int len)
+    {
+        int chunkSize = pool.getChunkSize();
+        
+        while( len > 0 )
+        {
+            int pos = (int)(length % chunkSize);
+            if( pos == 0 )
+            {
+                chunks.add(pool.acquire());
+            }
+            
+            int n = Math.min(len, chunkSize - pos);
+            System.arraycopy(bytes, off, chunks.get(chunks.size() - 1), pos, n);
+            
+            length += n;
+            off += n;
+            len -= n;
+        }
+    }
+    
+    /**
+     * Reads back the content of the buffer.  The buffer must not be written or
+     * released while the stream is in use.
+     * 
+     * @return A stream over the full content of the buffer
+     */
+    InputStream getInputStream()
+    {
+        int chunkSize = pool.getChunkSize();
+        
+        List<InputStream> streams = new ArrayList<>(chunks.size());
+        long remaining = length;
+        for( byte[] chunk : chunks )
+        {
+            int n = (int)Math.min(remaining, chunkSize);
+            streams.add(new ByteArrayInputStream(chunk, 0, n));
+            remaining -= n;
+        }
+        
+        return new SequenceInputStream(Collections.enumeration(streams));
+    }
+    
+    /**
+     * Copies the full content of the buffer to a stream.
+     * 
+     * @param out The destination
+     * @throws IOException 
+     */
+    void writeTo(OutputStream out) throws IOException
+    {
+        int chunkSize = pool.getChunkSize();
+        
+        long remaining = length;
+        for( byte[] chunk : chunks )
+        {
+            int n = (int)Math.min(remaining, chunkSize);
+            out.write(chunk, 0, n);
+            remaining -= n;
+        }
+    }
+    
+    /**
+     * Returns all arrays to the pool and empties the buffer.
+     */
+    void release()
+    {
+        for( byte[] chunk : chunks )
+        {
+            pool.release(chunk);
+        }
+        
+        chunks.clear();
+        length = 0;
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers what is known about recently used paths of a file-system, so
+ * resolving the same path again does not need another request.
+ *
+ * Entries expire after a fixed time, and the least recently used entries are
+ * evicted once the cache is full.  Changes made through the file-system
+ * invalidate the entries they affect.  Changes made by other clients are only
+ * seen once the entry expires.
+ *
+ * @author kervin
+ */
+final class SS3MetadataCache
+{
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final Map<String, Entry> entries;
+
+    /**
+     * Creates an empty cache.  A cache with no entries or no time-to-live
+     * never holds anything.
+     *
+     * @param maxEntries The most paths held at once
+     * @param ttlMillis How long an entry is used for, in milliseconds
+     */
+    SS3MetadataCache(final int maxEntries, long ttlMillis)
+    {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+            {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    private boolean isEnabled()
+    {
+        return maxEntries > 0 && ttlNanos > 0;
+    }
+
+    private static String getCacheKey(String bucket, String key)
+    {
+        return String.format("%s/%s", bucket, key);
+    }
+
+    /**
+     * Returns the cached information for a path.
+     *
+     * @param bucket The container
+     * @param key The path within the container
+     * @return The information, or null if it is not cached or has expired
+     */
+    synchronized SS3ObjectInfo get(String bucket, String key)
+    {
+        if( isEnabled() == false )
+        {
+            return null;
+        }
+
+        String cacheKey = getCacheKey(bucket, key);
+
+        Entry res = entries.get(cacheKey);
+        if( res == null )
+        {
+            return null;
+        }
+
+        if( System.nanoTime() - res.created > ttlNanos )
+        {
+            entries.remove(cacheKey);
+
+            return null;
+        }
+
+        return res.info;
+    }
+
+    /**
+     * Caches the information for a path.
+     *
+     * @param bucket The container
+     * @param key The path within the container
+     * @param info The information to cache
+     */
+    synchronized void put(String bucket, String key, SS3ObjectInfo info)
+    {
+        if( isEnabled() == false )
+        {
+            return;
+        }
+
+        entries.put(getCacheKey(bucket, key), new Entry(info, System.nanoTime()));
+    }
+
+    /**
+     * Removes a path after it has been written or deleted.  Its parent
+     * folders are removed too, since they may have been created or emptied
+     * by the change.
+     *
+     * @param bucket The container
+     * @param key The path within the container
+     */
+    synchronized void invalidate(String bucket, String key)
+    {
+        if( entries.isEmpty() )
+        {
+            return;
+        }
+
+        entries.remove(getCacheKey(bucket, key));
+        entries.remove(getCacheKey(bucket, "/"));
+
+        for( int i = key.indexOf('/'); i > 0; i = key.indexOf('/', i + 1) )
+        {
+            entries.remove(getCacheKey(bucket, key.substring(0, i)));
+        }
+    }
+
+    /**
+     * Removes a folder, everything cached beneath it and its parent folders.
+     *
+     * @param bucket The container
+     * @param key The folder's path within the container
+     */
+    synchronized void invalidateTree(String bucket, String key)
+    {
+        if( entries.isEmpty() )
+        {
+            return;
+        }
+
+        invalidate(bucket, key);
+
+        String prefix = key.equals("/") ? getCacheKey(bucket, "") : getCacheKey(bucket, key + "/");
+
+        for( Iterator<String> it = entries.keySet().iterator(); it.hasNext(); )
+        {
+            if( it.next().startsWith(prefix) )
+            {
+                it.remove();
+            }
+        }
+    }
+
+    private static final class Entry
+    {
+        private final SS3ObjectInfo info;
+        private final long created;
+
+        private Entry(SS3ObjectInfo info, long created)
+        {
+            this.info = info;
+            this.created = created;
+        }
+    }
+}
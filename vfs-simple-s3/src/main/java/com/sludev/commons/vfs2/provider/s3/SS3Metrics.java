@@ -0,0 +1,239 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counts, bytes, errors and latency histograms of the S3 requests made by a 
+ * single file-system, kept per {@link SS3Operation}.
+ * 
+ * Every request made through the file-system's client is recorded, whichever
+ * VFS call made it.  The metrics can also be registered as a JMX MBean, see 
+ * {@link SS3FileSystemConfigBuilder#setMetricsMBeanEnabled}.
+ * 
+ * @author kervin
+ */
+public final class SS3Metrics implements SS3MetricsMXBean
+{
+    private final Map<SS3Operation, SS3OperationStats> stats;
+
+    SS3Metrics()
+    {
+        Map<SS3Operation, SS3OperationStats> res = new EnumMap<>(SS3Operation.class);
+        for( SS3Operation op : SS3Operation.values() )
+        {
+            res.put(op, new SS3OperationStats(op));
+        }
+        
+        // Never changed after this, so reads need no locking
+        stats = Collections.unmodifiableMap(res);
+    }
+    
+    /**
+     * Records one request.
+     * 
+     * @param op The kind of request
+     * @param nanos How long the request took
+     * @param bytes The bytes sent or received, or 0 if unknown
+     * @param failed true if the request failed
+     */
+    void record(SS3Operation op, long nanos, long bytes, boolean failed)
+    {
+        stats.get(op).record(nanos, bytes, failed);
+    }
+    
+    /**
+     * The metrics of one kind of request.
+     * 
+     * @param op
+     * @return 
+     */
+    public SS3OperationStats getStats(SS3Operation op)
+    {
+        return stats.get(op);
+    }
+    
+    /**
+     * The metrics of every kind of request, in {@link SS3Operation} order.
+     * 
+     * @return 
+     */
+    public Collection<SS3OperationStats> getAllStats()
+    {
+        return stats.values();
+    }
+    
+    @Override
+    public long getRequestCount()
+    {
+        long res = 0;
+        for( SS3OperationStats curr : stats.values() )
+        {
+            res += curr.getCount();
+        }
+        
+        return res;
+    }
+    
+    @Override
+    public long getErrorCount()
+    {
+        long res = 0;
+        for( SS3OperationStats curr : stats.values() )
+        {
+            res += curr.getErrorCount();
+        }
+        
+        return res;
+    }
+    
+    @Override
+    public long getBytes()
+    {
+        long res = 0;
+        for( SS3OperationStats curr : stats.values() )
+        {
+            res += curr.getBytes();
+        }
+        
+        return res;
+    }
+    
+    @Override
+    public Map<String, Long> getRequestCounts()
+    {
+        Map<String, Long> res = new LinkedHashMap<>();
+        for( SS3OperationStats curr : getUsedStats() )
+        {
+            res.put(curr.getOperation().name(), curr.getCount());
+        }
+        
+        return res;
+    }
+    
+    @Override
+    public Map<String, Long> getErrorCounts()
+    {
+        Map<String, Long> res = new LinkedHashMap<>();
+        for( SS3OperationStats curr : getUsedStats() )
+        {
+            res.put(curr.getOperation().name(), curr.getErrorCount());
+        }
+        
+        return res;
+    }
+    
+    @Override
+    public Map<String, Long> getByteCounts()
+    {
+        Map<String, Long> res = new LinkedHashMap<>();
+        for( SS3OperationStats curr : getUsedStats() )
+        {
+            res.put(curr.getOperation().name(), curr.getBytes());
+        }
+        
+        return res;
+    }
+    
+    @Override
+    public Map<String, Double> getMeanLatencyMillis()
+    {
+        Map<String, Double> res = new LinkedHashMap<>();
+        for( SS3OperationStats curr : getUsedStats() )
+        {
+            res.put(curr.getOperation().name(), curr.getMeanLatencyMillis());
+        }
+        
+        return res;
+    }
+    
+    @Override
+    public Map<String, Double> getP50LatencyMillis()
+    {
+        return getPercentiles(50);
+    }
+    
+    @Override
+    public Map<String, Double> getP99LatencyMillis()
+    {
+        return getPercentiles(99);
+    }
+    
+    @Override
+    public Map<String, Double> getMaxLatencyMillis()
+    {
+        Map<String, Double> res = new LinkedHashMap<>();
+        for( SS3OperationStats curr : getUsedStats() )
+        {
+            res.put(curr.getOperation().name(), curr.getMaxLatencyMillis());
+        }
+        
+        return res;
+    }
+    
+    @Override
+    public void reset()
+    {
+        for( SS3OperationStats curr : stats.values() )
+        {
+            curr.reset();
+        }
+    }
+    
+    private Map<String, Double> getPercentiles(double percentile)
+    {
+        Map<String, Double> res = new LinkedHashMap<>();
+        for( SS3OperationStats curr : getUsedStats() )
+        {
+            res.put(curr.getOperation().name(), curr.getLatencyPercentileMillis(percentile));
+        }
+        
+        return res;
+    }
+    
+    private Collection<SS3OperationStats> getUsedStats()
+    {
+        Collection<SS3OperationStats> res = new ArrayList<>();
+        for( SS3OperationStats curr : stats.values() )
+        {
+            if( curr.getCount() > 0 )
+            {
+                res.add(curr);
+            }
+        }
+        
+        return res;
+    }
+    
+    @Override
+    public String toString()
+    {
+        StringBuilder res = new StringBuilder();
+        for( SS3OperationStats curr : getUsedStats() )
+        {
+            res.append(curr).append('\n');
+        }
+        
+        return res.toString();
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import java.util.Map;
+
+/**
+ * The JMX view of a file-system's S3 request metrics.  Maps are keyed by
+ * {@link SS3Operation} name and only hold operations that have been used.
+ * 
+ * @author kervin
+ */
+public interface SS3MetricsMXBean
+{
+    long getRequestCount();
+    
+    long getErrorCount();
+    
+    long getBytes();
+    
+    Map<String, Long> getRequestCounts();
+    
+    Map<String, Long> getErrorCounts();
+    
+    Map<String, Long> getByteCounts();
+    
+    Map<String, Double> getMeanLatencyMillis();
+    
+    Map<String, Double> getP50LatencyMillis();
+    
+    Map<String, Double> getP99LatencyMillis();
+    
+    Map<String, Double> getMaxLatencyMillis();
+    
+    /**
+     * Clears every count.
+     */
+    void reset();
+}
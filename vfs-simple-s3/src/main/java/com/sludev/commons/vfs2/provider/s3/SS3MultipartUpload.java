@@ -0,0 +1,418 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.CopyPartResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A single S3 multipart upload whose parts are sent concurrently.  Parts are
+ * uploaded from memory or from a local file, or copied server-side from an 
+ * existing object.
+ * 
+ * Parts are submitted as soon as they're available and uploaded on the 
+ * file-system's worker threads.  The number of parts in flight is bounded, so
+ * a writer that outpaces the network blocks instead of buffering without 
+ * limit.  If anything fails the upload is aborted so no orphaned parts are
+ * left behind in the bucket.
+ * 
+ * @author kervin
+ */
+final class SS3MultipartUpload
+{
+    private static final Logger log = LoggerFactory.getLogger(SS3MultipartUpload.class);
+    
+    private final AmazonS3 client;
+    private final ExecutorService executor;
+    private final String bucket;
+    private final String key;
+    private final String uploadId;
+    private final Semaphore inFlight;
+    private final List<Future<PartETag>> parts;
+    
+    private volatile Throwable failure;
+    private boolean finished;
+
+    /**
+     * Initiates a new multipart upload.
+     * 
+     * @param client The client used for all requests of this upload
+     * @param executor Runs the part uploads
+     * @param bucket The destination container
+     * @param key The destination object key
+     * @param maxInFlight The maximum number of parts uploading at one time
+     */
+    SS3MultipartUpload(AmazonS3 client, ExecutorService executor, 
+                       String bucket, String key, int maxInFlight)
+    {
+        this(client, executor, bucket, key, null, maxInFlight);
+    }
+    
+    /**
+     * Initiates a new multipart upload for an object with the given metadata.
+     * 
+     * @param client The client used for all requests of this upload
+     * @param executor Runs the part uploads
+     * @param bucket The destination container
+     * @param key The destination object key
+     * @param metadata The new object's metadata, or null for none
+     * @param maxInFlight The maximum number of parts uploading at one time
+     */
+    SS3MultipartUpload(AmazonS3 client, ExecutorService executor, 
+                       String bucket, String key, ObjectMetadata metadata, int maxInFlight)
+    {
+        this.client = client;
+        this.executor = executor;
+        this.bucket = bucket;
+        this.key = key;
+        
+        inFlight = new Semaphore(Math.max(maxInFlight, 1));
+        parts = new ArrayList<>();
+        failure = null;
+        finished = false;
+        
+        InitiateMultipartUploadRequest req = new InitiateMultipartUploadRequest(bucket, key);
+        if( metadata != null )
+        {
+            req.withObjectMetadata(metadata);
+        }
+        
+        uploadId = client.initiateMultipartUpload(req).getUploadId();
+    }
+    
+    /**
+     * Queues the next part for upload.  Blocks while the maximum number of parts
+     * are already in flight.
+     * 
+     * The upload takes ownership of the buffer and releases it once the part 
+     * has been sent.
+     * 
+     * @param data The part's content
+     * @throws IOException if an earlier part has already failed, or the upload
+     *                     already has the most parts S3 accepts
+     */
+    void uploadPart(final SS3MemoryBuffer data) throws IOException
+    {
+        try
+        {
+            checkFailure();
+            checkPartLimit();
+            
+            inFlight.acquire();
+        }
+        catch (InterruptedException ex)
+        {
+            data.release();
+            Thread.currentThread().interrupt();
+            
+            throw new InterruptedIOException("Interrupted waiting to upload a part");
+        }
+        catch (IOException ex)
+        {
+            data.release();
+            
+            throw ex;
+        }
+        
+        final int partNumber = parts.size() + 1;
+        
+        parts.add(executor.submit(new Callable<PartETag>()
+        {
+            @Override
+            public PartETag call() throws Exception
+            {
+                try
+                {
+                    UploadPartRequest req = new UploadPartRequest()
+                            .withBucketName(bucket)
+                            .withKey(key)
+                            .withUploadId(uploadId)
+                            .withPartNumber(partNumber)
+                            .withPartSize(data.length())
+                            .withInputStream(data.getInputStream());
+                    
+                    return client.uploadPart(req).getPartETag();
+                }
+                catch (RuntimeException ex)
+                {
+                    failure = ex;
+                    
+                    throw ex;
+                }
+                finally
+                {
+                    data.release();
+                    inFlight.release();
+                }
+            }
+        }));
+    }
+    
+    /**
+     * Queues the next part for upload straight from a range of a local file.
+     * Blocks while the maximum number of parts are already in flight.
+     * 
+     * @param file The file holding the part
+     * @param offset The position of the part in the file
+     * @param length The length of the part
+     * @throws IOException if an earlier part has already failed, or the upload
+     *                     already has the most parts S3 accepts
+     */
+    void uploadPart(final File file, final long offset, final long length) throws IOException
+    {
+        checkFailure();
+        checkPartLimit();
+        
+        try
+        {
+            inFlight.acquire();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            
+            throw new InterruptedIOException("Interrupted waiting to upload a part");
+        }
+        
+        final int partNumber = parts.size() + 1;
+        
+        parts.add(executor.submit(new Callable<PartETag>()
+        {
+            @Override
+            public PartETag call() throws Exception
+            {
+                try
+                {
+                    UploadPartRequest req = new UploadPartRequest()
+                            .withBucketName(bucket)
+                            .withKey(key)
+                            .withUploadId(uploadId)
+                            .withPartNumber(partNumber)
+                            .withFile(file)
+                            .withFileOffset(offset)
+                            .withPartSize(length);
+                    
+                    return client.uploadPart(req).getPartETag();
+                }
+                catch (RuntimeException ex)
+                {
+                    failure = ex;
+                    
+                    throw ex;
+                }
+                finally
+                {
+                    inFlight.release();
+                }
+            }
+        }));
+    }
+    
+    /**
+     * Queues the next part to be copied server-side from a byte range of an 
+     * existing object.  Blocks while the maximum number of parts are already in
+     * flight.
+     * 
+     * @param srcBucket The source container
+     * @param srcKey The source object key
+     * @param srcETag The ETag the source object must still have
+     * @param firstByte The position of the first byte of the range
+     * @param lastByte The position of the last byte of the range, inclusive
+     * @throws IOException if an earlier part has already failed, or the upload
+     *                     already has the most parts S3 accepts
+     */
+    void copyPart(final String srcBucket, final String srcKey, final String srcETag,
+                  final long firstByte, final long lastByte) throws IOException
+    {
+        checkFailure();
+        checkPartLimit();
+        
+        try
+        {
+            inFlight.acquire();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            
+            throw new InterruptedIOException("Interrupted waiting to copy a part");
+        }
+        
+        final int partNumber = parts.size() + 1;
+        
+        parts.add(executor.submit(new Callable<PartETag>()
+        {
+            @Override
+            public PartETag call() throws Exception
+            {
+                try
+                {
+                    CopyPartRequest req = new CopyPartRequest()
+                            .withSourceBucketName(srcBucket)
+                            .withSourceKey(srcKey)
+                            .withDestinationBucketName(bucket)
+                            .withDestinationKey(key)
+                            .withUploadId(uploadId)
+                            .withPartNumber(partNumber)
+                            .withFirstByte(firstByte)
+                            .withLastByte(lastByte)
+                            .withMatchingETagConstraint(srcETag);
+                    
+                    CopyPartResult res = client.copyPart(req);
+                    if( res == null )
+                    {
+                        // The client returns null when a constraint was not met
+                        throw new AmazonClientException(
+                                String.format("'%s' changed while it was being copied", srcKey));
+                    }
+                    
+                    return res.getPartETag();
+                }
+                catch (RuntimeException ex)
+                {
+                    failure = ex;
+                    
+                    throw ex;
+                }
+                finally
+                {
+                    inFlight.release();
+                }
+            }
+        }));
+    }
+    
+    /**
+     * Waits for all parts and completes the upload.  The upload is aborted if
+     * any part failed.
+     * 
+     * @throws IOException if any part, or the completion request, failed
+     */
+    void complete() throws IOException
+    {
+        List<PartETag> etags = new ArrayList<>(parts.size());
+        
+        try
+        {
+            for( Future<PartETag> part : parts )
+            {
+                etags.add(part.get());
+            }
+            
+            client.completeMultipartUpload(
+                    new CompleteMultipartUploadRequest(bucket, key, uploadId, etags));
+            
+            finished = true;
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            abort();
+            
+            throw new InterruptedIOException("Interrupted waiting for parts to upload");
+        }
+        catch (ExecutionException ex)
+        {
+            abort();
+            
+            throw new IOException(
+                    String.format("Multipart upload of '%s' failed", key), ex.getCause());
+        }
+        catch (RuntimeException ex)
+        {
+            abort();
+            
+            throw new IOException(
+                    String.format("Multipart upload of '%s' failed", key), ex);
+        }
+    }
+    
+    /**
+     * Cancels outstanding parts and aborts the upload on the server, discarding
+     * every part uploaded so far.
+     */
+    void abort()
+    {
+        if( finished )
+        {
+            return;
+        }
+        
+        finished = true;
+        
+        for( Future<PartETag> part : parts )
+        {
+            part.cancel(true);
+        }
+        
+        try
+        {
+            client.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, key, uploadId));
+        }
+        catch (RuntimeException ex)
+        {
+            log.error( String.format("abort() failed for '%s' : '%s'", bucket, key), ex);
+        }
+    }
+    
+    private void checkFailure() throws IOException
+    {
+        if( failure != null )
+        {
+            abort();
+            
+            throw new IOException(
+                    String.format("Multipart upload of '%s' failed", key), failure);
+        }
+    }
+    
+    /**
+     * Fails before sending more parts than S3 accepts, rather than when the 
+     * upload is completed.
+     */
+    private void checkPartLimit() throws IOException
+    {
+        if( parts.size() >= SS3Constants.MAX_UPLOAD_PARTS )
+        {
+            abort();
+            
+            throw new IOException(
+                    String.format("Multipart upload of '%s' needs more than %d parts, use a larger part size", 
+                            key, SS3Constants.MAX_UPLOAD_PARTS));
+        }
+    }
+}
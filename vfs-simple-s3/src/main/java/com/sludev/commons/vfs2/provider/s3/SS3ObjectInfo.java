@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import java.util.Date;
+import org.apache.commons.vfs2.FileType;
+
+/**
+ * What is known about a path without reading its content.  The type, and for
+ * files the length, last-modified time and ETag.
+ *
+ * @author kervin
+ */
+final class SS3ObjectInfo
+{
+    static final SS3ObjectInfo FOLDER = new SS3ObjectInfo(FileType.FOLDER, -1, 0, null, null);
+    static final SS3ObjectInfo IMAGINARY = new SS3ObjectInfo(FileType.IMAGINARY, -1, 0, null, null);
+
+    private final FileType type;
+    private final long contentLength;
+    private final long lastModified;
+    private final String eTag;
+    private final ObjectMetadata metadata;
+
+    private SS3ObjectInfo(FileType type, long contentLength, long lastModified,
+                          String eTag, ObjectMetadata metadata)
+    {
+        this.type = type;
+        this.contentLength = contentLength;
+        this.lastModified = lastModified;
+        this.eTag = eTag;
+        this.metadata = metadata;
+    }
+
+    /**
+     * A file described by the full metadata of a HEAD request.
+     *
+     * @param md The object's metadata
+     * @return
+     */
+    static SS3ObjectInfo fromMetadata(ObjectMetadata md)
+    {
+        Date lm = md.getLastModified();
+
+        return new SS3ObjectInfo(FileType.FILE, md.getContentLength(),
+                                 lm == null ? 0 : lm.getTime(), md.getETag(), md);
+    }
+
+    /**
+     * A file described by an entry of a listing.  Listings carry no content
+     * type or user metadata.
+     *
+     * @param osum The listing entry
+     * @return
+     */
+    static SS3ObjectInfo fromSummary(S3ObjectSummary osum)
+    {
+        Date lm = osum.getLastModified();
+
+        return new SS3ObjectInfo(FileType.FILE, osum.getSize(),
+                                 lm == null ? 0 : lm.getTime(), osum.getETag(), null);
+    }
+
+    FileType getType()
+    {
+        return type;
+    }
+
+    long getContentLength()
+    {
+        return contentLength;
+    }
+
+    long getLastModified()
+    {
+        return lastModified;
+    }
+
+    String getETag()
+    {
+        return eTag;
+    }
+
+    /**
+     * The full object metadata, e.g. content type and user metadata.
+     *
+     * @return The metadata, or null if it is not known
+     */
+    ObjectMetadata getMetadata()
+    {
+        return metadata;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+/**
+ * The kinds of S3 request the file-system makes.  Metrics are kept per kind.
+ * 
+ * @author kervin
+ */
+public enum SS3Operation
+{
+    HEAD_OBJECT,
+    GET_OBJECT,
+    PUT_OBJECT,
+    COPY_OBJECT,
+    DELETE_OBJECT,
+    DELETE_OBJECTS,
+    LIST_OBJECTS,
+    CREATE_MULTIPART_UPLOAD,
+    UPLOAD_PART,
+    UPLOAD_PART_COPY,
+    COMPLETE_MULTIPART_UPLOAD,
+    ABORT_MULTIPART_UPLOAD,
+    
+    /**
+     * Any other request, e.g. on buckets.
+     */
+    OTHER
+}
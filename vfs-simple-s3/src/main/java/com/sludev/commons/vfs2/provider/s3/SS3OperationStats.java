@@ -0,0 +1,273 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The request count, bytes, errors and latencies of one kind of S3 request.
+ * 
+ * Recording is lock-free and never allocates, so it's cheap enough to do on
+ * every request.  Latencies are kept in a histogram whose buckets are 
+ * a quarter of a power of two wide, in microseconds.  Percentiles are 
+ * estimated from the buckets and are within 25% of the true value.
+ * 
+ * @author kervin
+ */
+public final class SS3OperationStats
+{
+    /**
+     * Four buckets per power of two, up to about 25 days.
+     */
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = 40 * SUB_BUCKETS;
+    
+    private final SS3Operation operation;
+    private final LongAdder count;
+    private final LongAdder errors;
+    private final LongAdder bytes;
+    private final LongAdder totalNanos;
+    private final AtomicLong maxNanos;
+    private final AtomicLongArray buckets;
+
+    SS3OperationStats(SS3Operation operation)
+    {
+        this.operation = operation;
+        
+        count = new LongAdder();
+        errors = new LongAdder();
+        bytes = new LongAdder();
+        totalNanos = new LongAdder();
+        maxNanos = new AtomicLong();
+        buckets = new AtomicLongArray(BUCKET_COUNT);
+    }
+    
+    /**
+     * Records one request.
+     * 
+     * @param nanos How long the request took
+     * @param byteCount The bytes sent or received, or 0 if unknown
+     * @param failed true if the request failed
+     */
+    void record(long nanos, long byteCount, boolean failed)
+    {
+        long res = Math.max(nanos, 0);
+        
+        count.increment();
+        totalNanos.add(res);
+        
+        if( byteCount > 0 )
+        {
+            bytes.add(byteCount);
+        }
+        
+        if( failed )
+        {
+            errors.increment();
+        }
+        
+        long currMax = maxNanos.get();
+        while( res > currMax && maxNanos.compareAndSet(currMax, res) == false )
+        {
+            currMax = maxNanos.get();
+        }
+        
+        buckets.incrementAndGet(getBucket(TimeUnit.NANOSECONDS.toMicros(res)));
+    }
+    
+    /**
+     * Clears every count.  Requests recorded at the same time may be lost.
+     */
+    void reset()
+    {
+        count.reset();
+        errors.reset();
+        bytes.reset();
+        totalNanos.reset();
+        maxNanos.set(0);
+        
+        for( int i = 0; i < BUCKET_COUNT; i++ )
+        {
+            buckets.set(i, 0);
+        }
+    }
+    
+    public SS3Operation getOperation()
+    {
+        return operation;
+    }
+    
+    /**
+     * The number of requests made, including failed ones.
+     * 
+     * @return 
+     */
+    public long getCount()
+    {
+        return count.sum();
+    }
+    
+    /**
+     * The number of requests that failed.  A HEAD finding no object isn't 
+     * counted.
+     * 
+     * @return 
+     */
+    public long getErrorCount()
+    {
+        return errors.sum();
+    }
+    
+    /**
+     * The content bytes sent by uploads, or received by downloads.
+     * 
+     * @return 
+     */
+    public long getBytes()
+    {
+        return bytes.sum();
+    }
+    
+    /**
+     * The mean request latency.
+     * 
+     * @return The latency in milliseconds, or 0 if there were no requests
+     */
+    public double getMeanLatencyMillis()
+    {
+        long currCount = count.sum();
+        if( currCount == 0 )
+        {
+            return 0;
+        }
+        
+        return totalNanos.sum() / (double)currCount / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+    
+    /**
+     * The slowest request's latency.
+     * 
+     * @return The latency in milliseconds
+     */
+    public double getMaxLatencyMillis()
+    {
+        return maxNanos.get() / (double)TimeUnit.MILLISECONDS.toNanos(1);
+    }
+    
+    /**
+     * Estimates a latency percentile from the histogram.
+     * 
+     * @param percentile The percentile, between 0 and 100
+     * @return The latency in milliseconds, or 0 if there were no requests
+     */
+    public double getLatencyPercentileMillis(double percentile)
+    {
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        
+        for( int i = 0; i < BUCKET_COUNT; i++ )
+        {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        
+        if( total == 0 )
+        {
+            return 0;
+        }
+        
+        long rank = (long)Math.ceil(total * Math.min(Math.max(percentile, 0), 100) / 100);
+        long seen = 0;
+        int i = 0;
+        
+        for( ; i < BUCKET_COUNT - 1; i++ )
+        {
+            seen += counts[i];
+            if( seen >= Math.max(rank, 1) )
+            {
+                break;
+            }
+        }
+        
+        // The bucket's upper bound, but never above the slowest request seen
+        double res = getBucketLimit(i) / (double)TimeUnit.MILLISECONDS.toMicros(1);
+        
+        return Math.min(res, getMaxLatencyMillis());
+    }
+    
+    /**
+     * The histogram's counts.  Bucket i holds latencies below 
+     * {@link #getBucketLimit(int)} microseconds and at or above the limit of 
+     * bucket i - 1.
+     * 
+     * @return A copy of the counts
+     */
+    public long[] getLatencyHistogram()
+    {
+        long[] res = new long[BUCKET_COUNT];
+        for( int i = 0; i < BUCKET_COUNT; i++ )
+        {
+            res[i] = buckets.get(i);
+        }
+        
+        return res;
+    }
+    
+    /**
+     * The exclusive upper bound of a histogram bucket.
+     * 
+     * @param bucket The bucket's index
+     * @return The bound in microseconds
+     */
+    public static long getBucketLimit(int bucket)
+    {
+        if( bucket < SUB_BUCKETS )
+        {
+            return bucket + 1;
+        }
+        
+        int shift = bucket / SUB_BUCKETS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        
+        return (SUB_BUCKETS + sub + 1) << shift;
+    }
+    
+    private static int getBucket(long micros)
+    {
+        if( micros < SUB_BUCKETS )
+        {
+            return (int)micros;
+        }
+        
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        int sub = (int)(micros >>> shift) & (SUB_BUCKETS - 1);
+        
+        return Math.min((shift + 1) * SUB_BUCKETS + sub, BUCKET_COUNT - 1);
+    }
+    
+    @Override
+    public String toString()
+    {
+        return String.format("%s count=%d errors=%d bytes=%d mean=%.2fms p99=%.2fms max=%.2fms",
+                operation, getCount(), getErrorCount(), getBytes(), getMeanLatencyMillis(),
+                getLatencyPercentileMillis(99), getMaxLatencyMillis());
+    }
+}
@@ -21,22 +21,48 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import org.apache.commons.vfs2.FileSystemOptions;
 
 /**
  * Wrap an output stream for AWS stream upload.  Which unfortunately uses an
  * InputStream.
  * 
- * This OutputStream buffers all data to a local file then automatically uploads
- * it to Amazon S3 after <code>close()</code> is called.
+ * Content is first buffered in memory, in arrays borrowed from the 
+ * file-system's buffer pool, and uploaded from there with a single PUT after
+ * <code>close()</code> is called.  If the content grows past the configured 
+ * memory threshold it is moved to a local temporary file which is uploaded, 
+ * then deleted, on <code>close()</code>.
+ * 
+ * If multipart upload is enabled through {@link SS3FileSystemConfigBuilder} the
+ * content never goes to a file.  Each part is uploaded in the background as 
+ * soon as it's full, and the upload is completed on <code>close()</code>.  
+ * Content smaller than a single part is sent with one regular PUT.  Writing
+ * more than {@link SS3Constants#MAX_UPLOAD_PARTS} parts fails as soon as the
+ * extra part is full, and the upload is aborted.
  * 
  * @author kervin
  */
 public final class SS3OutputStream extends OutputStream 
 {
-    private final File tempFile;
-    private final OutputStream tempFileStream;
     private final SS3FileObject fileObject;
+    private final SS3BufferPool bufferPool;
+    
+    private final boolean multipart;
+    private final long partSize;
+    private final long memoryThreshold;
+    private final int maxPartsInFlight;
+    
+    private SS3MemoryBuffer buffer;
+    private File tempFile;
+    private OutputStream tempFileStream;
+    private SS3MultipartUpload multipartUpload;
+    private boolean closed;
 
+    /**
+     * The local file buffering the content.
+     * 
+     * @return The temporary file, or null while the content is held in memory.
+     */
     public File getTempFile()
     {
         return tempFile;
@@ -46,46 +72,260 @@ public final class SS3OutputStream extends OutputStream
     {
         super();
         
-        tempFile = File.createTempFile("bin", "bin");
-        tempFile.deleteOnExit();
+        fileObject = fo;
         
-        tempFileStream = new BufferedOutputStream(new FileOutputStream(tempFile));
+        SS3FileSystem fs = (SS3FileSystem)fo.getFileSystem();
+        bufferPool = fs.getBufferPool();
         
-        fileObject = fo;
+        SS3FileSystemConfigBuilder builder = SS3FileSystemConfigBuilder.getInstance();
+        FileSystemOptions opts = fs.getFileSystemOptions();
+        
+        multipart = builder.getMultipartUpload(opts);
+        partSize = Math.max(builder.getUploadPartSize(opts), SS3Constants.MIN_UPLOAD_PART_SIZE);
+        memoryThreshold = builder.getMemoryThreshold(opts);
+        maxPartsInFlight = builder.getUploadThreads(opts);
+        
+        buffer = new SS3MemoryBuffer(bufferPool);
+        tempFile = null;
+        tempFileStream = null;
+        multipartUpload = null;
+        closed = false;
     }
 
     @Override
     public void write(int i) throws IOException
     {
-        tempFileStream.write(i);
+        checkOpen();
+        
+        if( tempFileStream != null )
+        {
+            tempFileStream.write(i);
+            
+            return;
+        }
+        
+        buffer.write(i);
+        checkBuffer();
     }
 
     @Override
-    public void close() throws IOException
+    public void write(byte[] bytes, int i, int i1) throws IOException
     {
-        tempFileStream.close();
+        checkOpen();
+        
+        if( tempFileStream != null )
+        {
+            tempFileStream.write(bytes, i, i1);
+            
+            return;
+        }
+        
+        int off = i;
+        int len = i1;
         
-        // Upload tempFile
-        fileObject.putObject(tempFile);
-        tempFile.delete();
+        if( multipart )
+        {
+            // Never let the buffer grow beyond a single part
+            while( len > 0 )
+            {
+                int n = (int)Math.min(len, partSize - buffer.length());
+                buffer.write(bytes, off, n);
+                
+                off += n;
+                len -= n;
+                
+                checkBuffer();
+            }
+        }
+        else if( buffer.length() + len > memoryThreshold )
+        {
+            // Never copy a large write into memory just to spill it
+            spillToTempFile();
+            tempFileStream.write(bytes, off, len);
+        }
+        else
+        {
+            buffer.write(bytes, off, len);
+        }
     }
 
     @Override
-    public void flush() throws IOException
+    public void write(byte[] bytes) throws IOException
     {
-        tempFileStream.flush();
+        write(bytes, 0, bytes.length);
     }
 
     @Override
-    public void write(byte[] bytes, int i, int i1) throws IOException
+    public void flush() throws IOException
     {
-        tempFileStream.write(bytes, i, i1);
+        if( tempFileStream != null )
+        {
+            tempFileStream.flush();
+        }
     }
 
     @Override
-    public void write(byte[] bytes) throws IOException
+    public void close() throws IOException
     {
-        tempFileStream.write(bytes);
+        if( closed )
+        {
+            return;
+        }
+        
+        closed = true;
+        
+        try
+        {
+            if( tempFileStream != null )
+            {
+                tempFileStream.close();
+
+                // Upload tempFile
+                fileObject.putObject(tempFile);
+            }
+            else if( multipartUpload == null )
+            {
+                // Everything fit in memory, upload straight from the buffer
+                fileObject.putObject(buffer.getInputStream(), buffer.length());
+            }
+            else
+            {
+                if( buffer.length() > 0 )
+                {
+                    uploadPart();
+                }
+
+                multipartUpload.complete();
+                fileObject.invalidateBlobProperties();
+            }
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            if( multipartUpload != null )
+            {
+                multipartUpload.abort();
+            }
+            
+            throw ex;
+        }
+        finally
+        {
+            cleanup();
+        }
+    }
+    
+    private void checkOpen() throws IOException
+    {
+        if( closed )
+        {
+            throw new IOException("Stream closed");
+        }
+    }
+    
+    /**
+     * Moves the buffered content on once it reaches its limit.  Either to a 
+     * new multipart upload part or to a temporary file.
+     * 
+     * @throws IOException 
+     */
+    private void checkBuffer() throws IOException
+    {
+        if( multipart )
+        {
+            if( buffer.length() >= partSize )
+            {
+                uploadPart();
+            }
+        }
+        else if( buffer.length() > memoryThreshold )
+        {
+            spillToTempFile();
+        }
+    }
+    
+    /**
+     * Hands the current buffer to the multipart upload, starting the upload 
+     * first if needed, and continues with a fresh buffer.
+     * 
+     * @throws IOException 
+     */
+    private void uploadPart() throws IOException
+    {
+        try
+        {
+            if( multipartUpload == null )
+            {
+                multipartUpload = fileObject.startMultipartUpload(maxPartsInFlight);
+            }
+            
+            SS3MemoryBuffer part = buffer;
+            buffer = new SS3MemoryBuffer(bufferPool);
+            
+            multipartUpload.uploadPart(part);
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            if( multipartUpload != null )
+            {
+                multipartUpload.abort();
+            }
+            
+            closed = true;
+            cleanup();
+            
+            throw ex;
+        }
+    }
+    
+    /**
+     * Moves the content buffered so far to a temporary file, which receives all
+     * further writes.
+     * 
+     * @throws IOException 
+     */
+    private void spillToTempFile() throws IOException
+    {
+        tempFile = File.createTempFile("bin", "bin");
+        
+        try
+        {
+            tempFileStream = new BufferedOutputStream(new FileOutputStream(tempFile));
+            
+            buffer.writeTo(tempFileStream);
+            buffer.release();
+        }
+        catch (IOException ex)
+        {
+            closed = true;
+            cleanup();
+            
+            throw ex;
+        }
+    }
+    
+    /**
+     * Releases the memory buffer and removes the temporary file, if any.
+     */
+    private void cleanup()
+    {
+        buffer.release();
+        
+        if( tempFileStream != null )
+        {
+            try
+            {
+                tempFileStream.close();
+            }
+            catch (IOException ex)
+            {
+                // Nothing more can be done with the file at this point
+            }
+        }
+        
+        if( tempFile != null )
+        {
+            tempFile.delete();
+        }
     }
 
     @Override
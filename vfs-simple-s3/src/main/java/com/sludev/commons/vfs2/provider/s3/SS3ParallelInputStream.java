@@ -0,0 +1,214 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Reads a large object as several byte ranges fetched concurrently.
+ * 
+ * The object is split into parts of a fixed size.  Up to the configured number
+ * of parts are fetched ahead of the reader, on the file-system's worker 
+ * threads, and handed out strictly in order.  Every range request is pinned 
+ * to the ETag seen when the stream was opened, so a concurrent overwrite 
+ * fails the read instead of mixing content from two versions.
+ * 
+ * @author kervin
+ */
+public final class SS3ParallelInputStream extends InputStream
+{
+    private final SS3FileObject fileObject;
+    private final ExecutorService executor;
+    private final String etag;
+    private final long length;
+    private final long partSize;
+    private final int parallelism;
+    private final Deque<Future<byte[]>> pendingParts;
+    
+    private long nextPartStart;
+    private byte[] currPart;
+    private int currPos;
+    private boolean closed;
+
+    /**
+     * Starts fetching the first parts of the object.
+     * 
+     * @param fo The object to read
+     * @param executor Runs the range requests
+     * @param etag The ETag every range must match
+     * @param length The object's content length
+     * @param partSize The size of each range request
+     * @param parallelism The maximum number of ranges fetched at once
+     */
+    SS3ParallelInputStream(SS3FileObject fo, ExecutorService executor, String etag,
+                           long length, long partSize, int parallelism)
+    {
+        this.fileObject = fo;
+        this.executor = executor;
+        this.etag = etag;
+        this.length = length;
+        this.partSize = partSize;
+        this.parallelism = Math.max(parallelism, 1);
+        
+        pendingParts = new ArrayDeque<>();
+        nextPartStart = 0;
+        currPart = null;
+        currPos = 0;
+        closed = false;
+        
+        fillWindow();
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        if( nextPart() == false )
+        {
+            return -1;
+        }
+        
+        return currPart[currPos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        if( len == 0 )
+        {
+            return 0;
+        }
+        
+        if( nextPart() == false )
+        {
+            return -1;
+        }
+        
+        int res = Math.min(len, currPart.length - currPos);
+        System.arraycopy(currPart, currPos, b, off, res);
+        currPos += res;
+        
+        return res;
+    }
+
+    @Override
+    public int available() throws IOException
+    {
+        if( currPart == null )
+        {
+            return 0;
+        }
+        
+        return currPart.length - currPos;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if( closed )
+        {
+            return;
+        }
+        
+        closed = true;
+        currPart = null;
+        
+        for( Future<byte[]> part : pendingParts )
+        {
+            part.cancel(true);
+        }
+        
+        pendingParts.clear();
+    }
+    
+    /**
+     * Makes sure the current part has unread bytes, moving on to the next
+     * part when needed.
+     * 
+     * @return false at the end of the object
+     * @throws IOException 
+     */
+    private boolean nextPart() throws IOException
+    {
+        if( closed )
+        {
+            throw new IOException("Stream closed");
+        }
+        
+        while( currPart == null || currPos >= currPart.length )
+        {
+            Future<byte[]> part = pendingParts.poll();
+            if( part == null )
+            {
+                return false;
+            }
+            
+            try
+            {
+                currPart = part.get();
+                currPos = 0;
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                
+                throw new InterruptedIOException("Interrupted waiting for a part");
+            }
+            catch (ExecutionException ex)
+            {
+                throw new IOException(
+                        String.format("Ranged read of '%s' failed", fileObject.getName()), 
+                        ex.getCause());
+            }
+            
+            fillWindow();
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Requests parts until the maximum number are pending or the end of the 
+     * object is reached.
+     */
+    private void fillWindow()
+    {
+        while( pendingParts.size() < parallelism && nextPartStart < length )
+        {
+            final long start = nextPartStart;
+            final long end = Math.min(start + partSize, length) - 1;
+            
+            pendingParts.add(executor.submit(new Callable<byte[]>()
+            {
+                @Override
+                public byte[] call() throws Exception
+                {
+                    return fileObject.getObjectRange(start, end, etag);
+                }
+            }));
+            
+            nextPartStart = end + 1;
+        }
+    }
+}
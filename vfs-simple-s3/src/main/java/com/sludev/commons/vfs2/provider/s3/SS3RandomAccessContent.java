@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.commons.vfs2.provider.AbstractRandomAccessStreamContent;
+import org.apache.commons.vfs2.util.RandomAccessMode;
+
+/**
+ * Read-only random access to a remote object using ranged GET requests.
+ * 
+ * The object is read in aligned blocks of the configured read-ahead size.
+ * Each block is fetched with one ranged request the first time any byte of it
+ * is needed, and the most recently used blocks are kept in a small cache.  So
+ * small reads near each other, or repeated reads of the same region, don't
+ * each go to the network.
+ * 
+ * @author kervin
+ */
+public class SS3RandomAccessContent extends AbstractRandomAccessStreamContent
+{
+    private final SS3FileObject fileObject;
+    private final long length;
+    private final int blockSize;
+    private final Map<Long, byte[]> blocks;
+    private final DataInputStream dataInputStream;
+    
+    private long filePointer;
+
+    /**
+     * Creates random access content for a remote object.
+     * 
+     * @param fo The object to read
+     * @param mode The access mode.  Only reading is supported
+     * @param length The object's content length
+     * @param blockSize The size of every ranged request
+     * @param maxBlocks The number of blocks kept in the cache
+     */
+    protected SS3RandomAccessContent(SS3FileObject fo, RandomAccessMode mode, long length,
+                                     int blockSize, final int maxBlocks)
+    {
+        super(mode);
+        
+        this.fileObject = fo;
+        this.length = length;
+        this.blockSize = blockSize;
+        
+        blocks = new LinkedHashMap<Long, byte[]>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest)
+            {
+                return size() > Math.max(maxBlocks, 1);
+            }
+        };
+        
+        filePointer = 0;
+        
+        dataInputStream = new DataInputStream(new BlockInputStream());
+    }
+
+    @Override
+    public long getFilePointer() throws IOException
+    {
+        return filePointer;
+    }
+
+    @Override
+    public void seek(long pos) throws IOException
+    {
+        if( pos < 0 )
+        {
+            throw new IOException(String.format("Invalid seek position %d", pos));
+        }
+        
+        filePointer = pos;
+    }
+
+    @Override
+    public long length() throws IOException
+    {
+        return length;
+    }
+
+    @Override
+    protected DataInputStream getDataInputStream() throws IOException
+    {
+        return dataInputStream;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        blocks.clear();
+    }
+    
+    /**
+     * Reads from the current file pointer, at most up to the end of the 
+     * block it falls in.
+     */
+    private int readAt(byte[] b, int off, int len) throws IOException
+    {
+        if( len == 0 )
+        {
+            return 0;
+        }
+        
+        if( filePointer >= length )
+        {
+            return -1;
+        }
+        
+        long blockStart = (filePointer / blockSize) * blockSize;
+        byte[] block = getBlock(blockStart);
+        
+        int pos = (int)(filePointer - blockStart);
+        int res = Math.min(len, block.length - pos);
+        System.arraycopy(block, pos, b, off, res);
+        
+        filePointer += res;
+        
+        return res;
+    }
+    
+    private byte[] getBlock(long blockStart) throws IOException
+    {
+        byte[] res = blocks.get(blockStart);
+        if( res == null )
+        {
+            long blockEnd = Math.min(blockStart + blockSize, length) - 1;
+            
+            res = fileObject.getObjectRange(blockStart, blockEnd);
+            blocks.put(blockStart, res);
+        }
+        
+        return res;
+    }
+    
+    /**
+     * Reads from the block cache at the current file pointer.
+     */
+    private class BlockInputStream extends InputStream
+    {
+        @Override
+        public int read() throws IOException
+        {
+            byte[] b = new byte[1];
+            
+            int res = read(b, 0, 1);
+            if( res < 0 )
+            {
+                return res;
+            }
+            
+            return b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            return readAt(b, off, len);
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            long res = Math.max(Math.min(n, length - filePointer), 0);
+            filePointer += res;
+            
+            return res;
+        }
+
+        @Override
+        public int available() throws IOException
+        {
+            return (int)Math.max(Math.min(length - filePointer, 
+                                          blockSize - (filePointer % blockSize)), 0);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single S3 request, as seen by a {@link SS3RequestListener}.
+ * 
+ * @author kervin
+ */
+public final class SS3RequestEvent
+{
+    /**
+     * The status of a request that hasn't finished, or that failed without a
+     * response from S3.
+     */
+    public static final int STATUS_NONE = 0;
+    
+    /**
+     * The status of a request that succeeded.  This isn't an HTTP status, 
+     * since S3's 2xx or 304 status isn't passed back by the client.
+     */
+    public static final int STATUS_NO_ERROR = -1;
+    
+    private final SS3Operation operation;
+    private final String bucket;
+    private final String key;
+    private final long bytes;
+    private final int status;
+    private final long durationNanos;
+    private final Throwable failure;
+
+    SS3RequestEvent(SS3Operation operation, String bucket, String key, long bytes, 
+                    int status, long durationNanos, Throwable failure)
+    {
+        this.operation = operation;
+        this.bucket = bucket;
+        this.key = key;
+        this.bytes = bytes;
+        this.status = status;
+        this.durationNanos = durationNanos;
+        this.failure = failure;
+    }
+    
+    public SS3Operation getOperation()
+    {
+        return operation;
+    }
+
+    /**
+     * The request's container.
+     * 
+     * @return The bucket, or null if unknown
+     */
+    public String getBucket()
+    {
+        return bucket;
+    }
+
+    /**
+     * The request's object key.  The prefix for listings.
+     * 
+     * @return The key, or null if the request has none
+     */
+    public String getKey()
+    {
+        return key;
+    }
+
+    /**
+     * The content bytes sent, or received once the request has finished.
+     * 
+     * @return The byte count, or 0 if unknown
+     */
+    public long getBytes()
+    {
+        return bytes;
+    }
+
+    /**
+     * The HTTP status of a failed request, or {@link #STATUS_NO_ERROR} if 
+     * the request succeeded.
+     * 
+     * @return The status, or {@link #STATUS_NONE} if there was no response
+     */
+    public int getStatus()
+    {
+        return status;
+    }
+
+    /**
+     * How long the request took.
+     * 
+     * @param unit
+     * @return The duration, or 0 if the request hasn't finished
+     */
+    public long getDuration(TimeUnit unit)
+    {
+        return unit.convert(durationNanos, TimeUnit.NANOSECONDS);
+    }
+    
+    /**
+     * @return The request's exception, or null if it succeeded
+     */
+    public Throwable getFailure()
+    {
+        return failure;
+    }
+    
+    public boolean isSuccessful()
+    {
+        return status == STATUS_NO_ERROR;
+    }
+    
+    @Override
+    public String toString()
+    {
+        return String.format("%s '%s' : '%s' status=%d bytes=%d duration=%dms", 
+                operation, bucket, key, status, bytes, getDuration(TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+/**
+ * Told about each S3 request a file-system makes, as it starts and once it
+ * has finished.
+ * 
+ * Both calls are made on the thread making the request, so they should 
+ * return quickly.  An exception thrown by a listener is logged and doesn't
+ * affect the request.
+ * 
+ * @author kervin
+ * @see SS3FileSystem#addRequestListener
+ */
+public interface SS3RequestListener
+{
+    /**
+     * Called before the request is sent.
+     * 
+     * @param event The request.  The status and duration are not yet known.
+     */
+    void requestStarted(SS3RequestEvent event);
+    
+    /**
+     * Called once the request succeeds or fails.
+     * 
+     * @param event The request and its outcome
+     */
+    void requestFinished(SS3RequestEvent event);
+}
@@ -0,0 +1,517 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Wraps a client so reads are retried when S3 throttles them, and so slow
+ * reads are hedged.
+ * 
+ * Only HEAD, GET and list requests are handled here.  They're idempotent, so
+ * they're safe to send more than once.  A read answered with '503 SlowDown'
+ * is retried after an exponential backoff with jitter, up to the configured
+ * number of times.  The client's own retry policy doesn't retry these, see
+ * {@link SS3ThrottleRetryCondition}.
+ * 
+ * A HEAD, ranged GET or list that hasn't been answered within its latency 
+ * budget is hedged by sending the same request again.  The first response
+ * wins.  The budget is the configured percentile of the last successful first
+ * attempts of the same kind, but never below the configured delay.  Hedges,
+ * failures such as a HEAD's 404, and single-key listings used to probe for 
+ * folders don't count towards the budget of the other requests.  Whole-object
+ * GETs aren't hedged, since a duplicate could download the whole object twice.
+ * 
+ * Requests that may be hedged run on the file-system's hedge threads, so the
+ * caller can return with whichever response arrives first.  A blocked request
+ * can't be interrupted, so one running on the caller's thread couldn't be 
+ * abandoned.  When no hedge thread is free the request runs on the caller's
+ * thread instead and isn't hedged, and a hedge that finds no free thread is
+ * skipped.
+ * 
+ * Each attempt goes through the wrapped client, so retries and hedges show up
+ * in the file-system's metrics and request listeners.
+ * 
+ * @author kervin
+ */
+final class SS3RetryingClient implements InvocationHandler
+{
+    private static final Logger log = LoggerFactory.getLogger(SS3RetryingClient.class);
+    
+    /**
+     * The longest wait before a retry, in milliseconds.
+     */
+    private static final long MAX_BACKOFF = 20000;
+    
+    /**
+     * The number of latencies each hedging budget is worked out from.
+     */
+    private static final int WINDOW_SIZE = 256;
+    
+    /**
+     * The latencies recorded before the hedging budget follows the percentile.
+     */
+    private static final int MIN_HEDGE_SAMPLES = 20;
+    
+    private final AmazonS3 client;
+    private final SS3FileSystem fileSystem;
+    private final int maxRetries;
+    private final long backoff;
+    private final Double hedgePercentile;
+    private final long hedgeDelay;
+    
+    private final LatencyWindow headLatencies;
+    private final LatencyWindow rangeLatencies;
+    private final LatencyWindow listLatencies;
+    private final LatencyWindow probeLatencies;
+
+    private SS3RetryingClient(AmazonS3 client, SS3FileSystem fileSystem)
+    {
+        this.client = client;
+        this.fileSystem = fileSystem;
+        
+        FileSystemOptions opts = fileSystem.getFileSystemOptions();
+        SS3FileSystemConfigBuilder builder = SS3FileSystemConfigBuilder.getInstance();
+        
+        maxRetries = builder.getThrottleRetries(opts);
+        backoff = Math.max(builder.getThrottleBackoff(opts), 1);
+        hedgePercentile = builder.getHedgePercentile(opts);
+        hedgeDelay = builder.getHedgeDelay(opts);
+        
+        headLatencies = new LatencyWindow();
+        rangeLatencies = new LatencyWindow();
+        listLatencies = new LatencyWindow();
+        probeLatencies = new LatencyWindow();
+    }
+    
+    /**
+     * Wraps the client if retries or hedging are enabled for the file-system.
+     * 
+     * @param client The client making the requests
+     * @param fileSystem The file-system whose options and hedge threads are
+     *                   used
+     * @return The wrapped client, or the client itself if neither is enabled
+     */
+    static AmazonS3 wrap(AmazonS3 client, SS3FileSystem fileSystem)
+    {
+        FileSystemOptions opts = fileSystem.getFileSystemOptions();
+        SS3FileSystemConfigBuilder builder = SS3FileSystemConfigBuilder.getInstance();
+        
+        if( builder.getThrottleRetries(opts) <= 0 && builder.getHedgePercentile(opts) == null )
+        {
+            return client;
+        }
+        
+        return (AmazonS3)Proxy.newProxyInstance(AmazonS3.class.getClassLoader(), 
+                new Class<?>[] { AmazonS3.class }, 
+                new SS3RetryingClient(client, fileSystem));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+    {
+        SS3Operation op = getOperation(method);
+        if( op == null )
+        {
+            return invokeClient(method, args);
+        }
+        
+        LatencyWindow window = null;
+        if( hedgePercentile != null && isHedgeable(op, args) )
+        {
+            window = getLatencyWindow(op, args);
+        }
+        
+        for( int attempt = 0; ; attempt++ )
+        {
+            try
+            {
+                if( window != null )
+                {
+                    return invokeHedged(op, window, method, args);
+                }
+                
+                return invokeClient(method, args);
+            }
+            catch (AmazonServiceException ex)
+            {
+                if( isThrottled(ex) == false || attempt >= maxRetries )
+                {
+                    throw ex;
+                }
+                
+                long delay = getBackoff(attempt);
+                
+                log.debug( String.format("%s throttled, retry %d of %d in %d ms", 
+                        op, attempt + 1, maxRetries, delay));
+                
+                try
+                {
+                    Thread.sleep(delay);
+                }
+                catch (InterruptedException iex)
+                {
+                    Thread.currentThread().interrupt();
+                    
+                    throw new AmazonClientException("Interrupted while waiting to retry", iex);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Sends a request, and sends it again if the first hasn't been answered 
+     * within the budget.
+     */
+    private Object invokeHedged(SS3Operation op, final LatencyWindow window, 
+                                final Method method, final Object[] args) throws Exception
+    {
+        // Holds the first result, boxed since a result can be null
+        final AtomicReference<Object[]> winner = new AtomicReference<>();
+        
+        Callable<Object> original = new Callable<Object>()
+        {
+            @Override
+            public Object call() throws Exception
+            {
+                long start = System.nanoTime();
+                Object res = invokeClient(method, args);
+                
+                // A first attempt that lost to its hedge would raise the 
+                // budget, and so stop hedging the slow requests it's for
+                if( offer(winner, res) )
+                {
+                    window.record(System.nanoTime() - start);
+                }
+                
+                return res;
+            }
+        };
+        
+        Callable<Object> duplicate = new Callable<Object>()
+        {
+            @Override
+            public Object call() throws Exception
+            {
+                Object res = invokeClient(method, args);
+                
+                offer(winner, res);
+                
+                return res;
+            }
+        };
+        
+        CompletionService<Object> done = new ExecutorCompletionService<>(fileSystem.getHedgeExecutor());
+        List<Future<Object>> pending = new ArrayList<>(2);
+        
+        try
+        {
+            pending.add(done.submit(original));
+        }
+        catch (RejectedExecutionException ex)
+        {
+            // No thread to hedge with, so there's no reason to leave this one
+            return original.call();
+        }
+        
+        try
+        {
+            long budget = getHedgeBudget(window);
+            Future<Object> next = done.poll(budget, TimeUnit.MILLISECONDS);
+            if( next == null )
+            {
+                try
+                {
+                    pending.add(done.submit(duplicate));
+                    
+                    log.debug( String.format("%s not answered within %d ms, hedged", op, budget));
+                }
+                catch (RejectedExecutionException ex)
+                {
+                    log.debug( String.format("%s not answered within %d ms, no thread to hedge", 
+                            op, budget));
+                }
+                
+                next = done.take();
+            }
+            
+            int remaining = pending.size();
+            Throwable failure = null;
+            
+            while( true )
+            {
+                try
+                {
+                    next.get();
+                    
+                    return winner.get()[0];
+                }
+                catch (ExecutionException ex)
+                {
+                    if( failure == null )
+                    {
+                        failure = ex.getCause();
+                    }
+                    
+                    if( --remaining == 0 )
+                    {
+                        throw rethrow(failure);
+                    }
+                    
+                    next = done.take();
+                }
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            
+            throw new AmazonClientException("Interrupted while waiting for a response", ex);
+        }
+        finally
+        {
+            // Stops the slower request if it hasn't started.  Its result is 
+            // discarded if it arrives.
+            for( Future<Object> curr : pending )
+            {
+                curr.cancel(true);
+            }
+        }
+    }
+    
+    private Object invokeClient(Method method, Object[] args) throws Exception
+    {
+        try
+        {
+            return method.invoke(client, args);
+        }
+        catch (InvocationTargetException ex)
+        {
+            throw rethrow(ex.getCause());
+        }
+    }
+    
+    private static Exception rethrow(Throwable ex)
+    {
+        if( ex instanceof Error )
+        {
+            throw (Error)ex;
+        }
+        
+        if( ex instanceof Exception )
+        {
+            return (Exception)ex;
+        }
+        
+        return new UndeclaredThrowableException(ex);
+    }
+    
+    /**
+     * Keeps the first result, and releases the connection of any later one.
+     * 
+     * @return True if the result was the first
+     */
+    private static boolean offer(AtomicReference<Object[]> winner, Object res)
+    {
+        if( winner.compareAndSet(null, new Object[] { res }) )
+        {
+            return true;
+        }
+        
+        if( res instanceof S3Object )
+        {
+            ((S3Object)res).getObjectContent().abort();
+        }
+        
+        return false;
+    }
+    
+    /**
+     * The time to wait for a response before hedging.
+     * 
+     * @return The budget in milliseconds
+     */
+    private long getHedgeBudget(LatencyWindow window)
+    {
+        Long res = window.getPercentileMillis(hedgePercentile);
+        if( res == null )
+        {
+            return hedgeDelay;
+        }
+        
+        return Math.max(hedgeDelay, res);
+    }
+    
+    /**
+     * Exponential backoff with equal jitter.  Half the delay is fixed and half
+     * random, so throttled clients spread out but always wait.
+     * 
+     * @param attempt The number of retries already made
+     * @return The delay in milliseconds
+     */
+    private long getBackoff(int attempt)
+    {
+        long res = Math.min(MAX_BACKOFF, backoff << Math.min(attempt, 30));
+        
+        return res / 2 + ThreadLocalRandom.current().nextLong(res / 2 + 1);
+    }
+    
+    static boolean isThrottled(AmazonServiceException ex)
+    {
+        return ex.getStatusCode() == 503 || "SlowDown".equals(ex.getErrorCode());
+    }
+    
+    /**
+     * Maps a client method to the read it makes.
+     * 
+     * @param method
+     * @return The operation, or null if the method isn't a read
+     */
+    private static SS3Operation getOperation(Method method)
+    {
+        switch( method.getName() )
+        {
+            case "getObjectMetadata":
+                return SS3Operation.HEAD_OBJECT;
+                
+            case "getObject":
+                return SS3Operation.GET_OBJECT;
+                
+            case "listObjects":
+            case "listNextBatchOfObjects":
+                return SS3Operation.LIST_OBJECTS;
+                
+            default:
+                return null;
+        }
+    }
+    
+    /**
+     * GETs are only hedged for a range, and only when the content is 
+     * returned rather than written to a file.
+     */
+    private static boolean isHedgeable(SS3Operation op, Object[] args)
+    {
+        if( op == SS3Operation.GET_OBJECT )
+        {
+            return args.length == 1 && args[0] instanceof GetObjectRequest
+                    && ((GetObjectRequest)args[0]).getRange() != null;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * The latencies of requests like this one.  Single-key listings are 
+     * kept apart from full pages.
+     */
+    private LatencyWindow getLatencyWindow(SS3Operation op, Object[] args)
+    {
+        switch( op )
+        {
+            case HEAD_OBJECT:
+                return headLatencies;
+                
+            case GET_OBJECT:
+                return rangeLatencies;
+                
+            default:
+                if( args.length > 0 && args[0] instanceof ListObjectsRequest )
+                {
+                    Integer maxKeys = ((ListObjectsRequest)args[0]).getMaxKeys();
+                    if( maxKeys != null && maxKeys <= 1 )
+                    {
+                        return probeLatencies;
+                    }
+                }
+                
+                return listLatencies;
+        }
+    }
+    
+    /**
+     * The latencies of the last successful first attempts of one kind that
+     * answered before their hedge.
+     */
+    private static final class LatencyWindow
+    {
+        private final long[] samples = new long[WINDOW_SIZE];
+        private int next;
+        private int count;
+        
+        synchronized void record(long nanos)
+        {
+            samples[next] = nanos;
+            next = (next + 1) % WINDOW_SIZE;
+            
+            if( count < WINDOW_SIZE )
+            {
+                count++;
+            }
+        }
+        
+        /**
+         * @return The percentile in milliseconds, rounded up, or null if too
+         *         few latencies have been recorded
+         */
+        Long getPercentileMillis(double percentile)
+        {
+            long[] sorted;
+            synchronized( this )
+            {
+                if( count < MIN_HEDGE_SAMPLES )
+                {
+                    return null;
+                }
+                
+                sorted = Arrays.copyOf(samples, count);
+            }
+            
+            Arrays.sort(sorted);
+            
+            int index = (int)Math.ceil(sorted.length * Math.min(Math.max(percentile, 0), 100) / 100) - 1;
+            long nanos = sorted[Math.min(Math.max(index, 0), sorted.length - 1)];
+            
+            return (nanos + TimeUnit.MILLISECONDS.toNanos(1) - 1) / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+    }
+}
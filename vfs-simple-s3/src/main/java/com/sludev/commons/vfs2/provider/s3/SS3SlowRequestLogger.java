@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logs every S3 request slower than a threshold as a warning.  Failed requests
+ * are logged at debug level, and every request at trace level.
+ * 
+ * Added to each file-system when {@link SS3FileSystemConfigBuilder#setSlowRequestThreshold}
+ * is set.  Repeated requests for the same key in the log point to VFS calls
+ * that make more round-trips than they need.
+ * 
+ * @author kervin
+ */
+public class SS3SlowRequestLogger implements SS3RequestListener
+{
+    private static final Logger log = LoggerFactory.getLogger(SS3SlowRequestLogger.class);
+    
+    private final long thresholdNanos;
+
+    /**
+     * @param threshold Requests taking at least this long are logged
+     * @param unit The threshold's unit
+     */
+    public SS3SlowRequestLogger(long threshold, TimeUnit unit)
+    {
+        thresholdNanos = unit.toNanos(threshold);
+    }
+
+    @Override
+    public void requestStarted(SS3RequestEvent event)
+    {
+        if( log.isTraceEnabled() )
+        {
+            log.trace( String.format("Started S3 request %s", event));
+        }
+    }
+
+    @Override
+    public void requestFinished(SS3RequestEvent event)
+    {
+        if( event.getDuration(TimeUnit.NANOSECONDS) >= thresholdNanos )
+        {
+            log.warn( String.format("Slow S3 request %s", event));
+        }
+        else if( event.isSuccessful() == false )
+        {
+            log.debug( String.format("Failed S3 request %s", event), event.getFailure());
+        }
+        else if( log.isTraceEnabled() )
+        {
+            log.trace( String.format("Finished S3 request %s", event));
+        }
+    }
+}
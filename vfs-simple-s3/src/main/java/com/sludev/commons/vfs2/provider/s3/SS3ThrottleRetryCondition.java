@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
+import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Stops the client retrying throttled reads, since {@link SS3RetryingClient}
+ * retries them instead.  Without this, each of the client's attempts would be 
+ * retried again by the file-system.  Every other failure is left to the 
+ * wrapped policy.
+ * 
+ * @author kervin
+ */
+final class SS3ThrottleRetryCondition implements RetryPolicy.RetryCondition
+{
+    /**
+     * Wrapped policies, so file-systems with the same policy still share a
+     * client.
+     */
+    private static final Map<RetryPolicy, RetryPolicy> POLICIES = new WeakHashMap<>();
+    
+    private final RetryPolicy.RetryCondition condition;
+
+    private SS3ThrottleRetryCondition(RetryPolicy.RetryCondition condition)
+    {
+        this.condition = condition;
+    }
+    
+    /**
+     * A policy like the given one, except throttled reads aren't retried.
+     * 
+     * @param policy The client's policy, or null for the client default
+     * @return The policy.  The same one is returned for the same argument.
+     */
+    static synchronized RetryPolicy wrap(RetryPolicy policy)
+    {
+        RetryPolicy base = policy == null ? PredefinedRetryPolicies.DEFAULT : policy;
+        
+        RetryPolicy res = POLICIES.get(base);
+        if( res == null )
+        {
+            res = new RetryPolicy(new SS3ThrottleRetryCondition(base.getRetryCondition()),
+                    base.getBackoffStrategy(), base.getMaxErrorRetry(), 
+                    base.isMaxErrorRetryInClientConfigHonored());
+            
+            POLICIES.put(base, res);
+        }
+        
+        return res;
+    }
+
+    @Override
+    public boolean shouldRetry(AmazonWebServiceRequest originalRequest, 
+                               AmazonClientException exception, int retriesAttempted)
+    {
+        if( isRead(originalRequest) && exception instanceof AmazonServiceException
+                && SS3RetryingClient.isThrottled((AmazonServiceException)exception) )
+        {
+            return false;
+        }
+        
+        return condition.shouldRetry(originalRequest, exception, retriesAttempted);
+    }
+    
+    /**
+     * The requests retried by {@link SS3RetryingClient}.
+     */
+    private static boolean isRead(AmazonWebServiceRequest req)
+    {
+        return req instanceof GetObjectMetadataRequest
+                || req instanceof GetObjectRequest
+                || req instanceof ListObjectsRequest;
+    }
+}
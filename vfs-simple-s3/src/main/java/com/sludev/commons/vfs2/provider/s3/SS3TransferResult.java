@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import java.io.File;
+
+/**
+ * The outcome of transferring one file in a bulk upload or download.
+ *
+ * @author kervin
+ */
+public final class SS3TransferResult
+{
+    private final File localFile;
+    private final String key;
+    private final long size;
+    private final boolean skipped;
+    private final Exception failure;
+
+    private SS3TransferResult(File localFile, String key, long size,
+                              boolean skipped, Exception failure)
+    {
+        this.localFile = localFile;
+        this.key = key;
+        this.size = size;
+        this.skipped = skipped;
+        this.failure = failure;
+    }
+
+    static SS3TransferResult transferred(File localFile, String key, long size)
+    {
+        return new SS3TransferResult(localFile, key, size, false, null);
+    }
+
+    static SS3TransferResult skipped(File localFile, String key, long size)
+    {
+        return new SS3TransferResult(localFile, key, size, true, null);
+    }
+
+    static SS3TransferResult failed(File localFile, String key, long size, Exception failure)
+    {
+        return new SS3TransferResult(localFile, key, size, false, failure);
+    }
+
+    /**
+     * The local file.
+     *
+     * @return The file, or null if the key has no valid local path
+     */
+    public File getLocalFile()
+    {
+        return localFile;
+    }
+
+    /**
+     * The object key in the container.
+     *
+     * @return
+     */
+    public String getKey()
+    {
+        return key;
+    }
+
+    /**
+     * The size of the file in bytes.
+     *
+     * @return
+     */
+    public long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Whether the file was left alone because it was already up to date.
+     *
+     * @return
+     */
+    public boolean isSkipped()
+    {
+        return skipped;
+    }
+
+    /**
+     * Whether the file was transferred, or skipped, without error.
+     *
+     * @return
+     */
+    public boolean isSuccessful()
+    {
+        return failure == null;
+    }
+
+    /**
+     * Why the transfer failed.
+     *
+     * @return The failure, or null if the transfer succeeded
+     */
+    public Exception getFailure()
+    {
+        return failure;
+    }
+
+    @Override
+    public String toString()
+    {
+        String res;
+
+        if( failure != null )
+        {
+            res = String.format("'%s' <-> '%s' failed : %s", localFile, key, failure);
+        }
+        else if( skipped )
+        {
+            res = String.format("'%s' <-> '%s' skipped", localFile, key);
+        }
+        else
+        {
+            res = String.format("'%s' <-> '%s' transferred, %d bytes", localFile, key, size);
+        }
+
+        return res;
+    }
+}
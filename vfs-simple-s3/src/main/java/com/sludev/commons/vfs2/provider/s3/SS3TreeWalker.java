@@ -0,0 +1,247 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSelectInfo;
+import org.apache.commons.vfs2.FileSelector;
+import org.apache.commons.vfs2.NameScope;
+
+/**
+ * Walks a folder tree from a single flat listing of every key beneath it.
+ *
+ * S3 lists keys in order, so the keys under any folder arrive together.  The
+ * walk keeps a stack of the folders the current key is in, opening folders as
+ * keys enter them and finishing them as keys leave.  Folders are never listed
+ * on their own, and only the current branch is held in memory.
+ *
+ * The selector sees the same sequence of calls as with the default VFS walk,
+ * and the same files are selected in the same pre- or post-order.  Siblings
+ * come in key order.
+ *
+ * @author kervin
+ */
+final class SS3TreeWalker
+{
+    private final SS3FileObject baseFolder;
+    private final FileSelector selector;
+    private final boolean depthwise;
+    private final List<FileObject> selected;
+    private final SelectInfo info;
+    private final Deque<Folder> folders;
+
+    /**
+     * Creates a walk of a folder.
+     *
+     * @param baseFolder The folder to walk
+     * @param selector Selects the files to return
+     * @param depthwise true to return files before the folders holding them
+     * @param selected Receives the selected files
+     */
+    SS3TreeWalker(SS3FileObject baseFolder, FileSelector selector, boolean depthwise,
+                  List<FileObject> selected)
+    {
+        this.baseFolder = baseFolder;
+        this.selector = selector;
+        this.depthwise = depthwise;
+        this.selected = selected;
+
+        info = new SelectInfo(baseFolder);
+        folders = new ArrayDeque<>();
+    }
+
+    /**
+     * Walks the tree.
+     *
+     * @throws Exception any failure of the listing or the selector
+     */
+    void walk() throws Exception
+    {
+        Pair<String, String> path = baseFolder.getContainerAndPath();
+        String prefix = SS3FileObject.getFolderPrefix(path.getRight());
+
+        openFolder(baseFolder, "", 0);
+
+        if( folders.peek().traverse )
+        {
+            for( Iterator<ObjectListing> it = baseFolder.listTree(); it.hasNext(); )
+            {
+                for( S3ObjectSummary osum : it.next().getObjectSummaries() )
+                {
+                    visit(path.getLeft(), prefix, osum);
+                }
+            }
+        }
+
+        while( folders.isEmpty() == false )
+        {
+            finishFolder(folders.pop());
+        }
+    }
+
+    /**
+     * Handles one listed key.
+     *
+     * @param bucket The container
+     * @param prefix The base folder's prefix
+     * @param osum The listed key
+     * @throws Exception
+     */
+    private void visit(String bucket, String prefix, S3ObjectSummary osum) throws Exception
+    {
+        String relKey = osum.getKey().substring(prefix.length());
+
+        // Leave the folders this key is not in
+        while( relKey.startsWith(folders.peek().relPath) == false )
+        {
+            finishFolder(folders.pop());
+        }
+
+        // Enter the folders holding the key.  A key ending in a slash is an
+        // empty object marking a folder, so it only opens that folder.
+        int end = relKey.lastIndexOf('/') + 1;
+        for( int i = relKey.indexOf('/', folders.peek().relPath.length());
+                i >= 0 && i < end; i = relKey.indexOf('/', i + 1) )
+        {
+            if( folders.peek().traverse == false )
+            {
+                return;
+            }
+
+            String relPath = relKey.substring(0, i + 1);
+            FileObject file = baseFolder.resolveListed(bucket, prefix + relPath,
+                                    SS3ObjectInfo.FOLDER, NameScope.DESCENDENT);
+
+            openFolder(file, relPath, folders.peek().depth + 1);
+        }
+
+        if( end == relKey.length() || folders.peek().traverse == false )
+        {
+            return;
+        }
+
+        FileObject file = baseFolder.resolveListed(bucket, osum.getKey(),
+                                SS3ObjectInfo.fromSummary(osum), NameScope.DESCENDENT);
+
+        info.set(file, folders.peek().depth + 1);
+        if( selector.includeFile(info) )
+        {
+            selected.add(file);
+        }
+    }
+
+    /**
+     * Starts a folder, asking the selector whether to walk into it.
+     *
+     * @param file The folder
+     * @param relPath Its path relative to the base folder, ending in a slash
+     * @param depth Its depth below the base folder
+     * @throws Exception
+     */
+    private void openFolder(FileObject file, String relPath, int depth) throws Exception
+    {
+        info.set(file, depth);
+
+        folders.push(new Folder(file, relPath, depth, selected.size(),
+                                selector.traverseDescendents(info)));
+    }
+
+    /**
+     * Ends a folder once everything beneath it has been seen, asking the
+     * selector whether to include the folder itself.
+     *
+     * @param folder
+     * @throws Exception
+     */
+    private void finishFolder(Folder folder) throws Exception
+    {
+        info.set(folder.file, folder.depth);
+
+        if( selector.includeFile(info) )
+        {
+            if( depthwise )
+            {
+                selected.add(folder.file);
+            }
+            else
+            {
+                selected.add(folder.index, folder.file);
+            }
+        }
+    }
+
+    private static final class Folder
+    {
+        private final FileObject file;
+        private final String relPath;
+        private final int depth;
+        private final int index;
+        private final boolean traverse;
+
+        private Folder(FileObject file, String relPath, int depth, int index, boolean traverse)
+        {
+            this.file = file;
+            this.relPath = relPath;
+            this.depth = depth;
+            this.index = index;
+            this.traverse = traverse;
+        }
+    }
+
+    private static final class SelectInfo implements FileSelectInfo
+    {
+        private final FileObject baseFolder;
+        private FileObject file;
+        private int depth;
+
+        private SelectInfo(FileObject baseFolder)
+        {
+            this.baseFolder = baseFolder;
+        }
+
+        private void set(FileObject file, int depth)
+        {
+            this.file = file;
+            this.depth = depth;
+        }
+
+        @Override
+        public FileObject getBaseFolder()
+        {
+            return baseFolder;
+        }
+
+        @Override
+        public FileObject getFile()
+        {
+            return file;
+        }
+
+        @Override
+        public int getDepth()
+        {
+            return depth;
+        }
+    }
+}
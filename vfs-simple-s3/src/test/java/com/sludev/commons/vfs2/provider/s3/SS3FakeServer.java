@@ -0,0 +1,1476 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.auth.StaticUserAuthenticator;
+import org.apache.commons.vfs2.impl.DefaultFileSystemConfigBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in-memory stand-in for Amazon S3, served over HTTP on the loopback
+ * interface.
+ *
+ * Only the requests the provider makes are supported: object HEAD, GET
+ * (including ranges, If-Match and If-None-Match), PUT, copy and DELETE, batch
+ * deletes, listings and multipart uploads and copies.  Copies honour 
+ * 'x-amz-copy-source-if-match', and user metadata ('x-amz-meta-*' headers) is
+ * stored, returned and copied.  Requests are not authenticated.
+ * Buckets are addressed by path, so clients must use path-style access.
+ *
+ * A fixed latency can be added to every request to approximate a remote
+ * endpoint.  Every request is recorded with its operation, sizes and latency,
+ * so tests can check how many round-trips an operation makes.  Throttling
+ * and slow responses can be injected for the next requests of a type.
+ *
+ * @author kervin
+ */
+public class SS3FakeServer
+{
+    private static final Logger log = LoggerFactory.getLogger(SS3FakeServer.class);
+
+    private static final Pattern KEY_PATTERN = Pattern.compile("<Key>(.*?)</Key>", Pattern.DOTALL);
+    private static final Pattern PART_PATTERN = Pattern.compile("<PartNumber>(\\d+)</PartNumber>");
+    private static final String METADATA_PREFIX = "x-amz-meta-";
+    private static final Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d*)-(\\d*)");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ConcurrentMap<String, ConcurrentNavigableMap<String, StoredObject>> buckets;
+    private final ConcurrentMap<String, Upload> uploads;
+    private final Queue<RecordedRequest> requests;
+    private final ConcurrentMap<Operation, Queue<Fault>> faults;
+
+    private volatile long latency;
+
+    /**
+     * Creates a server on a free loopback port.  It doesn't accept requests
+     * until started.
+     *
+     * @throws IOException if no port could be bound
+     */
+    public SS3FakeServer() throws IOException
+    {
+        buckets = new ConcurrentHashMap<>();
+        uploads = new ConcurrentHashMap<>();
+        requests = new ConcurrentLinkedQueue<>();
+        faults = new ConcurrentHashMap<>();
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler()
+        {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                handleRequest(exchange);
+            }
+        });
+
+        executor = Executors.newCachedThreadPool(new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread res = new Thread(r, String.format("ss3-fake-%d", count.incrementAndGet()));
+                res.setDaemon(true);
+
+                return res;
+            }
+        });
+        server.setExecutor(executor);
+    }
+
+    public void start()
+    {
+        server.start();
+    }
+
+    public void stop()
+    {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * The URL clients should use as their endpoint.
+     *
+     * @return
+     */
+    public String getEndpoint()
+    {
+        InetSocketAddress addr = server.getAddress();
+
+        return String.format("http://%s:%d", addr.getAddress().getHostAddress(), addr.getPort());
+    }
+
+    /**
+     * Delays every request by a fixed time before it's handled.
+     *
+     * @param millis The delay in milliseconds, or 0 for none
+     */
+    public void setLatency(long millis)
+    {
+        latency = millis;
+    }
+
+    public long getLatency()
+    {
+        return latency;
+    }
+
+    /**
+     * Creates a provider whose clients talk to this server.
+     *
+     * @return
+     */
+    public SS3FileProvider createProvider()
+    {
+        SS3FileProvider res = new SS3FileProvider();
+        res.setEndpoint(getEndpoint());
+
+        return res;
+    }
+
+    /**
+     * Creates file-system options with placeholder credentials and path-style
+     * access, as this server needs.
+     *
+     * @return
+     * @throws FileSystemException
+     */
+    public FileSystemOptions createOptions() throws FileSystemException
+    {
+        FileSystemOptions res = new FileSystemOptions();
+
+        StaticUserAuthenticator auth = new StaticUserAuthenticator("", "fake-access-id", "fake-secret");
+        DefaultFileSystemConfigBuilder.getInstance().setUserAuthenticator(res, auth);
+        SS3FileSystemConfigBuilder.getInstance().setPathStyleAccess(res, true);
+
+        return res;
+    }
+
+    /**
+     * Creates an empty bucket, if it doesn't already exist.
+     *
+     * @param bucket
+     */
+    public void createBucket(String bucket)
+    {
+        buckets.putIfAbsent(bucket, new ConcurrentSkipListMap<String, StoredObject>());
+    }
+
+    /**
+     * Stores an object directly, without a request.
+     *
+     * @param bucket
+     * @param key
+     * @param content
+     */
+    public void putObject(String bucket, String key, byte[] content)
+    {
+        createBucket(bucket);
+
+        putObject(bucket, key, content, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Stores an object and its user metadata directly, without a request.
+     *
+     * @param bucket
+     * @param key
+     * @param content
+     * @param metadata The user metadata, without the 'x-amz-meta-' prefix
+     */
+    public void putObject(String bucket, String key, byte[] content, Map<String, String> metadata)
+    {
+        createBucket(bucket);
+
+        buckets.get(bucket).put(key, new StoredObject(content, md5Hex(content), null, metadata));
+    }
+
+    /**
+     * The content of a stored object.
+     *
+     * @param bucket
+     * @param key
+     * @return The content, or null if there's no such object
+     */
+    public byte[] getObject(String bucket, String key)
+    {
+        StoredObject obj = findObject(bucket, key);
+
+        return obj == null ? null : obj.content;
+    }
+
+    /**
+     * The content type of a stored object.
+     *
+     * @param bucket
+     * @param key
+     * @return The content type, or null if there's no such object
+     */
+    public String getContentType(String bucket, String key)
+    {
+        StoredObject obj = findObject(bucket, key);
+
+        return obj == null ? null : obj.contentType;
+    }
+
+    /**
+     * The user metadata of a stored object.
+     *
+     * @param bucket
+     * @param key
+     * @return The metadata without the 'x-amz-meta-' prefix, or null if 
+     *         there's no such object
+     */
+    public Map<String, String> getUserMetadata(String bucket, String key)
+    {
+        StoredObject obj = findObject(bucket, key);
+
+        return obj == null ? null : obj.metadata;
+    }
+
+    /**
+     * Removes a stored object directly, without a request.
+     *
+     * @param bucket
+     * @param key
+     */
+    public void deleteObject(String bucket, String key)
+    {
+        Map<String, StoredObject> objects = buckets.get(bucket);
+        if( objects != null )
+        {
+            objects.remove(key);
+        }
+    }
+
+    /**
+     * Every request handled since the last reset, in the order they were
+     * answered.
+     *
+     * @return
+     */
+    public List<RecordedRequest> getRequests()
+    {
+        return new ArrayList<>(requests);
+    }
+
+    /**
+     * The number of requests handled since the last reset.
+     *
+     * @return
+     */
+    public int getRequestCount()
+    {
+        return requests.size();
+    }
+
+    /**
+     * The number of requests of one type handled since the last reset.
+     *
+     * @param operation
+     * @return
+     */
+    public int getRequestCount(Operation operation)
+    {
+        int res = 0;
+        for( RecordedRequest req : requests )
+        {
+            if( req.getOperation() == operation )
+            {
+                res++;
+            }
+        }
+
+        return res;
+    }
+
+    /**
+     * Forgets the requests recorded so far.
+     */
+    public void resetRequests()
+    {
+        requests.clear();
+    }
+
+    /**
+     * Answers the next requests of a type with '503 SlowDown'.
+     *
+     * @param operation The type of request
+     * @param count The number of requests throttled
+     */
+    public void throttle(Operation operation, int count)
+    {
+        for( int i = 0; i < count; i++ )
+        {
+            getFaults(operation).add(new Fault(0, true));
+        }
+    }
+
+    /**
+     * Delays the next requests of a type, on top of the fixed latency.
+     *
+     * @param operation The type of request
+     * @param count The number of requests delayed
+     * @param millis The extra delay in milliseconds
+     */
+    public void delay(Operation operation, int count, long millis)
+    {
+        for( int i = 0; i < count; i++ )
+        {
+            getFaults(operation).add(new Fault(millis, false));
+        }
+    }
+
+    /**
+     * Drops throttling and delays that haven't been used yet.
+     */
+    public void resetFaults()
+    {
+        faults.clear();
+    }
+
+    private Queue<Fault> getFaults(Operation operation)
+    {
+        Queue<Fault> res = faults.get(operation);
+        if( res == null )
+        {
+            faults.putIfAbsent(operation, new ConcurrentLinkedQueue<Fault>());
+            res = faults.get(operation);
+        }
+
+        return res;
+    }
+
+    /**
+     * The number of objects in a bucket.
+     *
+     * @param bucket
+     * @return
+     */
+    public int getObjectCount(String bucket)
+    {
+        Map<String, StoredObject> objects = buckets.get(bucket);
+
+        return objects == null ? 0 : objects.size();
+    }
+
+    private StoredObject findObject(String bucket, String key)
+    {
+        Map<String, StoredObject> objects = buckets.get(bucket);
+
+        return objects == null ? null : objects.get(key);
+    }
+
+    private void handleRequest(HttpExchange exchange) throws IOException
+    {
+        long start = System.nanoTime();
+        Request req = null;
+
+        try
+        {
+            req = new Request(exchange, readBody(exchange), start);
+
+            long currLatency = latency;
+            if( currLatency > 0 )
+            {
+                Thread.sleep(currLatency);
+            }
+
+            dispatch(req);
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (RuntimeException ex)
+        {
+            log.error(String.format("Fake S3 failed handling %s %s",
+                    exchange.getRequestMethod(), exchange.getRequestURI()), ex);
+
+            if( req != null )
+            {
+                sendError(req, 500, "InternalError", ex.toString());
+            }
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    private void dispatch(Request req) throws IOException, InterruptedException
+    {
+        String method = req.exchange.getRequestMethod();
+
+        req.operation = getOperation(req);
+
+        if( req.operation == Operation.UNKNOWN )
+        {
+            sendError(req, 501, "NotImplemented", method);
+            return;
+        }
+
+        if( req.key.isEmpty() == false && buckets.containsKey(req.bucket) == false )
+        {
+            sendError(req, 404, "NoSuchBucket", req.bucket);
+            return;
+        }
+
+        Fault fault = takeFault(req.operation);
+        if( fault != null )
+        {
+            if( fault.delay > 0 )
+            {
+                Thread.sleep(fault.delay);
+            }
+
+            if( fault.throttle )
+            {
+                sendError(req, 503, "SlowDown", "Please reduce your request rate.");
+                return;
+            }
+        }
+
+        switch( req.operation )
+        {
+            case LIST_OBJECTS:
+                listObjects(req);
+                break;
+
+            case HEAD_BUCKET:
+                sendEmpty(req, buckets.containsKey(req.bucket) ? 200 : 404);
+                break;
+
+            case CREATE_BUCKET:
+                createBucket(req.bucket);
+                sendEmpty(req, 200);
+                break;
+
+            case DELETE_OBJECTS:
+                deleteObjects(req);
+                break;
+
+            case HEAD_OBJECT:
+                getObject(req, true);
+                break;
+
+            case GET_OBJECT:
+                getObject(req, false);
+                break;
+
+            case UPLOAD_PART:
+            case UPLOAD_PART_COPY:
+                uploadPart(req);
+                break;
+
+            case COPY_OBJECT:
+                copyObject(req);
+                break;
+
+            case PUT_OBJECT:
+                putObject(req);
+                break;
+
+            case CREATE_MULTIPART_UPLOAD:
+                initiateUpload(req);
+                break;
+
+            case COMPLETE_MULTIPART_UPLOAD:
+                completeUpload(req);
+                break;
+
+            case ABORT_MULTIPART_UPLOAD:
+                uploads.remove(req.query.get("uploadId"));
+                sendEmpty(req, 204);
+                break;
+
+            case DELETE_OBJECT:
+                buckets.get(req.bucket).remove(req.key);
+                sendEmpty(req, 204);
+                break;
+
+            default:
+                sendError(req, 501, "NotImplemented", method);
+                break;
+        }
+    }
+
+    private static Operation getOperation(Request req)
+    {
+        String method = req.exchange.getRequestMethod();
+
+        if( req.key.isEmpty() )
+        {
+            if( "GET".equals(method) )
+            {
+                return Operation.LIST_OBJECTS;
+            }
+            else if( "HEAD".equals(method) )
+            {
+                return Operation.HEAD_BUCKET;
+            }
+            else if( "PUT".equals(method) )
+            {
+                return Operation.CREATE_BUCKET;
+            }
+            else if( "POST".equals(method) && req.query.containsKey("delete") )
+            {
+                return Operation.DELETE_OBJECTS;
+            }
+        }
+        else if( "HEAD".equals(method) )
+        {
+            return Operation.HEAD_OBJECT;
+        }
+        else if( "GET".equals(method) )
+        {
+            return Operation.GET_OBJECT;
+        }
+        else if( "PUT".equals(method) )
+        {
+            if( req.query.containsKey("uploadId") )
+            {
+                return req.header("x-amz-copy-source") == null
+                            ? Operation.UPLOAD_PART : Operation.UPLOAD_PART_COPY;
+            }
+
+            return req.header("x-amz-copy-source") == null
+                        ? Operation.PUT_OBJECT : Operation.COPY_OBJECT;
+        }
+        else if( "POST".equals(method) && req.query.containsKey("uploads") )
+        {
+            return Operation.CREATE_MULTIPART_UPLOAD;
+        }
+        else if( "POST".equals(method) && req.query.containsKey("uploadId") )
+        {
+            return Operation.COMPLETE_MULTIPART_UPLOAD;
+        }
+        else if( "DELETE".equals(method) )
+        {
+            return req.query.containsKey("uploadId")
+                        ? Operation.ABORT_MULTIPART_UPLOAD : Operation.DELETE_OBJECT;
+        }
+
+        return Operation.UNKNOWN;
+    }
+
+    private Fault takeFault(Operation operation)
+    {
+        Queue<Fault> queue = faults.get(operation);
+
+        return queue == null ? null : queue.poll();
+    }
+
+    private void getObject(Request req, boolean headOnly) throws IOException
+    {
+        StoredObject obj = findObject(req.bucket, req.key);
+        if( obj == null )
+        {
+            sendError(req, 404, "NoSuchKey", req.key);
+            return;
+        }
+
+        Headers headers = req.exchange.getResponseHeaders();
+        headers.set("ETag", quote(obj.eTag));
+        headers.set("Last-Modified", formatHttpDate(obj.lastModified));
+        headers.set("Content-Type", obj.contentType);
+        headers.set("Accept-Ranges", "bytes");
+
+        for( Map.Entry<String, String> entry : obj.metadata.entrySet() )
+        {
+            headers.set(METADATA_PREFIX + entry.getKey(), entry.getValue());
+        }
+
+        String ifMatch = req.header("If-Match");
+        if( ifMatch != null && unquote(ifMatch).equals(obj.eTag) == false )
+        {
+            sendError(req, 412, "PreconditionFailed", "If-Match");
+            return;
+        }
+
+        String ifNoneMatch = req.header("If-None-Match");
+        if( ifNoneMatch != null && unquote(ifNoneMatch).equals(obj.eTag) )
+        {
+            sendEmpty(req, 304);
+            return;
+        }
+
+        int start = 0;
+        int end = obj.content.length;
+        int status = 200;
+
+        String range = req.header("Range");
+        if( range != null )
+        {
+            Matcher m = RANGE_PATTERN.matcher(range);
+            if( m.matches() == false || obj.content.length == 0 )
+            {
+                sendError(req, 416, "InvalidRange", range);
+                return;
+            }
+
+            if( m.group(1).isEmpty() )
+            {
+                start = Math.max(obj.content.length - Integer.parseInt(m.group(2)), 0);
+            }
+            else
+            {
+                start = Integer.parseInt(m.group(1));
+                if( m.group(2).isEmpty() == false )
+                {
+                    end = (int)Math.min(Long.parseLong(m.group(2)) + 1, end);
+                }
+            }
+
+            if( start >= obj.content.length )
+            {
+                sendError(req, 416, "InvalidRange", range);
+                return;
+            }
+
+            status = 206;
+            headers.set("Content-Range",
+                    String.format("bytes %d-%d/%d", start, end - 1, obj.content.length));
+        }
+
+        if( headOnly )
+        {
+            headers.set("Content-Length", Integer.toString(end - start));
+            sendEmpty(req, status);
+        }
+        else
+        {
+            send(req, status, Arrays.copyOfRange(obj.content, start, end));
+        }
+    }
+
+    private void putObject(Request req) throws IOException
+    {
+        StoredObject obj = new StoredObject(req.body, md5Hex(req.body), 
+                                    req.header("Content-Type"), readMetadata(req));
+        buckets.get(req.bucket).put(req.key, obj);
+
+        req.exchange.getResponseHeaders().set("ETag", quote(obj.eTag));
+        sendEmpty(req, 200);
+    }
+
+    private void copyObject(Request req) throws IOException
+    {
+        StoredObject src = findCopySource(req);
+        if( src == null )
+        {
+            return;
+        }
+
+        StoredObject obj;
+        if( "REPLACE".equals(req.header("x-amz-metadata-directive")) )
+        {
+            obj = new StoredObject(src.content, src.eTag, 
+                                   req.header("Content-Type"), readMetadata(req));
+        }
+        else
+        {
+            obj = new StoredObject(src.content, src.eTag, src.contentType, src.metadata);
+        }
+        buckets.get(req.bucket).put(req.key, obj);
+
+        sendXml(req, 200, String.format(
+                "<CopyObjectResult><LastModified>%s</LastModified><ETag>%s</ETag></CopyObjectResult>",
+                formatIsoDate(obj.lastModified), escape(quote(obj.eTag))));
+    }
+
+    private StoredObject findCopySource(Request req) throws IOException
+    {
+        String source = decode(req.header("x-amz-copy-source"));
+        if( source.startsWith("/") )
+        {
+            source = source.substring(1);
+        }
+
+        int sep = source.indexOf('/');
+        StoredObject res = sep < 0 ? null
+                            : findObject(source.substring(0, sep), source.substring(sep + 1));
+        if( res == null )
+        {
+            sendError(req, 404, "NoSuchKey", source);
+            return null;
+        }
+
+        String ifMatch = req.header("x-amz-copy-source-if-match");
+        if( ifMatch != null && unquote(ifMatch).equals(res.eTag) == false )
+        {
+            sendError(req, 412, "PreconditionFailed", "x-amz-copy-source-if-match");
+            return null;
+        }
+
+        return res;
+    }
+
+    /**
+     * The user metadata sent with a request.
+     *
+     * @param req
+     * @return The metadata without the 'x-amz-meta-' prefix
+     */
+    private static Map<String, String> readMetadata(Request req)
+    {
+        Map<String, String> res = new TreeMap<>();
+
+        for( Map.Entry<String, List<String>> entry : req.exchange.getRequestHeaders().entrySet() )
+        {
+            String name = entry.getKey().toLowerCase(Locale.ROOT);
+            if( name.startsWith(METADATA_PREFIX) && entry.getValue().isEmpty() == false )
+            {
+                res.put(name.substring(METADATA_PREFIX.length()), entry.getValue().get(0));
+            }
+        }
+
+        return res;
+    }
+
+    private void deleteObjects(Request req) throws IOException
+    {
+        ConcurrentNavigableMap<String, StoredObject> objects = buckets.get(req.bucket);
+        if( objects == null )
+        {
+            sendError(req, 404, "NoSuchBucket", req.bucket);
+            return;
+        }
+
+        String body = new String(req.body, StandardCharsets.UTF_8);
+        boolean quiet = body.contains("<Quiet>true</Quiet>");
+
+        StringBuilder res = new StringBuilder("<DeleteResult>");
+
+        Matcher m = KEY_PATTERN.matcher(body);
+        while( m.find() )
+        {
+            String key = unescape(m.group(1));
+            objects.remove(key);
+
+            if( quiet == false )
+            {
+                res.append(String.format("<Deleted><Key>%s</Key></Deleted>", escape(key)));
+            }
+        }
+
+        res.append("</DeleteResult>");
+
+        sendXml(req, 200, res.toString());
+    }
+
+    private void listObjects(Request req) throws IOException
+    {
+        ConcurrentNavigableMap<String, StoredObject> objects = buckets.get(req.bucket);
+        if( objects == null )
+        {
+            sendError(req, 404, "NoSuchBucket", req.bucket);
+            return;
+        }
+
+        String prefix = value(req.query.get("prefix"));
+        String delimiter = value(req.query.get("delimiter"));
+        String marker = value(req.query.get("marker"));
+        boolean urlEncoded = "url".equals(req.query.get("encoding-type"));
+
+        int maxKeys = 1000;
+        if( req.query.containsKey("max-keys") )
+        {
+            maxKeys = Math.min(Integer.parseInt(req.query.get("max-keys")), 1000);
+        }
+
+        StringBuilder contents = new StringBuilder();
+        String lastPrefix = null;
+        String last = null;
+        boolean truncated = false;
+        int count = 0;
+
+        String from = marker.compareTo(prefix) > 0 ? marker : prefix;
+        for( Map.Entry<String, StoredObject> entry
+                : objects.tailMap(from, marker.compareTo(prefix) <= 0).entrySet() )
+        {
+            String key = entry.getKey();
+            if( key.startsWith(prefix) == false )
+            {
+                break;
+            }
+
+            String commonPrefix = null;
+            if( delimiter.isEmpty() == false )
+            {
+                int i = key.indexOf(delimiter, prefix.length());
+                if( i >= 0 )
+                {
+                    commonPrefix = key.substring(0, i + delimiter.length());
+                }
+            }
+
+            if( commonPrefix != null
+                    && (commonPrefix.equals(lastPrefix) || commonPrefix.compareTo(marker) <= 0) )
+            {
+                continue;
+            }
+
+            if( count == maxKeys )
+            {
+                truncated = true;
+                break;
+            }
+
+            count++;
+
+            if( commonPrefix != null )
+            {
+                contents.append(String.format("<CommonPrefixes><Prefix>%s</Prefix></CommonPrefixes>",
+                        encodeValue(commonPrefix, urlEncoded)));
+
+                lastPrefix = commonPrefix;
+                last = commonPrefix;
+            }
+            else
+            {
+                StoredObject obj = entry.getValue();
+                contents.append(String.format("<Contents><Key>%s</Key><LastModified>%s</LastModified>"
+                                + "<ETag>%s</ETag><Size>%d</Size><StorageClass>STANDARD</StorageClass></Contents>",
+                        encodeValue(key, urlEncoded), formatIsoDate(obj.lastModified),
+                        escape(quote(obj.eTag)), obj.content.length));
+
+                last = key;
+            }
+        }
+
+        StringBuilder res = new StringBuilder("<ListBucketResult>");
+        res.append(String.format("<Name>%s</Name>", escape(req.bucket)));
+        res.append(String.format("<Prefix>%s</Prefix>", encodeValue(prefix, urlEncoded)));
+        res.append(String.format("<Marker>%s</Marker>", encodeValue(marker, urlEncoded)));
+        res.append(String.format("<MaxKeys>%d</MaxKeys>", maxKeys));
+        if( delimiter.isEmpty() == false )
+        {
+            res.append(String.format("<Delimiter>%s</Delimiter>", encodeValue(delimiter, urlEncoded)));
+        }
+        if( urlEncoded )
+        {
+            res.append("<EncodingType>url</EncodingType>");
+        }
+        res.append(String.format("<IsTruncated>%b</IsTruncated>", truncated));
+        if( truncated )
+        {
+            res.append(String.format("<NextMarker>%s</NextMarker>", encodeValue(last, urlEncoded)));
+        }
+        res.append(contents);
+        res.append("</ListBucketResult>");
+
+        sendXml(req, 200, res.toString());
+    }
+
+    private void initiateUpload(Request req) throws IOException
+    {
+        String uploadId = UUID.randomUUID().toString();
+        uploads.put(uploadId, new Upload(req.bucket, req.key, 
+                                         req.header("Content-Type"), readMetadata(req)));
+
+        sendXml(req, 200, String.format("<InitiateMultipartUploadResult><Bucket>%s</Bucket>"
+                        + "<Key>%s</Key><UploadId>%s</UploadId></InitiateMultipartUploadResult>",
+                escape(req.bucket), escape(req.key), uploadId));
+    }
+
+    private void uploadPart(Request req) throws IOException
+    {
+        Upload upload = uploads.get(req.query.get("uploadId"));
+        if( upload == null )
+        {
+            sendError(req, 404, "NoSuchUpload", req.query.get("uploadId"));
+            return;
+        }
+
+        int partNumber = Integer.parseInt(req.query.get("partNumber"));
+
+        String source = req.header("x-amz-copy-source");
+        if( source == null )
+        {
+            upload.parts.put(partNumber, req.body);
+
+            req.exchange.getResponseHeaders().set("ETag", quote(md5Hex(req.body)));
+            sendEmpty(req, 200);
+
+            return;
+        }
+
+        StoredObject src = findCopySource(req);
+        if( src == null )
+        {
+            return;
+        }
+
+        byte[] part = src.content;
+
+        String range = req.header("x-amz-copy-source-range");
+        if( range != null )
+        {
+            Matcher m = RANGE_PATTERN.matcher(range);
+            if( m.matches() == false || m.group(1).isEmpty() || m.group(2).isEmpty() )
+            {
+                sendError(req, 400, "InvalidArgument", range);
+                return;
+            }
+
+            part = Arrays.copyOfRange(part, Integer.parseInt(m.group(1)),
+                                      Integer.parseInt(m.group(2)) + 1);
+        }
+
+        upload.parts.put(partNumber, part);
+
+        sendXml(req, 200, String.format(
+                "<CopyPartResult><LastModified>%s</LastModified><ETag>%s</ETag></CopyPartResult>",
+                formatIsoDate(System.currentTimeMillis()), escape(quote(md5Hex(part)))));
+    }
+
+    private void completeUpload(Request req) throws IOException
+    {
+        Upload upload = uploads.remove(req.query.get("uploadId"));
+        if( upload == null )
+        {
+            sendError(req, 404, "NoSuchUpload", req.query.get("uploadId"));
+            return;
+        }
+
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        ByteArrayOutputStream digests = new ByteArrayOutputStream();
+        int count = 0;
+
+        Matcher m = PART_PATTERN.matcher(new String(req.body, StandardCharsets.UTF_8));
+        while( m.find() )
+        {
+            byte[] part = upload.parts.get(Integer.parseInt(m.group(1)));
+            if( part == null )
+            {
+                sendError(req, 400, "InvalidPart", m.group(1));
+                return;
+            }
+
+            content.write(part);
+            digests.write(md5(part));
+            count++;
+        }
+
+        // Multipart ETags are the digest of the part digests, plus the count
+        String eTag = String.format("%s-%d", toHex(md5(digests.toByteArray())), count);
+
+        buckets.get(upload.bucket).put(upload.key,
+                new StoredObject(content.toByteArray(), eTag, upload.contentType, upload.metadata));
+
+        sendXml(req, 200, String.format("<CompleteMultipartUploadResult>"
+                        + "<Location>%s/%s/%s</Location><Bucket>%s</Bucket><Key>%s</Key>"
+                        + "<ETag>%s</ETag></CompleteMultipartUploadResult>",
+                getEndpoint(), escape(upload.bucket), escape(upload.key),
+                escape(upload.bucket), escape(upload.key), escape(quote(eTag))));
+    }
+
+    /**
+     * Reads the whole request body, decoding the signed chunks that V4
+     * signing may stream.
+     *
+     * @param exchange
+     * @return
+     * @throws IOException
+     */
+    private static byte[] readBody(HttpExchange exchange) throws IOException
+    {
+        ByteArrayOutputStream res = new ByteArrayOutputStream();
+
+        try( InputStream in = exchange.getRequestBody() )
+        {
+            byte[] buf = new byte[64 * 1024];
+            int count;
+            while( (count = in.read(buf)) >= 0 )
+            {
+                res.write(buf, 0, count);
+            }
+        }
+
+        String sha = exchange.getRequestHeaders().getFirst("x-amz-content-sha256");
+        if( sha != null && sha.startsWith("STREAMING-") )
+        {
+            return decodeChunks(res.toByteArray());
+        }
+
+        return res.toByteArray();
+    }
+
+    private static byte[] decodeChunks(byte[] body)
+    {
+        ByteArrayOutputStream res = new ByteArrayOutputStream();
+
+        int pos = 0;
+        while( pos < body.length )
+        {
+            int eol = pos;
+            while( body[eol] != '\r' )
+            {
+                eol++;
+            }
+
+            String header = new String(body, pos, eol - pos, StandardCharsets.US_ASCII);
+            int size = Integer.parseInt(header.split(";")[0], 16);
+            if( size == 0 )
+            {
+                break;
+            }
+
+            res.write(body, eol + 2, size);
+            pos = eol + 2 + size + 2;
+        }
+
+        return res.toByteArray();
+    }
+
+    private void sendEmpty(Request req, int status) throws IOException
+    {
+        send(req, status, null);
+    }
+
+    /**
+     * Records the request, then sends the response.  Recording first means
+     * the request is always seen by the time the client has its response.
+     *
+     * @param req
+     * @param status
+     * @param body The response body, or null for none
+     * @throws IOException
+     */
+    private void send(Request req, int status, byte[] body) throws IOException
+    {
+        RecordedRequest rec = new RecordedRequest(req.operation, req.bucket, req.key, status,
+                req.body.length, body == null ? 0 : body.length, System.nanoTime() - req.start);
+        requests.add(rec);
+
+        log.debug(rec.toString());
+
+        if( body == null )
+        {
+            req.exchange.sendResponseHeaders(status, -1);
+        }
+        else if( body.length == 0 )
+        {
+            req.exchange.getResponseHeaders().set("Content-Length", "0");
+            req.exchange.sendResponseHeaders(status, -1);
+        }
+        else
+        {
+            req.exchange.sendResponseHeaders(status, body.length);
+
+            try( OutputStream out = req.exchange.getResponseBody() )
+            {
+                out.write(body);
+            }
+        }
+    }
+
+    private void sendXml(Request req, int status, String xml) throws IOException
+    {
+        req.exchange.getResponseHeaders().set("Content-Type", "application/xml");
+
+        send(req, status, String.format("<?xml version=\"1.0\" encoding=\"UTF-8\"?>%s", xml)
+                               .getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void sendError(Request req, int status, String code, String message)
+            throws IOException
+    {
+        if( "HEAD".equals(req.exchange.getRequestMethod()) )
+        {
+            sendEmpty(req, status);
+            return;
+        }
+
+        sendXml(req, status, String.format(
+                "<Error><Code>%s</Code><Message>%s</Message><RequestId>%s</RequestId></Error>",
+                code, escape(message), UUID.randomUUID()));
+    }
+
+    private static String encodeValue(String value, boolean urlEncoded)
+    {
+        if( urlEncoded )
+        {
+            try
+            {
+                return URLEncoder.encode(value, "UTF-8").replace("+", "%20");
+            }
+            catch (UnsupportedEncodingException ex)
+            {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        return escape(value);
+    }
+
+    private static String decode(String value)
+    {
+        try
+        {
+            return URLDecoder.decode(value, "UTF-8");
+        }
+        catch (UnsupportedEncodingException ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String value(String value)
+    {
+        return value == null ? "" : value;
+    }
+
+    private static String escape(String value)
+    {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;")
+                    .replace("\"", "&quot;").replace("'", "&apos;");
+    }
+
+    private static String unescape(String value)
+    {
+        return value.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"")
+                    .replace("&apos;", "'").replace("&amp;", "&");
+    }
+
+    private static String quote(String eTag)
+    {
+        return String.format("\"%s\"", eTag);
+    }
+
+    private static String unquote(String eTag)
+    {
+        return eTag.replace("\"", "");
+    }
+
+    private static String formatHttpDate(long time)
+    {
+        SimpleDateFormat res = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        res.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+        return res.format(new Date(time));
+    }
+
+    private static String formatIsoDate(long time)
+    {
+        SimpleDateFormat res = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        res.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        return res.format(new Date(time));
+    }
+
+    private static byte[] md5(byte[] content)
+    {
+        try
+        {
+            return MessageDigest.getInstance("MD5").digest(content);
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            // Every JVM is required to support MD5
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String md5Hex(byte[] content)
+    {
+        return toHex(md5(content));
+    }
+
+    private static String toHex(byte[] bytes)
+    {
+        StringBuilder res = new StringBuilder(bytes.length * 2);
+        for( byte b : bytes )
+        {
+            res.append(String.format("%02x", b & 0xff));
+        }
+
+        return res.toString();
+    }
+
+    /**
+     * The S3 operations the server tells apart.
+     */
+    public enum Operation
+    {
+        HEAD_BUCKET,
+        CREATE_BUCKET,
+        LIST_OBJECTS,
+        HEAD_OBJECT,
+        GET_OBJECT,
+        PUT_OBJECT,
+        COPY_OBJECT,
+        DELETE_OBJECT,
+        DELETE_OBJECTS,
+        CREATE_MULTIPART_UPLOAD,
+        UPLOAD_PART,
+        UPLOAD_PART_COPY,
+        COMPLETE_MULTIPART_UPLOAD,
+        ABORT_MULTIPART_UPLOAD,
+        UNKNOWN
+    }
+
+    /**
+     * One handled request.
+     */
+    public static final class RecordedRequest
+    {
+        private final Operation operation;
+        private final String bucket;
+        private final String key;
+        private final int status;
+        private final long bytesIn;
+        private final long bytesOut;
+        private final long latencyNanos;
+
+        private RecordedRequest(Operation operation, String bucket, String key, int status,
+                                long bytesIn, long bytesOut, long latencyNanos)
+        {
+            this.operation = operation;
+            this.bucket = bucket;
+            this.key = key;
+            this.status = status;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            this.latencyNanos = latencyNanos;
+        }
+
+        public Operation getOperation()
+        {
+            return operation;
+        }
+
+        public String getBucket()
+        {
+            return bucket;
+        }
+
+        /**
+         * The object key, or an empty string for bucket requests.
+         *
+         * @return
+         */
+        public String getKey()
+        {
+            return key;
+        }
+
+        /**
+         * The HTTP status of the response.
+         *
+         * @return
+         */
+        public int getStatus()
+        {
+            return status;
+        }
+
+        /**
+         * The size of the request body, after any chunk decoding.
+         *
+         * @return
+         */
+        public long getBytesIn()
+        {
+            return bytesIn;
+        }
+
+        /**
+         * The size of the response body.
+         *
+         * @return
+         */
+        public long getBytesOut()
+        {
+            return bytesOut;
+        }
+
+        /**
+         * The time from receiving the request to answering it, including any
+         * injected latency.
+         *
+         * @return
+         */
+        public long getLatencyNanos()
+        {
+            return latencyNanos;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s '%s' '%s' : %d, %d bytes in, %d bytes out, %d us",
+                    operation, bucket, key, status, bytesIn, bytesOut, latencyNanos / 1000);
+        }
+    }
+
+    /**
+     * A delay or throttling response for the next request of one kind.
+     */
+    private static final class Fault
+    {
+        private final long delay;
+        private final boolean throttle;
+
+        private Fault(long delay, boolean throttle)
+        {
+            this.delay = delay;
+            this.throttle = throttle;
+        }
+    }
+
+    /**
+     * A parsed request.  Buckets and keys come from the path.
+     */
+    private static final class Request
+    {
+        private final HttpExchange exchange;
+        private final byte[] body;
+        private final long start;
+        private final String bucket;
+        private final String key;
+        private final Map<String, String> query;
+
+        private Operation operation = Operation.UNKNOWN;
+
+        private Request(HttpExchange exchange, byte[] body, long start)
+        {
+            this.exchange = exchange;
+            this.body = body;
+            this.start = start;
+
+            String path = exchange.getRequestURI().getRawPath().substring(1);
+            int sep = path.indexOf('/');
+
+            bucket = decode(sep < 0 ? path : path.substring(0, sep));
+            key = sep < 0 ? "" : decode(path.substring(sep + 1));
+
+            query = new HashMap<>();
+
+            String rawQuery = exchange.getRequestURI().getRawQuery();
+            if( rawQuery != null )
+            {
+                for( String param : rawQuery.split("&") )
+                {
+                    int eq = param.indexOf('=');
+                    if( eq < 0 )
+                    {
+                        query.put(decode(param), "");
+                    }
+                    else
+                    {
+                        query.put(decode(param.substring(0, eq)), decode(param.substring(eq + 1)));
+                    }
+                }
+            }
+        }
+
+        private String header(String name)
+        {
+            return exchange.getRequestHeaders().getFirst(name);
+        }
+    }
+
+    private static final class StoredObject
+    {
+        private final byte[] content;
+        private final String eTag;
+        private final String contentType;
+        private final Map<String, String> metadata;
+        private final long lastModified;
+
+        private StoredObject(byte[] content, String eTag, String contentType, 
+                             Map<String, String> metadata)
+        {
+            this.content = content;
+            this.eTag = eTag;
+            this.contentType = contentType == null ? "application/octet-stream" : contentType;
+            this.metadata = Collections.unmodifiableMap(new TreeMap<>(metadata));
+
+            // S3 times only have millisecond precision in listings, and
+            // second precision in headers
+            this.lastModified = System.currentTimeMillis() / 1000 * 1000;
+        }
+    }
+
+    private static final class Upload
+    {
+        private final String bucket;
+        private final String key;
+        private final String contentType;
+        private final Map<String, String> metadata;
+        private final Map<Integer, byte[]> parts;
+
+        private Upload(String bucket, String key, String contentType, Map<String, String> metadata)
+        {
+            this.bucket = bucket;
+            this.key = key;
+            this.contentType = contentType;
+            this.metadata = metadata;
+
+            parts = new ConcurrentSkipListMap<>();
+        }
+    }
+}
@@ -16,22 +16,50 @@
  */
 package com.sludev.commons.vfs2.provider.s3;
 
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
+import com.sludev.commons.vfs2.provider.s3.SS3FakeServer.Operation;
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileWriter;
-import java.nio.file.Paths;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.management.ObjectName;
 import junit.framework.Assert;
 import org.apache.commons.vfs2.FileContent;
+import org.apache.commons.vfs2.FileDepthSelector;
 import org.apache.commons.vfs2.FileName;
 import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileSystemOptions;
 import org.apache.commons.vfs2.FileType;
+import org.apache.commons.vfs2.RandomAccessContent;
 import org.apache.commons.vfs2.Selectors;
-import org.apache.commons.vfs2.auth.StaticUserAuthenticator;
-import org.apache.commons.vfs2.impl.DefaultFileSystemConfigBuilder;
 import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
 import org.apache.commons.vfs2.provider.local.DefaultLocalFileProvider;
+import org.apache.commons.vfs2.util.RandomAccessMode;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -53,6 +81,12 @@ public class SS3FileProviderTest
 {
     private static final Logger log = LoggerFactory.getLogger(SS3FileProviderTest.class);
     
+    /**
+     * The in-memory S3 every test runs against.  It lives as long as the
+     * class, so later tests see files written by earlier ones.
+     */
+    private static SS3FakeServer server;
+    
     private Properties testProperties;
     
     public SS3FileProviderTest()
@@ -63,7 +97,7 @@ public class SS3FileProviderTest
     public TestWatcher testWatcher = new SS3TestWatcher();
     
     @Before
-    public void setUp() 
+    public void setUp() throws Exception
     {
         
         /**
@@ -72,27 +106,28 @@ public class SS3FileProviderTest
          */
         testProperties = SS3TestProperties.GetProperties();
         
-        try
-        {
-            /**
-             * Setup the remote folders for testing
-             */
-            uploadFileSetup02();
-        }
-        catch (Exception ex)
-        {
-            log.debug("Error setting up remote folder structure.  Have you set the test001.properties file?", ex);
-        }
+        /**
+         * Setup the remote folders for testing
+         */
+        uploadFileSetup02();
+        
+        // Each test counts its own requests
+        server.resetRequests();
+        server.resetFaults();
     }
     
     @BeforeClass
-    public static void setUpClass()
+    public static void setUpClass() throws Exception
     {
+        server = new SS3FakeServer();
+        server.createBucket(SS3TestProperties.GetProperties().getProperty("s3.test0001.bucket.name"));
+        server.start();
     }
     
     @AfterClass
     public static void tearDownClass()
     {
+        server.stop();
     }
     
     @After
@@ -108,8 +143,6 @@ public class SS3FileProviderTest
     @Test
     public void A001_uploadFile() throws Exception
     {
-        String currAccountStr = testProperties.getProperty("s3.access.id"); 
-        String currKey = testProperties.getProperty("s3.access.secret");
         String currContainerStr = testProperties.getProperty("s3.test0001.bucket.name");
         String currHost = testProperties.getProperty("s3.host");
         String currRegion = testProperties.getProperty("s3.region");
@@ -123,7 +156,7 @@ public class SS3FileProviderTest
             bw.flush();
         }
         
-        SS3FileProvider currSS3 = new SS3FileProvider();
+        SS3FileProvider currSS3 = server.createProvider();
         
         // Optional set endpoint
         //currSS3.setEndpoint(currHost);
@@ -136,9 +169,7 @@ public class SS3FileProviderTest
         currMan.addProvider("file", new DefaultLocalFileProvider());
         currMan.init(); 
         
-        StaticUserAuthenticator auth = new StaticUserAuthenticator("", currAccountStr, currKey);
-        FileSystemOptions opts = new FileSystemOptions(); 
-        DefaultFileSystemConfigBuilder.getInstance().setUserAuthenticator(opts, auth); 
+        FileSystemOptions opts = server.createOptions();
         
         currFileNameStr = "test01.tmp";
         String currUriStr = String.format("%s://%s/%s/%s", 
@@ -158,14 +189,12 @@ public class SS3FileProviderTest
     @Test
     public void A002_downloadFile() throws Exception
     {
-        String currAccountStr = testProperties.getProperty("s3.access.id"); 
-        String currKey = testProperties.getProperty("s3.access.secret");
         String currContainerStr = testProperties.getProperty("s3.test0001.bucket.name");
         String currHost = testProperties.getProperty("s3.host");
         String currRegion = testProperties.getProperty("s3.region");
         String currFileNameStr;
         
-        SS3FileProvider currSS3 = new SS3FileProvider();
+        SS3FileProvider currSS3 = server.createProvider();
         
         // Optional set endpoint
         //currSS3.setEndpoint(currHost);
@@ -180,9 +209,7 @@ public class SS3FileProviderTest
         currMan.addProvider("file", new DefaultLocalFileProvider());
         currMan.init(); 
         
-        StaticUserAuthenticator auth = new StaticUserAuthenticator("", currAccountStr, currKey);
-        FileSystemOptions opts = new FileSystemOptions(); 
-        DefaultFileSystemConfigBuilder.getInstance().setUserAuthenticator(opts, auth); 
+        FileSystemOptions opts = server.createOptions();
         
         currFileNameStr = "test01.tmp";
         String currUriStr = String.format("%s://%s/%s/%s", 
@@ -200,22 +227,18 @@ public class SS3FileProviderTest
     @Test
     public void A003_exist() throws Exception
     {
-        String currAccountStr = testProperties.getProperty("s3.access.id"); 
-        String currKey = testProperties.getProperty("s3.access.secret");
         String currContainerStr = testProperties.getProperty("s3.test0001.bucket.name");
         String currHost = testProperties.getProperty("s3.host");
         String currRegion = testProperties.getProperty("s3.region");
         String currFileNameStr;
         
-        SS3FileProvider currSS3 = new SS3FileProvider();
+        SS3FileProvider currSS3 = server.createProvider();
         
         DefaultFileSystemManager currMan = new DefaultFileSystemManager();
         currMan.addProvider(SS3Constants.S3SCHEME, currSS3);
         currMan.init(); 
         
-        StaticUserAuthenticator auth = new StaticUserAuthenticator("", currAccountStr, currKey);
-        FileSystemOptions opts = new FileSystemOptions(); 
-        DefaultFileSystemConfigBuilder.getInstance().setUserAuthenticator(opts, auth); 
+        FileSystemOptions opts = server.createOptions();
         
         currFileNameStr = "test01.tmp";
         String currUriStr = String.format("%s://%s/%s/%s", 
@@ -227,6 +250,12 @@ public class SS3FileProviderTest
         Boolean existRes = currFile.exists();
         Assert.assertTrue(existRes);
         
+        // A HEAD finds the file, with no listing
+        Assert.assertEquals(1, server.getRequestCount(Operation.HEAD_OBJECT));
+        Assert.assertEquals(0, server.getRequestCount(Operation.LIST_OBJECTS));
+        Assert.assertEquals(1, server.getRequestCount());
+        
+        server.resetRequests();
         
         currFileNameStr = "non-existant-file-8632857264.tmp";
         currUriStr = String.format("%s://%s/%s/%s", 
@@ -237,27 +266,28 @@ public class SS3FileProviderTest
         
         existRes = currFile.exists();
         Assert.assertFalse(existRes);
+        
+        // The HEAD misses, then a single-key listing finds no folder either
+        Assert.assertEquals(1, server.getRequestCount(Operation.HEAD_OBJECT));
+        Assert.assertEquals(1, server.getRequestCount(Operation.LIST_OBJECTS));
+        Assert.assertEquals(2, server.getRequestCount());
     }
     
     @Test
     public void A004_getContentSize() throws Exception
     {
-        String currAccountStr = testProperties.getProperty("s3.access.id"); 
-        String currKey = testProperties.getProperty("s3.access.secret");
         String currContainerStr = testProperties.getProperty("s3.test0001.bucket.name");
         String currHost = testProperties.getProperty("s3.host");
         String currRegion = testProperties.getProperty("s3.region");
         String currFileNameStr;
         
-        SS3FileProvider currSS3 = new SS3FileProvider();
+        SS3FileProvider currSS3 = server.createProvider();
         
         DefaultFileSystemManager currMan = new DefaultFileSystemManager();
         currMan.addProvider(SS3Constants.S3SCHEME, currSS3);
         currMan.init(); 
         
-        StaticUserAuthenticator auth = new StaticUserAuthenticator("", currAccountStr, currKey);
-        FileSystemOptions opts = new FileSystemOptions(); 
-        DefaultFileSystemConfigBuilder.getInstance().setUserAuthenticator(opts, auth); 
+        FileSystemOptions opts = server.createOptions();
         
         currFileNameStr = "test01.tmp";
         String currUriStr = String.format("%s://%s/%s/%s", 
@@ -271,27 +301,26 @@ public class SS3FileProviderTest
         
         Assert.assertTrue(contSize>0);
         
+        // The size comes from the HEAD made on attach
+        Assert.assertEquals(1, server.getRequestCount(Operation.HEAD_OBJECT));
+        Assert.assertEquals(0, server.getRequestCount(Operation.GET_OBJECT));
     }
     
     @Test
     public void A005_testContent() throws Exception
     {
-        String currAccountStr = testProperties.getProperty("s3.access.id"); 
-        String currKey = testProperties.getProperty("s3.access.secret");
         String currContainerStr = testProperties.getProperty("s3.test0001.bucket.name");
         String currHost = testProperties.getProperty("s3.host");
         String currRegion = testProperties.getProperty("s3.region");
         String currFileNameStr;
         
-        SS3FileProvider currSS3 = new SS3FileProvider();
+        SS3FileProvider currSS3 = server.createProvider();
         
         DefaultFileSystemManager currMan = new DefaultFileSystemManager();
         currMan.addProvider(SS3Constants.S3SCHEME, currSS3);
         currMan.init(); 
         
-        StaticUserAuthenticator auth = new StaticUserAuthenticator("", currAccountStr, currKey);
-        FileSystemOptions opts = new FileSystemOptions(); 
-        DefaultFileSystemConfigBuilder.getInstance().setUserAuthenticator(opts, auth); 
+        FileSystemOptions opts = server.createOptions();
         
         currFileNameStr = "file05";
         String currUriStr = String.format("%s://%s/%s/%s", 
@@ -314,22 +343,18 @@ public class SS3FileProviderTest
     @Test
     public void A006_deleteFile() throws Exception
     {
-        String currAccountStr = testProperties.getProperty("s3.access.id"); 
-        String currKey = testProperties.getProperty("s3.access.secret");
         String currContainerStr = testProperties.getProperty("s3.test0001.bucket.name");
         String currHost = testProperties.getProperty("s3.host");
         String currRegion = testProperties.getProperty("s3.region");
         String currFileNameStr;
         
-        SS3FileProvider currSS3 = new SS3FileProvider();
+        SS3FileProvider currSS3 = server.createProvider();
         
         DefaultFileSystemManager currMan = new DefaultFileSystemManager();
         currMan.addProvider(SS3Constants.S3SCHEME, currSS3);
         currMan.init(); 
         
-        StaticUserAuthenticator auth = new StaticUserAuthenticator("", currAccountStr, currKey);
-        FileSystemOptions opts = new FileSystemOptions(); 
-        DefaultFileSystemConfigBuilder.getInstance().setUserAuthenticator(opts, auth); 
+        FileSystemOptions opts = server.createOptions();
         
         currFileNameStr = "test01.tmp";
         String currUriStr = String.format("%s://%s/%s/%s", 
@@ -350,14 +375,12 @@ public class SS3FileProviderTest
     @Test
     public void A007_listChildren() throws Exception
     {
-        String currAccountStr = testProperties.getProperty("s3.access.id"); 
-        String currKey = testProperties.getProperty("s3.access.secret");
         String currContainerStr = testProperties.getProperty("s3.test0001.bucket.name");
         String currHost = testProperties.getProperty("s3.host");
         String currRegion = testProperties.getProperty("s3.region");
         
         DefaultFileSystemManager currMan = new DefaultFileSystemManager();
-        SS3FileProvider currSS3 = new SS3FileProvider();
+        SS3FileProvider currSS3 = server.createProvider();
         
         // Optional set endpoint
         //currSS3.setEndpoint(currHost);
@@ -368,9 +391,7 @@ public class SS3FileProviderTest
         currMan.addProvider(SS3Constants.S3SCHEME, currSS3 );
         currMan.init(); 
         
-        StaticUserAuthenticator auth = new StaticUserAuthenticator("", currAccountStr, currKey);
-        FileSystemOptions opts = new FileSystemOptions(); 
-        DefaultFileSystemConfigBuilder.getInstance().setUserAuthenticator(opts, auth); 
+        FileSystemOptions opts = server.createOptions();
         
         String currFileNameStr = "uploadFile02";
         String currUriStr = String.format("%s://%s/%s/%s", 
@@ -378,6 +399,15 @@ public class SS3FileProviderTest
         FileObject currFile = currMan.resolveFile(currUriStr, opts);
         
         FileObject[] currObjs = currFile.getChildren();
+        
+        // The HEAD misses and a single-key listing finds the folder, then 
+        // one listing returns every child
+        Assert.assertEquals(1, server.getRequestCount(Operation.HEAD_OBJECT));
+        Assert.assertEquals(2, server.getRequestCount(Operation.LIST_OBJECTS));
+        Assert.assertEquals(3, server.getRequestCount());
+        
+        server.resetRequests();
+        
         for(FileObject obj : currObjs)
         {
             FileName currName = obj.getName();
@@ -387,71 +417,1408 @@ public class SS3FileProviderTest
             log.info( String.format("\nNAME.PATH : '%s'\nEXISTS : %b\nTYPE : %s\n\n", 
                            currName.getPath(), res, ft));
         }
+        
+        // Children already know their type from the listing
+        Assert.assertEquals(0, server.getRequestCount());
     }
     
-    public void uploadFileSetup02() throws Exception
+    /**
+     * Every getInputStream() call should get its own fresh content stream.
+     * 
+     * @throws Exception 
+     */
+    @Test
+    public void A008_readContentTwice() throws Exception
     {
-        String currAccountStr = testProperties.getProperty("s3.access.id"); 
-        String currKey = testProperties.getProperty("s3.access.secret");
         String currContainerStr = testProperties.getProperty("s3.test0001.bucket.name");
         String currHost = testProperties.getProperty("s3.host");
-        String currRegion = testProperties.getProperty("s3.region");
+        String currFileNameStr;
         
-        File temp = SS3TestUtils.createTempFile("uploadFile02", "tmp", "File 01");      
-        SS3TestUtils.uploadFile(currAccountStr, currHost, currKey, currContainerStr, temp.toPath(),
-                               Paths.get("uploadFile02/dir01/file01"));
-        temp.delete();
+        SS3FileProvider currSS3 = server.createProvider();
         
-        temp = SS3TestUtils.createTempFile("uploadFile02", "tmp", "File 02");      
-        SS3TestUtils.uploadFile(currAccountStr, currHost, currKey, currContainerStr, temp.toPath(),
-                               Paths.get("uploadFile02/dir01/file02"));
-        temp.delete();
+        DefaultFileSystemManager currMan = new DefaultFileSystemManager();
+        currMan.addProvider(SS3Constants.S3SCHEME, currSS3);
+        currMan.init(); 
         
-        temp = SS3TestUtils.createTempFile("uploadFile02", "tmp", "File 03");      
-        SS3TestUtils.uploadFile(currAccountStr, currHost, currKey, currContainerStr, temp.toPath(),
-                               Paths.get("uploadFile02/dir02/file03"));
-        temp.delete();
+        FileSystemOptions opts = server.createOptions();
         
-        temp = SS3TestUtils.createTempFile("uploadFile02", "tmp", "File 04");      
-        SS3TestUtils.uploadFile(currAccountStr, currHost, currKey, currContainerStr, temp.toPath(),
-                               Paths.get("uploadFile02/file04"));
-        temp.delete();
+        currFileNameStr = "file05";
+        String currUriStr = String.format("%s://%s/%s/%s", 
+                           SS3Constants.S3SCHEME, currHost, currContainerStr, currFileNameStr);
+        FileObject currFile = currMan.resolveFile(currUriStr, opts);
         
-        temp = SS3TestUtils.createTempFile("uploadFile02", "tmp", "File 05");      
-        SS3TestUtils.uploadFile(currAccountStr, currHost, currKey, currContainerStr, temp.toPath(),
-                               Paths.get("file05"));
-        temp.delete();
+        for( int i=0; i<2; i++ )
+        {
+            try( BufferedReader br = new BufferedReader(
+                    new InputStreamReader(currFile.getContent().getInputStream())) )
+            {
+                Assert.assertEquals("File 05", br.readLine());
+            }
+        }
+    }
+    
+    /**
+     * The streaming listing should return the same children as getChildren()
+     * 
+     * @throws Exception 
+     */
+    @Test
+    public void A009_listChildrenIterator() throws Exception
+    {
+        String currContainerStr = testProperties.getProperty("s3.test0001.bucket.name");
+        String currHost = testProperties.getProperty("s3.host");
         
-        temp = SS3TestUtils.createTempFile("uploadFile02", "tmp", "File 06");      
-        SS3TestUtils.uploadFile(currAccountStr, currHost, currKey, currContainerStr, temp.toPath(),
-                               Paths.get("uploadFile02/dir02/file06"));
-        temp.delete();
+        DefaultFileSystemManager currMan = new DefaultFileSystemManager();
+        SS3FileProvider currSS3 = server.createProvider();
+        
+        currMan.addProvider(SS3Constants.S3SCHEME, currSS3 );
+        currMan.init(); 
+        
+        FileSystemOptions opts = server.createOptions();
+        
+        String currFileNameStr = "uploadFile02";
+        String currUriStr = String.format("%s://%s/%s/%s", 
+                           SS3Constants.S3SCHEME, currHost, currContainerStr, currFileNameStr);
+        SS3FileObject currFile = (SS3FileObject)currMan.resolveFile(currUriStr, opts);
+        
+        // The folder's own marker is not a child
+        server.putObject(currContainerStr, "uploadFile02/", new byte[0]);
+        
+        int count = 0;
+        for( Iterator<String> it = currFile.listChildrenIterator(); it.hasNext(); )
+        {
+            String currChild = it.next();
+            log.info( String.format("CHILD : '%s'", currChild));
+            
+            Assert.assertFalse(currChild.endsWith("/uploadFile02/"));
+            count++;
+        }
+        
+        Assert.assertEquals(3, count);
+        Assert.assertEquals(currFile.getChildren().length, count);
+        
+        server.deleteObject(currContainerStr, "uploadFile02/");
     }
     
-    public void removeFileSetup02() throws Exception
+    /**
+     * Write a file larger than one part with multipart upload enabled.
+     * 
+     * @throws Exception 
+     */
+    @Test
+    public void A010_multipartUpload() throws Exception
     {
-        String currAccountStr = testProperties.getProperty("s3.access.id"); 
-        String currKey = testProperties.getProperty("s3.access.secret");
         String currContainerStr = testProperties.getProperty("s3.test0001.bucket.name");
         String currHost = testProperties.getProperty("s3.host");
-        String currRegion = testProperties.getProperty("s3.region");
+        String currFileNameStr;
+        
+        SS3FileProvider currSS3 = server.createProvider();
+        
+        DefaultFileSystemManager currMan = new DefaultFileSystemManager();
+        currMan.addProvider(SS3Constants.S3SCHEME, currSS3);
+        currMan.init(); 
+        
+        FileSystemOptions opts = server.createOptions();
+        SS3FileSystemConfigBuilder.getInstance().setMultipartUpload(opts, true);
+        SS3FileSystemConfigBuilder.getInstance().setUploadPartSize(opts, SS3Constants.MIN_UPLOAD_PART_SIZE);
+        
+        currFileNameStr = "multipart01.tmp";
+        String currUriStr = String.format("%s://%s/%s/%s", 
+                           SS3Constants.S3SCHEME, currHost, currContainerStr, currFileNameStr);
+        FileObject currFile = currMan.resolveFile(currUriStr, opts);
+        
+        byte[] buf = new byte[1024 * 1024];
+        long expected = 0;
+        try( OutputStream out = currFile.getContent().getOutputStream() )
+        {
+            for( int i=0; i<12; i++ )
+            {
+                out.write(buf);
+                expected += buf.length;
+            }
+        }
+        
+        Assert.assertEquals(1, server.getRequestCount(Operation.CREATE_MULTIPART_UPLOAD));
+        Assert.assertEquals(3, server.getRequestCount(Operation.UPLOAD_PART));
+        Assert.assertEquals(1, server.getRequestCount(Operation.COMPLETE_MULTIPART_UPLOAD));
+        Assert.assertEquals(0, server.getRequestCount(Operation.PUT_OBJECT));
+        
+        currFile.refresh();
+        Assert.assertEquals(expected, currFile.getContent().getSize());
+        
+        Assert.assertTrue(currFile.delete());
+    }
+    
+    /**
+     * Small writes are uploaded straight from memory.
+     * 
+     * @throws Exception 
+     */
+    @Test
+    public void A011_smallWrite() throws Exception
+    {
+        String currContainerStr = testProperties.getProperty("s3.test0001.bucket.name");
+        String currHost = testProperties.getProperty("s3.host");
+        String currFileNameStr;
+        
+        SS3FileProvider currSS3 = server.createProvider();
+        
+        DefaultFileSystemManager currMan = new DefaultFileSystemManager();
+        currMan.addProvider(SS3Constants.S3SCHEME, currSS3);
+        currMan.init(); 
+        
+        FileSystemOptions opts = server.createOptions();
+        
+        currFileNameStr = "smallWrite01.json";
+        String currUriStr = String.format("%s://%s/%s/%s", 
+                           SS3Constants.S3SCHEME, currHost, currContainerStr, currFileNameStr);
+        FileObject currFile = currMan.resolveFile(currUriStr, opts);
+        
+        try( OutputStream out = currFile.getContent().getOutputStream() )
+        {
+            out.write("{\"test\":1}".getBytes("UTF-8"));
+        }
+        
+        // A single PUT, with no multipart upload
+        Assert.assertEquals(1, server.getRequestCount(Operation.PUT_OBJECT));
+        Assert.assertEquals(0, server.getRequestCount(Operation.CREATE_MULTIPART_UPLOAD));
+        
+        server.resetRequests();
+        
+        try( BufferedReader br = new BufferedReader(
+                new InputStreamReader(currFile.getContent().getInputStream())) )
+        {
+            Assert.assertEquals("{\"test\":1}", br.readLine());
+        }
+        
+        Assert.assertEquals(1, server.getRequestCount(Operation.GET_OBJECT));
+        
+        // Writing after close fails cleanly
+        OutputStream out = new SS3OutputStream((SS3FileObject)currFile);
+        out.write('x');
+        out.close();
+        
+        try
+        {
+            out.write('x');
+            
+            Assert.fail("Write after close should fail");
+        }
+        catch (IOException ex)
+        {
+            Assert.assertEquals("Stream closed", ex.getMessage());
+        }
+        
+        // A write larger than the memory threshold goes straight to a temp file
+        FileSystemOptions smallOpts = server.createOptions();
+        SS3FileSystemConfigBuilder.getInstance().setMemoryThreshold(smallOpts, 16);
+        
+        FileObject largeFile = currMan.resolveFile(currUriStr, smallOpts);
+        byte[] largeContent = new byte[64];
+        Arrays.fill(largeContent, (byte)'x');
+        
+        SS3OutputStream largeOut = new SS3OutputStream((SS3FileObject)largeFile);
+        largeOut.write('x');
+        Assert.assertNull(largeOut.getTempFile());
+        
+        largeOut.write(largeContent);
+        Assert.assertNotNull(largeOut.getTempFile());
+        largeOut.close();
+        
+        Assert.assertEquals(65, server.getObject(currContainerStr, currFileNameStr).length);
+        
+        Assert.assertTrue(currFile.delete());
+    }
+    
+    /**
+     * Read part of a file through random access content.
+     * 
+     * @throws Exception 
+     */
+    @Test
+    public void A012_randomAccessRead() throws Exception
+    {
+        String currContainerStr = testProperties.getProperty("s3.test0001.bucket.name");
+        String currHost = testProperties.getProperty("s3.host");
+        String currFileNameStr;
+        
+        SS3FileProvider currSS3 = server.createProvider();
+        
+        DefaultFileSystemManager currMan = new DefaultFileSystemManager();
+        currMan.addProvider(SS3Constants.S3SCHEME, currSS3);
+        currMan.init(); 
+        
+        FileSystemOptions opts = server.createOptions();
+        
+        currFileNameStr = "file05";
+        String currUriStr = String.format("%s://%s/%s/%s", 
+                           SS3Constants.S3SCHEME, currHost, currContainerStr, currFileNameStr);
+        FileObject currFile = currMan.resolveFile(currUriStr, opts);
+        
+        RandomAccessContent rac = currFile.getContent().getRandomAccessContent(RandomAccessMode.READ);
+        try
+        {
+            Assert.assertEquals(7, rac.length());
+            
+            byte[] buf = new byte[2];
+            rac.seek(5);
+            rac.readFully(buf);
+            Assert.assertEquals("05", new String(buf, "UTF-8"));
             
-        SS3TestUtils.deleteFile(currAccountStr, currHost, currKey, currContainerStr,
-                               Paths.get("uploadFile02/dir01/file01"));
-              
-        SS3TestUtils.deleteFile(currAccountStr, currHost, currKey, currContainerStr,
-                               Paths.get("uploadFile02/dir01/file02"));
-        
-        SS3TestUtils.deleteFile(currAccountStr, currHost, currKey, currContainerStr,
-                               Paths.get("uploadFile02/dir02/file03"));
-    
-        SS3TestUtils.deleteFile(currAccountStr, currHost, currKey, currContainerStr,
-                               Paths.get("uploadFile02/file04"));
-     
-        SS3TestUtils.deleteFile(currAccountStr, currHost, currKey, currContainerStr,
-                               Paths.get("file05"));
-   
-        SS3TestUtils.deleteFile(currAccountStr, currHost, currKey, currContainerStr,
-                               Paths.get("uploadFile02/dir02/file06"));
+            rac.seek(0);
+            rac.readFully(buf);
+            Assert.assertEquals("Fi", new String(buf, "UTF-8"));
+        }
+        finally
+        {
+            rac.close();
+        }
+    }
+    
+    /**
+     * Read a file back as several concurrent ranges.
+     * 
+     * @throws Exception 
+     */
+    @Test
+    public void A013_parallelDownload() throws Exception
+    {
+        String currContainerStr = testProperties.getProperty("s3.test0001.bucket.name");
+        String currHost = testProperties.getProperty("s3.host");
+        String currFileNameStr;
+        
+        SS3FileProvider currSS3 = server.createProvider();
+        
+        DefaultFileSystemManager currMan = new DefaultFileSystemManager();
+        currMan.addProvider(SS3Constants.S3SCHEME, currSS3);
+        currMan.init(); 
+        
+        FileSystemOptions opts = server.createOptions();
+        SS3FileSystemConfigBuilder.getInstance().setDownloadThreads(opts, 3);
+        SS3FileSystemConfigBuilder.getInstance().setDownloadPartSize(opts, 1024 * 1024);
+        SS3FileSystemConfigBuilder.getInstance().setParallelDownloadThreshold(opts, 1024 * 1024);
+        
+        try
+        {
+            SS3FileSystemConfigBuilder.getInstance().setDownloadPartSize(opts, 0);
+            
+            Assert.fail("A part size of 0 should be rejected");
+        }
+        catch (IllegalArgumentException ex)
+        {
+            // Expected, the earlier size is kept
+        }
+        
+        currFileNameStr = "parallel01.tmp";
+        String currUriStr = String.format("%s://%s/%s/%s", 
+                           SS3Constants.S3SCHEME, currHost, currContainerStr, currFileNameStr);
+        FileObject currFile = currMan.resolveFile(currUriStr, opts);
+        
+        byte[] expected = new byte[3 * 1024 * 1024 + 17];
+        new Random(42).nextBytes(expected);
+        try( OutputStream out = currFile.getContent().getOutputStream() )
+        {
+            out.write(expected);
+        }
+        
+        currFile.refresh();
+        
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        try( InputStream in = currFile.getContent().getInputStream() )
+        {
+            byte[] buf = new byte[8192];
+            int n;
+            while( (n = in.read(buf)) >= 0 )
+            {
+                actual.write(buf, 0, n);
+            }
+        }
+        
+        Assert.assertTrue(Arrays.equals(expected, actual.toByteArray()));
+        
+        Assert.assertTrue(currFile.delete());
+    }
+    
+    /**
+     * Copy and then move a file within the same bucket.
+     * 
+     * @throws Exception 
+     */
+    @Test
+    public void A014_copyAndMove() throws Exception
+    {
+        String currContainerStr = testProperties.getProperty("s3.test0001.bucket.name");
+        String currHost = testProperties.getProperty("s3.host");
+        
+        SS3FileProvider currSS3 = server.createProvider();
+        
+        DefaultFileSystemManager currMan = new DefaultFileSystemManager();
+        currMan.addProvider(SS3Constants.S3SCHEME, currSS3);
+        currMan.init(); 
+        
+        FileSystemOptions opts = server.createOptions();
+        
+        String currUriStr = String.format("%s://%s/%s/%s", 
+                           SS3Constants.S3SCHEME, currHost, currContainerStr, "file05");
+        FileObject srcFile = currMan.resolveFile(currUriStr, opts);
+        
+        currUriStr = String.format("%s://%s/%s/%s", 
+                           SS3Constants.S3SCHEME, currHost, currContainerStr, "copy05");
+        FileObject copyFile = currMan.resolveFile(currUriStr, opts);
+        
+        currUriStr = String.format("%s://%s/%s/%s", 
+                           SS3Constants.S3SCHEME, currHost, currContainerStr, "moved05");
+        FileObject movedFile = currMan.resolveFile(currUriStr, opts);
+        
+        copyFile.copyFrom(srcFile, Selectors.SELECT_SELF);
+        Assert.assertTrue(copyFile.exists());
+        Assert.assertEquals(srcFile.getContent().getSize(), copyFile.getContent().getSize());
+        
+        copyFile.moveTo(movedFile);
+        Assert.assertFalse(copyFile.exists());
+        Assert.assertTrue(movedFile.exists());
+        
+        try( BufferedReader br = new BufferedReader(
+                new InputStreamReader(movedFile.getContent().getInputStream())) )
+        {
+            Assert.assertEquals("File 05", br.readLine());
+        }
+        
+        Assert.assertTrue(movedFile.delete());
+    }
+    
+    /**
+     * Delete a whole folder tree with batch deletes.
+     * 
+     * @throws Exception 
+     */
+    @Test
+    public void A015_deleteTree() throws Exception
+    {
+        String currContainerStr = testProperties.getProperty("s3.test0001.bucket.name");
+        String currHost = testProperties.getProperty("s3.host");
+        
+        for( String currPath : new String[] { "deleteTree01/file01", "deleteTree01/dir01/file02",
+                                              "deleteTree01/dir01/dir02/file03" } )
+        {
+            server.putObject(currContainerStr, currPath, currPath.getBytes("UTF-8"));
+        }
+        
+        SS3FileProvider currSS3 = server.createProvider();
+        
+        DefaultFileSystemManager currMan = new DefaultFileSystemManager();
+        currMan.addProvider(SS3Constants.S3SCHEME, currSS3);
+        currMan.init(); 
+        
+        FileSystemOptions opts = server.createOptions();
+        
+        String currUriStr = String.format("%s://%s/%s/%s", 
+                           SS3Constants.S3SCHEME, currHost, currContainerStr, "deleteTree01");
+        FileObject currFile = currMan.resolveFile(currUriStr, opts);
+        
+        FileObject currChild = currFile.resolveFile("dir01/file02");
+        FileObject currDir = currFile.resolveFile("dir01");
+        
+        Assert.assertEquals(FileType.FOLDER, currFile.getType());
+        Assert.assertEquals(FileType.FILE, currChild.getType());
+        Assert.assertEquals(FileType.FOLDER, currDir.getType());
+        
+        server.resetRequests();
+        
+        // Three files, two folders below this one, and this folder
+        Assert.assertEquals(6, currFile.delete(Selectors.SELECT_ALL));
+        Assert.assertFalse(currFile.exists());
+        
+        // Cached descendants know they're gone without a refresh
+        Assert.assertFalse(currChild.exists());
+        Assert.assertFalse(currDir.exists());
+        
+        // One batch delete rather than a request per file
+        Assert.assertEquals(1, server.getRequestCount(Operation.DELETE_OBJECTS));
+        Assert.assertEquals(0, server.getRequestCount(Operation.DELETE_OBJECT));
+        
+        currFile.refresh();
+        Assert.assertFalse(currFile.exists());
+    }
+    
+    /**
+     * File-systems with the same credentials and client options share a client.
+     * 
+     * @throws Exception 
+     */
+    @Test
+    public void A016_sharedClient() throws Exception
+    {
+        String currContainerStr = testProperties.getProperty("s3.test0001.bucket.name");
+        String currHost = testProperties.getProperty("s3.host");
+        
+        SS3FileProvider currSS3 = server.createProvider();
+        
+        DefaultFileSystemManager currMan = new DefaultFileSystemManager();
+        currMan.addProvider(SS3Constants.S3SCHEME, currSS3);
+        currMan.init(); 
+        
+        // Options that don't affect the client still give separate file-systems
+        FileSystemOptions opts01 = server.createOptions();
+        SS3FileSystemConfigBuilder.getInstance().setWorkerThreads(opts01, 2);
+        
+        FileSystemOptions opts02 = server.createOptions();
+        SS3FileSystemConfigBuilder.getInstance().setWorkerThreads(opts02, 3);
+        
+        String currUriStr = String.format("%s://%s/%s/%s", 
+                           SS3Constants.S3SCHEME, currHost, currContainerStr, "uploadFile02");
+        SS3FileSystem fs01 = (SS3FileSystem)currMan.resolveFile(currUriStr, opts01).getFileSystem();
+        SS3FileSystem fs02 = (SS3FileSystem)currMan.resolveFile(currUriStr, opts02).getFileSystem();
+        
+        Assert.assertNotSame(fs01, fs02);
+        Assert.assertEquals(fs01.getClientKey(), fs02.getClientKey());
+        
+        // Each file-system has its own instrumented proxy over the shared client
+        fs01.getClient();
+        fs02.getClient();
+        
+        SS3ClientRegistry registry = SS3ClientRegistry.getInstance();
+        int refCount = registry.getRefCount(fs01.getClientKey());
+        Assert.assertTrue(refCount >= 2);
+        
+        currMan.closeFileSystem(fs02);
+        Assert.assertEquals(refCount - 1, registry.getRefCount(fs01.getClientKey()));
+        
+        currMan.close();
+    }
+    
+    /**
+     * Writes through the file-system are not hidden by its metadata cache.
+     * 
+     * @throws Exception 
+     */
+    @Test
+    public void A017_metadataCache() throws Exception
+    {
+        String currContainerStr = testProperties.getProperty("s3.test0001.bucket.name");
+        String currHost = testProperties.getProperty("s3.host");
+        
+        SS3FileProvider currSS3 = server.createProvider();
+        
+        DefaultFileSystemManager currMan = new DefaultFileSystemManager();
+        currMan.addProvider(SS3Constants.S3SCHEME, currSS3);
+        currMan.init(); 
+        
+        FileSystemOptions opts = server.createOptions();
+        SS3FileSystemConfigBuilder.getInstance().setMetadataCacheTtl(opts, 60000);
+        
+        String currUriStr = String.format("%s://%s/%s/%s", 
+                           SS3Constants.S3SCHEME, currHost, currContainerStr, "metadataCache01/file01");
+        FileObject currFile = currMan.resolveFile(currUriStr, opts);
+        
+        Assert.assertFalse(currFile.exists());
+        Assert.assertFalse(currFile.getParent().exists());
+        
+        try( OutputStream out = currFile.getContent().getOutputStream() )
+        {
+            out.write("File 01".getBytes("UTF-8"));
+        }
+        
+        currFile.refresh();
+        currFile.getParent().refresh();
+        Assert.assertEquals(FileType.FILE, currFile.getType());
+        Assert.assertEquals(FileType.FOLDER, currFile.getParent().getType());
+        Assert.assertEquals(7, currFile.getContent().getSize());
+        
+        try( OutputStream out = currFile.getContent().getOutputStream() )
+        {
+            out.write("File 01 again".getBytes("UTF-8"));
+        }
+        
+        currFile.refresh();
+        Assert.assertEquals(13, currFile.getContent().getSize());
+        
+        Assert.assertTrue(currFile.delete());
+        
+        currFile.refresh();
+        Assert.assertFalse(currFile.exists());
+    }
+    
+    /**
+     * Children returned by a listing already know their type and size.
+     * 
+     * @throws Exception 
+     */
+    @Test
+    public void A018_listChildrenResolved() throws Exception
+    {
+        String currContainerStr = testProperties.getProperty("s3.test0001.bucket.name");
+        String currHost = testProperties.getProperty("s3.host");
+        
+        DefaultFileSystemManager currMan = new DefaultFileSystemManager();
+        SS3FileProvider currSS3 = server.createProvider();
+        
+        currMan.addProvider(SS3Constants.S3SCHEME, currSS3 );
+        currMan.init(); 
+        
+        FileSystemOptions opts = server.createOptions();
+        
+        String currUriStr = String.format("%s://%s/%s/%s", 
+                           SS3Constants.S3SCHEME, currHost, currContainerStr, "uploadFile02");
+        FileObject currFile = currMan.resolveFile(currUriStr, opts);
+        
+        FileObject[] children = currFile.getChildren();
+        Assert.assertEquals(3, children.length);
+        
+        server.resetRequests();
+        
+        Assert.assertEquals(FileType.FOLDER, currFile.getChild("dir01").getType());
+        Assert.assertEquals(FileType.FOLDER, currFile.getChild("dir02").getType());
+        Assert.assertEquals(FileType.FILE, currFile.getChild("file04").getType());
+        
+        FileObject dir01 = currFile.getChild("dir01");
+        children = dir01.getChildren();
+        Assert.assertEquals(2, children.length);
+        
+        for( FileObject child : children )
+        {
+            Assert.assertEquals(FileType.FILE, child.getType());
+            Assert.assertEquals(7, child.getContent().getSize());
+        }
+        
+        // Only the listing of dir01.  Nothing is fetched per child.
+        Assert.assertEquals(1, server.getRequestCount(Operation.LIST_OBJECTS));
+        Assert.assertEquals(1, server.getRequestCount());
+    }
+    
+    /**
+     * Read a file through the local cache, before and after it changes.
+     * 
+     * @throws Exception 
+     */
+    @Test
+    public void A019_localCache() throws Exception
+    {
+        String currContainerStr = testProperties.getProperty("s3.test0001.bucket.name");
+        String currHost = testProperties.getProperty("s3.host");
+        
+        File cacheDir = Files.createTempDirectory("localCache01").toFile();
+        
+        SS3FileProvider currSS3 = server.createProvider();
+        
+        DefaultFileSystemManager currMan = new DefaultFileSystemManager();
+        currMan.addProvider(SS3Constants.S3SCHEME, currSS3);
+        currMan.init(); 
+        
+        FileSystemOptions opts = server.createOptions();
+        SS3FileSystemConfigBuilder.getInstance().setLocalCacheDir(opts, cacheDir);
+        
+        String currUriStr = String.format("%s://%s/%s/%s", 
+                           SS3Constants.S3SCHEME, currHost, currContainerStr, "localCache01/file01");
+        FileObject currFile = currMan.resolveFile(currUriStr, opts);
+        
+        try( OutputStream out = currFile.getContent().getOutputStream() )
+        {
+            out.write("File 01".getBytes("UTF-8"));
+        }
+        
+        for( int i = 0; i < 2; i++ )
+        {
+            currFile.refresh();
+            try( BufferedReader br = new BufferedReader(
+                    new InputStreamReader(currFile.getContent().getInputStream())) )
+            {
+                Assert.assertEquals("File 01", br.readLine());
+            }
+        }
+        
+        Assert.assertEquals(1, cacheDir.listFiles().length);
+        
+        try( OutputStream out = currFile.getContent().getOutputStream() )
+        {
+            out.write("File 01 changed".getBytes("UTF-8"));
+        }
+        
+        currFile.refresh();
+        try( BufferedReader br = new BufferedReader(
+                new InputStreamReader(currFile.getContent().getInputStream())) )
+        {
+            Assert.assertEquals("File 01 changed", br.readLine());
+        }
+        
+        Assert.assertEquals(1, cacheDir.listFiles().length);
+        
+        // New content too large to cache is read from the revalidating GET
+        FileSystemOptions smallOpts = server.createOptions();
+        SS3FileSystemConfigBuilder.getInstance().setLocalCacheDir(smallOpts, 
+                Files.createTempDirectory("localCache02").toFile());
+        SS3FileSystemConfigBuilder.getInstance().setLocalCacheSize(smallOpts, 20);
+        
+        FileObject smallFile = currMan.resolveFile(currUriStr, smallOpts);
+        smallFile.refresh();
+        try( InputStream in = smallFile.getContent().getInputStream() )
+        {
+            Assert.assertEquals("File 01 changed", 
+                    new BufferedReader(new InputStreamReader(in, "UTF-8")).readLine());
+        }
+        
+        try( OutputStream out = smallFile.getContent().getOutputStream() )
+        {
+            out.write("File 01 changed again".getBytes("UTF-8"));
+        }
+        
+        smallFile.refresh();
+        server.resetRequests();
+        try( BufferedReader br = new BufferedReader(
+                new InputStreamReader(smallFile.getContent().getInputStream())) )
+        {
+            Assert.assertEquals("File 01 changed again", br.readLine());
+        }
+        
+        Assert.assertEquals(1, server.getRequestCount(Operation.GET_OBJECT));
+        
+        Assert.assertTrue(currFile.delete());
+    }
+    
+    /**
+     * Read a file through a memory mapping, with and without a local cache.
+     * 
+     * @throws Exception 
+     */
+    @Test
+    public void A020_mapContent() throws Exception
+    {
+        String currContainerStr = testProperties.getProperty("s3.test0001.bucket.name");
+        String currHost = testProperties.getProperty("s3.host");
+        
+        SS3FileProvider currSS3 = server.createProvider();
+        
+        DefaultFileSystemManager currMan = new DefaultFileSystemManager();
+        currMan.addProvider(SS3Constants.S3SCHEME, currSS3);
+        currMan.init(); 
+        
+        FileSystemOptions opts01 = server.createOptions();
+        
+        FileSystemOptions opts02 = server.createOptions();
+        SS3FileSystemConfigBuilder.getInstance().setLocalCacheDir(opts02, 
+                Files.createTempDirectory("mapContent01").toFile());
+        
+        String currUriStr = String.format("%s://%s/%s/%s", 
+                           SS3Constants.S3SCHEME, currHost, currContainerStr, "file05");
+        
+        for( FileSystemOptions opts : new FileSystemOptions[] { opts01, opts02 } )
+        {
+            SS3FileObject currFile = (SS3FileObject)currMan.resolveFile(currUriStr, opts);
+            
+            MappedByteBuffer buffer = currFile.map();
+            Assert.assertEquals(7, buffer.remaining());
+            
+            byte[] res = new byte[2];
+            buffer.position(5);
+            buffer.get(res);
+            Assert.assertEquals("05", new String(res, "UTF-8"));
+        }
+    }
+    
+    /**
+     * Write, inspect, read, list and delete a file asynchronously.
+     * 
+     * @throws Exception 
+     */
+    @Test
+    public void A021_asyncOperations() throws Exception
+    {
+        String currContainerStr = testProperties.getProperty("s3.test0001.bucket.name");
+        String currHost = testProperties.getProperty("s3.host");
+        
+        SS3FileProvider currSS3 = server.createProvider();
+        
+        DefaultFileSystemManager currMan = new DefaultFileSystemManager();
+        currMan.addProvider(SS3Constants.S3SCHEME, currSS3);
+        currMan.init(); 
+        
+        FileSystemOptions opts = server.createOptions();
+        
+        String currUriStr = String.format("%s://%s/%s/%s", 
+                           SS3Constants.S3SCHEME, currHost, currContainerStr, "async01/file01");
+        SS3AsyncFileObject currFile = new SS3AsyncFileObject(
+                                        (SS3FileObject)currMan.resolveFile(currUriStr, opts));
+        SS3AsyncFileObject currDir = new SS3AsyncFileObject(
+                                        (SS3FileObject)currFile.getFileObject().getParent());
+        
+        byte[] content = "File 01".getBytes("UTF-8");
+        
+        currFile.write(content).get();
+        
+        Assert.assertTrue(currFile.exists().get());
+        Assert.assertEquals(FileType.FOLDER, currDir.getType().get());
+        Assert.assertEquals(7L, currFile.getSize().get().longValue());
+        Assert.assertTrue(Arrays.equals(content, currFile.readAll().get()));
+        Assert.assertEquals(1, currDir.list().get().size());
+        
+        currFile.delete().get();
+        
+        Assert.assertFalse(currFile.exists().get());
+        
+        // A rejected operation still returns a future, failed
+        FileSystemOptions stoppedOpts = server.createOptions();
+        ExecutorService stopped = Executors.newSingleThreadExecutor();
+        stopped.shutdown();
+        SS3FileSystemConfigBuilder.getInstance().setAsyncExecutor(stoppedOpts, stopped);
+        
+        SS3AsyncFileObject stoppedFile = new SS3AsyncFileObject(
+                                        (SS3FileObject)currMan.resolveFile(currUriStr, stoppedOpts));
+        
+        CompletableFuture<Boolean> res = stoppedFile.exists();
+        Assert.assertTrue(res.isCompletedExceptionally());
+        
+        try
+        {
+            res.get();
+            
+            Assert.fail("A rejected operation should fail");
+        }
+        catch (ExecutionException ex)
+        {
+            Assert.assertTrue(ex.getCause() instanceof RejectedExecutionException);
+        }
+    }
+    
+    /**
+     * Find files in a folder tree from a single flat listing.
+     * 
+     * @throws Exception 
+     */
+    @Test
+    public void A022_findFiles() throws Exception
+    {
+        String currContainerStr = testProperties.getProperty("s3.test0001.bucket.name");
+        String currHost = testProperties.getProperty("s3.host");
+        
+        SS3FileProvider currSS3 = server.createProvider();
+        
+        DefaultFileSystemManager currMan = new DefaultFileSystemManager();
+        currMan.addProvider(SS3Constants.S3SCHEME, currSS3);
+        currMan.init(); 
+        
+        FileSystemOptions opts = server.createOptions();
+        
+        String currUriStr = String.format("%s://%s/%s/%s", 
+                           SS3Constants.S3SCHEME, currHost, currContainerStr, "uploadFile02");
+        FileObject currFile = currMan.resolveFile(currUriStr, opts);
+        
+        FileObject[] res = currFile.findFiles(Selectors.SELECT_ALL);
+        Assert.assertEquals(8, res.length);
+        
+        // The HEAD misses and a single-key listing finds the folder, then
+        // one flat listing returns the whole tree
+        Assert.assertEquals(1, server.getRequestCount(Operation.HEAD_OBJECT));
+        Assert.assertEquals(2, server.getRequestCount(Operation.LIST_OBJECTS));
+        Assert.assertEquals(3, server.getRequestCount());
+        
+        // Depthwise, so the base folder comes last
+        Assert.assertEquals(currFile.getName(), res[res.length - 1].getName());
+        
+        Assert.assertEquals(5, currFile.findFiles(Selectors.SELECT_FILES).length);
+        Assert.assertEquals(7, currFile.findFiles(Selectors.EXCLUDE_SELF).length);
+        Assert.assertEquals(3, currFile.findFiles(new FileDepthSelector(1, 1)).length);
+        
+        for( FileObject file : currFile.findFiles(Selectors.SELECT_FILES) )
+        {
+            Assert.assertEquals(FileType.FILE, file.getType());
+        }
+    }
+    
+    /**
+     * Upload a local directory tree in parallel.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void A023_uploadDirectory() throws Exception
+    {
+        String currContainerStr = testProperties.getProperty("s3.test0001.bucket.name");
+        String currHost = testProperties.getProperty("s3.host");
+        
+        File localDir = Files.createTempDirectory("uploadDir01").toFile();
+        for( String currPath : new String[] { "file01", "dir01/file02", "dir01/dir02/file03" } )
+        {
+            File temp = new File(localDir, currPath);
+            temp.getParentFile().mkdirs();
+            Files.write(temp.toPath(), currPath.getBytes("UTF-8"));
+        }
+        
+        File textFile = new File(localDir, "file04.txt");
+        Files.write(textFile.toPath(), "File 04".getBytes("UTF-8"));
+        
+        // A link to a file is uploaded as the file, a broken link fails
+        File linkFile = new File(localDir, "link01");
+        File brokenFile = new File(localDir, "broken01");
+        Files.createSymbolicLink(linkFile.toPath(), new File(localDir, "file01").toPath());
+        Files.createSymbolicLink(brokenFile.toPath(), new File(localDir, "missing").toPath());
+        
+        SS3FileProvider currSS3 = server.createProvider();
+        
+        DefaultFileSystemManager currMan = new DefaultFileSystemManager();
+        currMan.addProvider(SS3Constants.S3SCHEME, currSS3);
+        currMan.init();
+        
+        // Every file is a multipart upload here
+        FileSystemOptions opts = server.createOptions();
+        SS3FileSystemConfigBuilder.getInstance().setTransferThreads(opts, 2);
+        SS3FileSystemConfigBuilder.getInstance().setMultipartUploadThreshold(opts, 1);
+        
+        String currUriStr = String.format("%s://%s/%s/%s",
+                           SS3Constants.S3SCHEME, currHost, currContainerStr, "uploadDir01");
+        SS3FileObject currFile = (SS3FileObject)currMan.resolveFile(currUriStr, opts);
+        
+        List<SS3TransferResult> res = currFile.uploadDirectory(localDir);
+        Assert.assertEquals(6, res.size());
+        
+        for( SS3TransferResult currRes : res )
+        {
+            Assert.assertTrue(currRes.getKey().startsWith("uploadDir01/"));
+            Assert.assertEquals(currRes.getKey().equals("uploadDir01/broken01") == false, 
+                                currRes.isSuccessful());
+        }
+        
+        Assert.assertEquals(5, server.getRequestCount(Operation.CREATE_MULTIPART_UPLOAD));
+        Assert.assertEquals("text/plain", 
+                server.getContentType(currContainerStr, "uploadDir01/file04.txt"));
+        Assert.assertEquals("file01", 
+                new String(server.getObject(currContainerStr, "uploadDir01/link01"), "UTF-8"));
+        
+        Assert.assertEquals(FileType.FOLDER, currFile.getType());
+        Assert.assertEquals(5, currFile.findFiles(Selectors.SELECT_FILES).length);
+        Assert.assertEquals(FileType.FILE,
+                currFile.resolveFile("dir01/dir02/file03").getType());
+        
+        // A file isn't a directory, and would be uploaded over the folder marker
+        int putCount = server.getRequestCount(Operation.PUT_OBJECT);
+        try
+        {
+            currFile.uploadDirectory(textFile);
+            
+            Assert.fail("Uploading a file as a directory should fail");
+        }
+        catch (FileSystemException ex)
+        {
+            // Expected
+        }
+        
+        Assert.assertEquals(putCount, server.getRequestCount(Operation.PUT_OBJECT));
+        Assert.assertEquals(5, server.getRequestCount(Operation.CREATE_MULTIPART_UPLOAD));
+        
+        // Five files, two folders and the uploaded folder itself
+        Assert.assertEquals(8, currFile.delete(Selectors.SELECT_ALL));
+        
+        for( String currPath : new String[] { "dir01/dir02/file03", "dir01/file02", "file01",
+                                              "file04.txt", "link01", "broken01",
+                                              "dir01/dir02", "dir01", "" } )
+        {
+            new File(localDir, currPath).delete();
+        }
+    }
+    
+    /**
+     * Download a folder tree in parallel, skipping files already up to date.
+     * 
+     * @throws Exception 
+     */
+    @Test
+    public void A024_downloadDirectory() throws Exception
+    {
+        String currContainerStr = testProperties.getProperty("s3.test0001.bucket.name");
+        String currHost = testProperties.getProperty("s3.host");
+        
+        SS3FileProvider currSS3 = server.createProvider();
+        
+        DefaultFileSystemManager currMan = new DefaultFileSystemManager();
+        currMan.addProvider(SS3Constants.S3SCHEME, currSS3);
+        currMan.init(); 
+        
+        FileSystemOptions opts = server.createOptions();
+        
+        String currUriStr = String.format("%s://%s/%s/%s", 
+                           SS3Constants.S3SCHEME, currHost, currContainerStr, "uploadFile02");
+        SS3FileObject currFile = (SS3FileObject)currMan.resolveFile(currUriStr, opts);
+        
+        File localDir = Files.createTempDirectory("downloadDir01").toFile();
+        
+        List<SS3TransferResult> res = currFile.downloadDirectory(localDir);
+        Assert.assertEquals(5, res.size());
+        
+        for( SS3TransferResult currRes : res )
+        {
+            Assert.assertTrue(currRes.isSuccessful());
+            Assert.assertFalse(currRes.isSkipped());
+        }
+        
+        File file03 = new File(localDir, "dir02/file03");
+        Assert.assertEquals("File 03", new String(Files.readAllBytes(file03.toPath()), "UTF-8"));
+        
+        // Nothing changed, so nothing is downloaded again
+        for( SS3TransferResult currRes : currFile.downloadDirectory(localDir) )
+        {
+            Assert.assertTrue(currRes.isSkipped());
+        }
+        
+        for( String currPath : new String[] { "dir01/file01", "dir01/file02", "dir02/file03", 
+                                              "dir02/file06", "file04", "dir01", "dir02", "" } )
+        {
+            new File(localDir, currPath).delete();
+        }
+    }
+    
+    /**
+     * The file-system's metrics count the same requests the server saw.
+     * 
+     * @throws Exception 
+     */
+    @Test
+    public void A025_metrics() throws Exception
+    {
+        String currContainerStr = testProperties.getProperty("s3.test0001.bucket.name");
+        String currHost = testProperties.getProperty("s3.host");
+        
+        SS3FileProvider currSS3 = server.createProvider();
+        
+        DefaultFileSystemManager currMan = new DefaultFileSystemManager();
+        currMan.addProvider(SS3Constants.S3SCHEME, currSS3);
+        currMan.init(); 
+        
+        FileSystemOptions opts = server.createOptions();
+        SS3FileSystemConfigBuilder.getInstance().setMetricsMBeanEnabled(opts, true);
+        
+        String currUriStr = String.format("%s://%s/%s/%s", 
+                           SS3Constants.S3SCHEME, currHost, currContainerStr, "uploadFile02/file04");
+        FileObject currFile = currMan.resolveFile(currUriStr, opts);
+        
+        try( InputStream in = currFile.getContent().getInputStream() )
+        {
+            Assert.assertEquals("File 04", new BufferedReader(new InputStreamReader(in, "UTF-8")).readLine());
+        }
+        
+        SS3Metrics metrics = ((SS3FileSystem)currFile.getFileSystem()).getMetrics();
+        
+        for( SS3OperationStats currStats : metrics.getAllStats() )
+        {
+            log.info( String.format("%s", currStats) );
+        }
+        
+        Assert.assertEquals(server.getRequestCount(Operation.HEAD_OBJECT), 
+                metrics.getStats(SS3Operation.HEAD_OBJECT).getCount());
+        Assert.assertEquals(server.getRequestCount(Operation.GET_OBJECT), 
+                metrics.getStats(SS3Operation.GET_OBJECT).getCount());
+        Assert.assertEquals(7, metrics.getStats(SS3Operation.GET_OBJECT).getBytes());
+        Assert.assertEquals(0, metrics.getErrorCount());
+        Assert.assertTrue(metrics.getStats(SS3Operation.GET_OBJECT).getMaxLatencyMillis() > 0);
+        
+        // A missing file isn't an error
+        FileObject missingFile = currMan.resolveFile(
+                String.format("%s://%s/%s/%s", SS3Constants.S3SCHEME, currHost, 
+                              currContainerStr, "uploadFile02/missing"), opts);
+        Assert.assertFalse(missingFile.exists());
+        
+        Assert.assertEquals(server.getRequestCount(Operation.HEAD_OBJECT), 
+                metrics.getStats(SS3Operation.HEAD_OBJECT).getCount());
+        Assert.assertEquals(0, metrics.getErrorCount());
+        
+        Assert.assertEquals(1, ManagementFactory.getPlatformMBeanServer().queryNames(
+                new ObjectName("com.sludev.commons.vfs2.provider.s3:type=SS3FileSystem,*"), null).size());
+        
+        // Freeing unused resources leaves the cached file-system's metrics registered
+        ((SS3FileSystem)currFile.getFileSystem()).closeCommunicationLink();
+        Assert.assertEquals(1, ManagementFactory.getPlatformMBeanServer().queryNames(
+                new ObjectName("com.sludev.commons.vfs2.provider.s3:type=SS3FileSystem,*"), null).size());
+        
+        currMan.close();
+        
+        Assert.assertEquals(0, ManagementFactory.getPlatformMBeanServer().queryNames(
+                new ObjectName("com.sludev.commons.vfs2.provider.s3:type=SS3FileSystem,*"), null).size());
+    }
+    
+    /**
+     * Request listeners see every S3 request start and finish.
+     * 
+     * @throws Exception 
+     */
+    @Test
+    public void A026_requestListener() throws Exception
+    {
+        String currContainerStr = testProperties.getProperty("s3.test0001.bucket.name");
+        String currHost = testProperties.getProperty("s3.host");
+        
+        SS3FileProvider currSS3 = server.createProvider();
+        
+        DefaultFileSystemManager currMan = new DefaultFileSystemManager();
+        currMan.addProvider(SS3Constants.S3SCHEME, currSS3);
+        currMan.init(); 
+        
+        FileSystemOptions opts = server.createOptions();
+        SS3FileSystemConfigBuilder.getInstance().setSlowRequestThreshold(opts, 0);
+        
+        String currUriStr = String.format("%s://%s/%s/%s", 
+                           SS3Constants.S3SCHEME, currHost, currContainerStr, "uploadFile02/file04");
+        FileObject currFile = currMan.resolveFile(currUriStr, opts);
+        
+        final List<SS3RequestEvent> started = new CopyOnWriteArrayList<>();
+        final List<SS3RequestEvent> finished = new CopyOnWriteArrayList<>();
+        
+        ((SS3FileSystem)currFile.getFileSystem()).addRequestListener(new SS3RequestListener()
+        {
+            @Override
+            public void requestStarted(SS3RequestEvent event)
+            {
+                started.add(event);
+            }
+
+            @Override
+            public void requestFinished(SS3RequestEvent event)
+            {
+                finished.add(event);
+            }
+        });
+        
+        server.resetRequests();
+        
+        FileObject missingFile = currMan.resolveFile(
+                String.format("%s://%s/%s/%s", SS3Constants.S3SCHEME, currHost, 
+                              currContainerStr, "uploadFile02/missing"), opts);
+        Assert.assertFalse(missingFile.exists());
+        
+        // The HEAD misses, then a single-key listing checks for a folder
+        Assert.assertEquals(1, server.getRequestCount(Operation.HEAD_OBJECT));
+        Assert.assertEquals(1, server.getRequestCount(Operation.LIST_OBJECTS));
+        Assert.assertEquals(2, server.getRequestCount());
+        
+        Assert.assertEquals(2, started.size());
+        Assert.assertEquals(2, finished.size());
+        
+        boolean foundHead = false;
+        for( SS3RequestEvent event : finished )
+        {
+            log.info( String.format("%s", event) );
+            
+            if( event.getOperation() == SS3Operation.HEAD_OBJECT )
+            {
+                Assert.assertEquals(currContainerStr, event.getBucket());
+                Assert.assertEquals("uploadFile02/missing", event.getKey());
+                Assert.assertEquals(404, event.getStatus());
+                Assert.assertNotNull(event.getFailure());
+                
+                foundHead = true;
+            }
+            else
+            {
+                Assert.assertEquals(SS3Operation.LIST_OBJECTS, event.getOperation());
+                Assert.assertEquals(SS3RequestEvent.STATUS_NO_ERROR, event.getStatus());
+                Assert.assertTrue(event.isSuccessful());
+            }
+        }
+        
+        Assert.assertTrue(foundHead);
+        
+        currMan.close();
+    }
+    
+    /**
+     * Throttled reads are retried, and slow reads are hedged.
+     * 
+     * @throws Exception 
+     */
+    @Test
+    public void A027_retryAndHedge() throws Exception
+    {
+        String currContainerStr = testProperties.getProperty("s3.test0001.bucket.name");
+        String currHost = testProperties.getProperty("s3.host");
+        
+        SS3FileProvider currSS3 = server.createProvider();
+        
+        DefaultFileSystemManager currMan = new DefaultFileSystemManager();
+        currMan.addProvider(SS3Constants.S3SCHEME, currSS3);
+        currMan.init(); 
+        
+        FileSystemOptions opts = server.createOptions();
+        SS3FileSystemConfigBuilder builder = SS3FileSystemConfigBuilder.getInstance();
+        
+        builder.setThrottleRetries(opts, 3);
+        builder.setThrottleBackoff(opts, 10);
+        
+        server.throttle(Operation.HEAD_OBJECT, 2);
+        
+        String currUriStr = String.format("%s://%s/%s/%s", 
+                           SS3Constants.S3SCHEME, currHost, currContainerStr, "uploadFile02/file04");
+        FileObject currFile = currMan.resolveFile(currUriStr, opts);
+        
+        // The client's own retry policy doesn't add to these
+        Assert.assertTrue(currFile.exists());
+        Assert.assertEquals(3, server.getRequestCount(Operation.HEAD_OBJECT));
+        
+        FileSystemOptions hedgeOpts = server.createOptions();
+        builder.setHedgePercentile(hedgeOpts, 95);
+        builder.setHedgeDelay(hedgeOpts, 500);
+        
+        currUriStr = String.format("%s://%s/%s/%s", 
+                           SS3Constants.S3SCHEME, currHost, currContainerStr, "uploadFile02");
+        currFile = currMan.resolveFile(currUriStr, hedgeOpts);
+        
+        Assert.assertEquals(FileType.FOLDER, currFile.getType());
+        
+        // The listing stalls, so it's hedged instead of waited for
+        server.resetRequests();
+        server.delay(Operation.LIST_OBJECTS, 1, 3000);
+        
+        long start = System.nanoTime();
+        
+        Assert.assertEquals(3, currFile.getChildren().length);
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(2000));
+        
+        // Only the hedge has been answered so far
+        Assert.assertEquals(1, server.getRequestCount(Operation.LIST_OBJECTS));
+        
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while( server.getRequestCount(Operation.LIST_OBJECTS) < 2 
+                && System.nanoTime() < deadline )
+        {
+            Thread.sleep(50);
+        }
+        
+        Assert.assertEquals(2, server.getRequestCount(Operation.LIST_OBJECTS));
+        Assert.assertEquals(2, server.getRequestCount());
+        
+        currMan.close();
+    }
+    
+    /**
+     * Attaching an existing file makes a single HEAD and no listing.
+     * 
+     * @throws Exception 
+     */
+    @Test
+    public void A028_attachRequests() throws Exception
+    {
+        String currContainerStr = testProperties.getProperty("s3.test0001.bucket.name");
+        String currHost = testProperties.getProperty("s3.host");
+        
+        SS3FileProvider currSS3 = server.createProvider();
+        
+        DefaultFileSystemManager currMan = new DefaultFileSystemManager();
+        currMan.addProvider(SS3Constants.S3SCHEME, currSS3);
+        currMan.init(); 
+        
+        FileSystemOptions opts = server.createOptions();
+        
+        String currUriStr = String.format("%s://%s/%s/%s", 
+                           SS3Constants.S3SCHEME, currHost, currContainerStr, "uploadFile02/file04");
+        FileObject currFile = currMan.resolveFile(currUriStr, opts);
+        
+        Assert.assertEquals(FileType.FILE, currFile.getType());
+        Assert.assertEquals(7, currFile.getContent().getSize());
+        
+        Assert.assertEquals(1, server.getRequestCount(Operation.HEAD_OBJECT));
+        Assert.assertEquals(0, server.getRequestCount(Operation.LIST_OBJECTS));
+        Assert.assertEquals(1, server.getRequestCount());
+        
+        // With the overlapping probe, a missing path is checked both ways at once
+        FileSystemOptions overlapOpts = server.createOptions();
+        SS3FileSystemConfigBuilder.getInstance().setOverlapFolderProbe(overlapOpts, true);
+        
+        server.resetRequests();
+        
+        currUriStr = String.format("%s://%s/%s/%s", 
+                           SS3Constants.S3SCHEME, currHost, currContainerStr, "uploadFile02/missing");
+        currFile = currMan.resolveFile(currUriStr, overlapOpts);
+        
+        Assert.assertFalse(currFile.exists());
+        Assert.assertEquals(1, server.getRequestCount(Operation.HEAD_OBJECT));
+        Assert.assertEquals(1, server.getRequestCount(Operation.LIST_OBJECTS));
+        Assert.assertEquals(2, server.getRequestCount());
+        
+        currMan.close();
+    }
+    
+    /**
+     * Connection, timeout and retry options reach the client's configuration.
+     * 
+     * @throws Exception 
+     */
+    @Test
+    public void A029_clientConfiguration() throws Exception
+    {
+        String currContainerStr = testProperties.getProperty("s3.test0001.bucket.name");
+        String currHost = testProperties.getProperty("s3.host");
+        
+        SS3FileProvider currSS3 = server.createProvider();
+        
+        DefaultFileSystemManager currMan = new DefaultFileSystemManager();
+        currMan.addProvider(SS3Constants.S3SCHEME, currSS3);
+        currMan.init(); 
+        
+        String currUriStr = String.format("%s://%s/%s/%s", 
+                           SS3Constants.S3SCHEME, currHost, currContainerStr, "uploadFile02/file04");
+        
+        // Options not set keep the client's defaults
+        FileObject currFile = currMan.resolveFile(currUriStr, server.createOptions());
+        ClientConfiguration config = ((SS3FileSystem)currFile.getFileSystem()).getClientKey().getConfig();
+        ClientConfiguration defaults = new ClientConfiguration();
+        
+        Assert.assertEquals(defaults.getMaxConnections(), config.getMaxConnections());
+        Assert.assertEquals(defaults.getSocketTimeout(), config.getSocketTimeout());
+        Assert.assertEquals(defaults.getMaxErrorRetry(), config.getMaxErrorRetry());
+        
+        FileSystemOptions opts = server.createOptions();
+        SS3FileSystemConfigBuilder builder = SS3FileSystemConfigBuilder.getInstance();
+        
+        RetryPolicy policy = new RetryPolicy(PredefinedRetryPolicies.DEFAULT_RETRY_CONDITION, 
+                PredefinedRetryPolicies.DEFAULT_BACKOFF_STRATEGY, 5, true);
+        
+        builder.setMaxConnections(opts, 7);
+        builder.setSocketTimeout(opts, 1234);
+        builder.setConnectionTimeout(opts, 2345);
+        builder.setConnectionTTL(opts, 3456);
+        builder.setTcpKeepAlive(opts, true);
+        builder.setRetryPolicy(opts, policy);
+        builder.setMaxErrorRetry(opts, 2);
+        
+        currFile = currMan.resolveFile(currUriStr, opts);
+        config = ((SS3FileSystem)currFile.getFileSystem()).getClientKey().getConfig();
+        
+        Assert.assertEquals(7, config.getMaxConnections());
+        Assert.assertEquals(1234, config.getSocketTimeout());
+        Assert.assertEquals(2345, config.getConnectionTimeout());
+        Assert.assertEquals(3456, config.getConnectionTTL());
+        Assert.assertTrue(config.useTcpKeepAlive());
+        Assert.assertSame(policy, config.getRetryPolicy());
+        Assert.assertEquals(2, config.getMaxErrorRetry());
+        
+        Assert.assertTrue(currFile.exists());
+        
+        // With throttle retries the policy is wrapped, the same way each time
+        FileSystemOptions throttleOpts = server.createOptions();
+        builder.setRetryPolicy(throttleOpts, policy);
+        builder.setThrottleRetries(throttleOpts, 2);
+        
+        FileSystemOptions throttleOpts02 = server.createOptions();
+        builder.setRetryPolicy(throttleOpts02, policy);
+        builder.setThrottleRetries(throttleOpts02, 2);
+        builder.setWorkerThreads(throttleOpts02, 2);
+        
+        config = ((SS3FileSystem)currMan.resolveFile(currUriStr, throttleOpts)
+                                    .getFileSystem()).getClientKey().getConfig();
+        ClientConfiguration config02 = ((SS3FileSystem)currMan.resolveFile(currUriStr, throttleOpts02)
+                                    .getFileSystem()).getClientKey().getConfig();
+        
+        Assert.assertNotSame(policy, config.getRetryPolicy());
+        Assert.assertSame(policy.getBackoffStrategy(), config.getRetryPolicy().getBackoffStrategy());
+        Assert.assertEquals(5, config.getRetryPolicy().getMaxErrorRetry());
+        Assert.assertSame(config.getRetryPolicy(), config02.getRetryPolicy());
+        
+        currMan.close();
+    }
+    
+    /**
+     * Copies keep user metadata, and reads and copies of an object that 
+     * changed since it was attached fail instead of mixing versions.
+     * 
+     * @throws Exception 
+     */
+    @Test
+    public void A030_conditionalRequests() throws Exception
+    {
+        String currContainerStr = testProperties.getProperty("s3.test0001.bucket.name");
+        String currHost = testProperties.getProperty("s3.host");
+        
+        Map<String, String> metadata = Collections.singletonMap("colour", "blue");
+        server.putObject(currContainerStr, "meta01", "Meta 01".getBytes("UTF-8"), metadata);
+        
+        SS3FileProvider currSS3 = server.createProvider();
+        
+        DefaultFileSystemManager currMan = new DefaultFileSystemManager();
+        currMan.addProvider(SS3Constants.S3SCHEME, currSS3);
+        currMan.init(); 
+        
+        FileSystemOptions opts = server.createOptions();
+        
+        // Every copy is a multipart copy here
+        FileSystemOptions multipartOpts = server.createOptions();
+        SS3FileSystemConfigBuilder.getInstance().setMultipartCopyThreshold(multipartOpts, 1);
+        
+        String currUriStr = String.format("%s://%s/%s/", SS3Constants.S3SCHEME, currHost, currContainerStr);
+        
+        FileObject srcFile = currMan.resolveFile(currUriStr + "meta01", opts);
+        FileObject copyFile = currMan.resolveFile(currUriStr + "metaCopy01", opts);
+        
+        copyFile.copyFrom(srcFile, Selectors.SELECT_SELF);
+        Assert.assertEquals(metadata, server.getUserMetadata(currContainerStr, "metaCopy01"));
+        
+        SS3FileObject multipartSrc = (SS3FileObject)currMan.resolveFile(currUriStr + "meta01", multipartOpts);
+        copyFile = currMan.resolveFile(currUriStr + "metaCopy02", multipartOpts);
+        
+        server.resetRequests();
+        
+        copyFile.copyFrom(multipartSrc, Selectors.SELECT_SELF);
+        Assert.assertEquals(1, server.getRequestCount(Operation.UPLOAD_PART_COPY));
+        Assert.assertEquals(metadata, server.getUserMetadata(currContainerStr, "metaCopy02"));
+        Assert.assertEquals("Meta 01", 
+                new String(server.getObject(currContainerStr, "metaCopy02"), "UTF-8"));
+        
+        String eTag = multipartSrc.getETag();
+        Assert.assertEquals("Meta", new String(multipartSrc.getObjectRange(0, 3, eTag), "UTF-8"));
+        
+        // The object changes after it was attached
+        server.putObject(currContainerStr, "meta01", "Changed".getBytes("UTF-8"), metadata);
+        
+        try
+        {
+            multipartSrc.getObjectRange(0, 3, eTag);
+            
+            Assert.fail("A read of a changed object should fail");
+        }
+        catch (IOException ex)
+        {
+            // Expected
+        }
+        
+        copyFile = currMan.resolveFile(currUriStr + "metaCopy03", multipartOpts);
+        
+        try
+        {
+            copyFile.copyFrom(multipartSrc, Selectors.SELECT_SELF);
+            
+            Assert.fail("A copy of a changed object should fail");
+        }
+        catch (FileSystemException ex)
+        {
+            // Expected
+        }
+        
+        Assert.assertNull(server.getObject(currContainerStr, "metaCopy03"));
+        
+        currMan.close();
+        
+        for( String currKey : new String[] { "meta01", "metaCopy01", "metaCopy02" } )
+        {
+            server.deleteObject(currContainerStr, currKey);
+        }
+    }
+    
+    public void uploadFileSetup02() throws Exception
+    {
+        String currContainerStr = testProperties.getProperty("s3.test0001.bucket.name");
+        
+        server.putObject(currContainerStr, "uploadFile02/dir01/file01", "File 01".getBytes("UTF-8"));
+        server.putObject(currContainerStr, "uploadFile02/dir01/file02", "File 02".getBytes("UTF-8"));
+        server.putObject(currContainerStr, "uploadFile02/dir02/file03", "File 03".getBytes("UTF-8"));
+        server.putObject(currContainerStr, "uploadFile02/file04", "File 04".getBytes("UTF-8"));
+        server.putObject(currContainerStr, "file05", "File 05".getBytes("UTF-8"));
+        server.putObject(currContainerStr, "uploadFile02/dir02/file06", "File 06".getBytes("UTF-8"));
+    }
+    
+    public void removeFileSetup02() throws Exception
+    {
+        String currContainerStr = testProperties.getProperty("s3.test0001.bucket.name");
+        
+        server.deleteObject(currContainerStr, "uploadFile02/dir01/file01");
+        server.deleteObject(currContainerStr, "uploadFile02/dir01/file02");
+        server.deleteObject(currContainerStr, "uploadFile02/dir02/file03");
+        server.deleteObject(currContainerStr, "uploadFile02/file04");
+        server.deleteObject(currContainerStr, "file05");
+        server.deleteObject(currContainerStr, "uploadFile02/dir02/file06");
     }
 }